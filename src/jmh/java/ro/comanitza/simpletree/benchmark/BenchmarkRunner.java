@@ -0,0 +1,32 @@
+package ro.comanitza.simpletree.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * Main class of the benchmarks jar, the standard JMH command line with the allocation profiler always enabled
+ *
+ * java -jar target/benchmarks.jar [JMH options, for example OutcomeBenchmark -p rows=1000000]
+ *
+ * @author comanitza
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner () {}
+
+    public static void main (final String[] args) throws RunnerException, CommandLineOptionException {
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,68 @@
+package ro.comanitza.simpletree.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ro.comanitza.simpletree.DecisionTreeImpl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Benchmark of {@link DecisionTreeImpl#learn(List)}, exact and histogram modes, on synthetic datasets
+ *
+ * @author comanitza
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LearnBenchmark {
+
+    @Param({"10000", "100000"})
+    private int rows;
+
+    @Param({"4", "12"})
+    private int nominal;
+
+    @Param({"2"})
+    private int numeric;
+
+    @Param({"8", "64"})
+    private int cardinality;
+
+    @Param({"4"})
+    private int classes;
+
+    /*
+     * 0 for the exact split finding
+     */
+    @Param({"0", "256"})
+    private int maxBins;
+
+    @Param({"1"})
+    private int parallelism;
+
+    private List<SyntheticElement> elements;
+
+    @Setup(Level.Trial)
+    public void setUp () {
+        elements = SyntheticData.generate(rows, nominal, numeric, cardinality, classes, 1);
+    }
+
+    @Benchmark
+    public DecisionTreeImpl<SyntheticElement> learn () {
+
+        DecisionTreeImpl.Builder<SyntheticElement> builder = DecisionTreeImpl.<SyntheticElement>builder().parallelism(parallelism);
+
+        if (maxBins > 0) {
+            builder.maxBins(maxBins);
+        }
+
+        DecisionTreeImpl<SyntheticElement> tree = builder.build();
+        tree.learn(elements);
+
+        return tree;
+    }
+}
@@ -0,0 +1,137 @@
+package ro.comanitza.simpletree.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ro.comanitza.simpletree.CompiledDecisionTree;
+import ro.comanitza.simpletree.DecisionTreeImpl;
+import ro.comanitza.simpletree.MappedDecisionTree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Benchmark of the scoring paths: the tree, its compiled form, its generated bytecode and the mapped model, one element at a time and in batch
+ *
+ * Every invocation scores the same {@link #QUERIES} elements, the scores are reported per element.
+ *
+ * @author comanitza
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutcomeBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"100000"})
+    private int rows;
+
+    @Param({"12"})
+    private int nominal;
+
+    @Param({"4"})
+    private int numeric;
+
+    @Param({"16"})
+    private int cardinality;
+
+    @Param({"4"})
+    private int classes;
+
+    private DecisionTreeImpl<SyntheticElement> tree;
+    private CompiledDecisionTree<SyntheticElement> compiled;
+    private CompiledDecisionTree<SyntheticElement> generated;
+    private MappedDecisionTree<SyntheticElement> mapped;
+    private Path model;
+
+    private List<SyntheticElement> queries;
+    private int[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp () throws IOException {
+
+        tree = new DecisionTreeImpl<>();
+        tree.learn(SyntheticData.generate(rows, nominal, numeric, cardinality, classes, 1));
+
+        compiled = tree.compile();
+        generated = compiled.generate();
+
+        model = Files.createTempFile("simpletree", ".model");
+        compiled.writeTo(model);
+        mapped = MappedDecisionTree.open(model, SyntheticElement.class);
+
+        queries = SyntheticData.generate(QUERIES, nominal, numeric, cardinality, classes, 2);
+        ids = new int[QUERIES];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown () throws IOException {
+        Files.deleteIfExists(model);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void outcome (final Blackhole blackhole) {
+
+        for (SyntheticElement e: queries) {
+            blackhole.consume(tree.outcome(e));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void compiledOutcome (final Blackhole blackhole) {
+
+        for (SyntheticElement e: queries) {
+            blackhole.consume(compiled.outcome(e));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void compiledOutcomeId (final Blackhole blackhole) {
+
+        for (SyntheticElement e: queries) {
+            blackhole.consume(compiled.outcomeId(e));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void generatedOutcomeId (final Blackhole blackhole) {
+
+        for (SyntheticElement e: queries) {
+            blackhole.consume(generated.outcomeId(e));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void mappedOutcomeId (final Blackhole blackhole) {
+
+        for (SyntheticElement e: queries) {
+            blackhole.consume(mapped.outcomeId(e));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public List<Optional<String>> outcomes () {
+        return tree.outcomes(queries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int[] compiledOutcomeIds () {
+        compiled.outcomeIds(queries, ids);
+        return ids;
+    }
+}
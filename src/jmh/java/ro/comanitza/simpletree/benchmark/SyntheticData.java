@@ -0,0 +1,90 @@
+package ro.comanitza.simpletree.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ *
+ * Generator of reproducible {@link SyntheticElement} datasets
+ *
+ * The class of an element depends on its first two nominal fields and its first numeric field, with a share of random noise,
+ * so the learned trees have a realistic depth. The fields that are not used keep a constant value.
+ *
+ * @author comanitza
+ */
+public final class SyntheticData {
+
+    public static final int MAX_NOMINAL = 12;
+    public static final int MAX_NUMERIC = 4;
+
+    private static final double NOISE = 0.05;
+
+    private SyntheticData () {}
+
+    /**
+     *
+     * Generate a dataset
+     *
+     * @param rows the number of elements
+     * @param nominal the number of nominal fields to fill, at most {@link #MAX_NOMINAL}
+     * @param numeric the number of numeric fields to fill, at most {@link #MAX_NUMERIC}
+     * @param cardinality the number of distinct values of every nominal field
+     * @param classes the number of distinct classes
+     * @param seed the seed of the generator, the same seed gives the same dataset
+     * @return the elements
+     */
+    public static List<SyntheticElement> generate (final int rows, final int nominal, final int numeric, final int cardinality, final int classes, final long seed) {
+
+        if (nominal > MAX_NOMINAL || numeric > MAX_NUMERIC) {
+            throw new IllegalArgumentException("At most " + MAX_NOMINAL + " nominal and " + MAX_NUMERIC + " numeric fields, got " + nominal + " and " + numeric);
+        }
+
+        Random random = new Random(seed);
+        String[] values = new String[cardinality];
+        String[] labels = new String[classes];
+
+        for (int v = 0; v < cardinality; v++) {
+            values[v] = "v" + v;
+        }
+
+        for (int c = 0; c < classes; c++) {
+            labels[c] = "c" + c;
+        }
+
+        List<SyntheticElement> elements = new ArrayList<>(rows);
+
+        for (int row = 0; row < rows; row++) {
+
+            SyntheticElement e = new SyntheticElement();
+            int key = 0;
+
+            for (int a = 0; a < MAX_NOMINAL; a++) {
+
+                int code = (a < nominal) ? random.nextInt(cardinality) : 0;
+
+                e.setNominal(a, (a < nominal) ? values[code] : "-");
+
+                if (a < 2) {
+                    key = key * 31 + code;
+                }
+            }
+
+            for (int a = 0; a < MAX_NUMERIC; a++) {
+
+                double value = (a < numeric) ? random.nextDouble() * 100 : 0;
+
+                e.setNumeric(a, value);
+
+                if (a == 0) {
+                    key += (int) (value / 25);
+                }
+            }
+
+            e.label = labels[(random.nextDouble() < NOISE) ? random.nextInt(classes) : key % classes];
+            elements.add(e);
+        }
+
+        return elements;
+    }
+}
@@ -0,0 +1,143 @@
+package ro.comanitza.simpletree.benchmark;
+
+import ro.comanitza.simpletree.ClassField;
+import ro.comanitza.simpletree.Element;
+
+/**
+ *
+ * Benchmark element with {@link SyntheticData#MAX_NOMINAL} nominal and {@link SyntheticData#MAX_NUMERIC} numeric fields,
+ * filled by {@link SyntheticData}
+ *
+ * @author comanitza
+ */
+public class SyntheticElement implements Element {
+
+    String n0;
+    String n1;
+    String n2;
+    String n3;
+    String n4;
+    String n5;
+    String n6;
+    String n7;
+    String n8;
+    String n9;
+    String n10;
+    String n11;
+
+    double x0;
+    double x1;
+    double x2;
+    double x3;
+
+    @ClassField
+    String label;
+
+    public String getN0() {
+        return n0;
+    }
+
+    public String getN1() {
+        return n1;
+    }
+
+    public String getN2() {
+        return n2;
+    }
+
+    public String getN3() {
+        return n3;
+    }
+
+    public String getN4() {
+        return n4;
+    }
+
+    public String getN5() {
+        return n5;
+    }
+
+    public String getN6() {
+        return n6;
+    }
+
+    public String getN7() {
+        return n7;
+    }
+
+    public String getN8() {
+        return n8;
+    }
+
+    public String getN9() {
+        return n9;
+    }
+
+    public String getN10() {
+        return n10;
+    }
+
+    public String getN11() {
+        return n11;
+    }
+
+    public double getX0() {
+        return x0;
+    }
+
+    public double getX1() {
+        return x1;
+    }
+
+    public double getX2() {
+        return x2;
+    }
+
+    public double getX3() {
+        return x3;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    void setNominal (final int index, final String value) {
+
+        switch (index) {
+            case 0: n0 = value; break;
+            case 1: n1 = value; break;
+            case 2: n2 = value; break;
+            case 3: n3 = value; break;
+            case 4: n4 = value; break;
+            case 5: n5 = value; break;
+            case 6: n6 = value; break;
+            case 7: n7 = value; break;
+            case 8: n8 = value; break;
+            case 9: n9 = value; break;
+            case 10: n10 = value; break;
+            case 11: n11 = value; break;
+            default: throw new IllegalArgumentException("No nominal field " + index);
+        }
+    }
+
+    void setNumeric (final int index, final double value) {
+
+        switch (index) {
+            case 0: x0 = value; break;
+            case 1: x1 = value; break;
+            case 2: x2 = value; break;
+            case 3: x3 = value; break;
+            default: throw new IllegalArgumentException("No numeric field " + index);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SyntheticElement{" +
+                "n0='" + n0 + '\'' +
+                ", n1='" + n1 + '\'' +
+                ", x0=" + x0 +
+                ", label='" + label + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,209 @@
+package ro.comanitza.simpletree;
+
+import java.util.Arrays;
+
+/**
+ *
+ * The attributes of a {@link Dataset} bucketed in a bounded number of bins, the input of the {@link HistogramTreeLearner}
+ *
+ * Numeric attributes are cut by quantiles on their presorted rows, never separating equal values, and NaN values get a bin of their own.
+ * Every boundary between two bins is a candidate threshold, the middle of the last value of the lower bin and the first value of the upper one.
+ *
+ * Nominal attributes with no more values than bins keep their codes as bins. The others keep the most frequent values
+ * and fold all the remaining ones in the last bin, which then goes to a single branch when the attribute is split.
+ *
+ * @author comanitza
+ */
+final class BinnedDataset {
+
+    private final int[][] bins;
+    private final int[] binCounts;
+
+    /*
+     * per numeric attribute, the threshold between bin b and bin b + 1, NaN if it is not a split point
+     */
+    private final double[][] thresholds;
+
+    /*
+     * per nominal attribute, the bin of every code, null when the codes are the bins
+     */
+    private final int[][] codeBins;
+
+    private BinnedDataset (final int attributes) {
+        this.bins = new int[attributes][];
+        this.binCounts = new int[attributes];
+        this.thresholds = new double[attributes][];
+        this.codeBins = new int[attributes][];
+    }
+
+    /**
+     *
+     * Bucket the attributes of a dataset
+     *
+     * @param data the dataset
+     * @param maxBins the maximum number of bins per attribute
+     * @return the bucketed dataset
+     */
+    static BinnedDataset of (final Dataset data, final int maxBins) {
+
+        BinnedDataset binned = new BinnedDataset(data.attributes());
+
+        for (int a = 0; a < data.attributes(); a++) {
+
+            if (data.isNumeric(a)) {
+                binned.binNumeric(a, data.values(a), data.sorted(a), maxBins);
+            } else {
+                binned.binNominal(a, data.column(a), data.dictionary(a).size(), maxBins);
+            }
+        }
+
+        return binned;
+    }
+
+    private void binNumeric (final int attribute, final double[] values, final int[] sorted, final int maxBins) {
+
+        int rows = sorted.length;
+        int finite = rows;
+
+        while (finite > 0 && Double.isNaN(values[sorted[finite - 1]])) {
+            finite--;
+        }
+
+        int limit = (finite < rows) ? maxBins - 1 : maxBins;
+        int target = Math.max(1, (finite + limit - 1) / limit);
+
+        int[] column = new int[rows];
+        double[] edges = new double[maxBins];
+        int bin = 0;
+        int size = 0;
+
+        Arrays.fill(edges, Double.NaN);
+
+        /*
+         * a bin is closed only when it is full and the value changes, so every closed bin holds at least target rows and there are at most limit bins
+         */
+        for (int i = 0; i < finite; i++) {
+
+            int row = sorted[i];
+
+            if (size >= target && values[row] != values[sorted[i - 1]]) {
+                edges[bin++] = TreeLearner.midpoint(values[sorted[i - 1]], values[row]);
+                size = 0;
+            }
+
+            column[row] = bin;
+            size++;
+        }
+
+        /*
+         * the edge before the NaN bin stays NaN, NaN values always go to the upper branch like in the exact learner
+         */
+        if (finite < rows && finite > 0) {
+            bin++;
+        }
+
+        for (int i = finite; i < rows; i++) {
+            column[sorted[i]] = bin;
+        }
+
+        bins[attribute] = column;
+        binCounts[attribute] = bin + 1;
+        thresholds[attribute] = Arrays.copyOf(edges, bin);
+    }
+
+    private void binNominal (final int attribute, final int[] codes, final int size, final int maxBins) {
+
+        if (size <= maxBins) {
+            bins[attribute] = codes;
+            binCounts[attribute] = size;
+            return;
+        }
+
+        int[] frequencies = new int[size];
+
+        for (int code: codes) {
+            frequencies[code]++;
+        }
+
+        /*
+         * rank the codes by decreasing frequency, then by code, packed in longs to sort them as primitives
+         */
+        long[] ranking = new long[size];
+
+        for (int code = 0; code < size; code++) {
+            ranking[code] = ((long) (Integer.MAX_VALUE - frequencies[code]) << 32) | code;
+        }
+
+        Arrays.sort(ranking);
+
+        int[] mapping = new int[size];
+        Arrays.fill(mapping, maxBins - 1);
+
+        for (int i = 0; i < maxBins - 1; i++) {
+            mapping[(int) ranking[i]] = 0;
+        }
+
+        /*
+         * the kept codes get their bins in code order, the others stay in the last bin
+         */
+        int bin = 0;
+
+        for (int code = 0; code < size; code++) {
+
+            if (mapping[code] == 0) {
+                mapping[code] = bin++;
+            }
+        }
+
+        int[] column = new int[codes.length];
+
+        for (int row = 0; row < codes.length; row++) {
+            column[row] = mapping[codes[row]];
+        }
+
+        bins[attribute] = column;
+        binCounts[attribute] = maxBins;
+        codeBins[attribute] = mapping;
+    }
+
+    /**
+     *
+     * @param attribute the attribute
+     * @return the bin of every row
+     */
+    int[] bins (final int attribute) {
+        return bins[attribute];
+    }
+
+    int binCount (final int attribute) {
+        return binCounts[attribute];
+    }
+
+    /**
+     *
+     * @param attribute the attribute
+     * @return for a numeric attribute the threshold separating every bin from the next one, NaN if it is not a split point, null for a nominal attribute
+     */
+    double[] thresholds (final int attribute) {
+        return thresholds[attribute];
+    }
+
+    /**
+     *
+     * @param attribute a nominal attribute
+     * @param code a code of the attribute dictionary
+     * @return the bin of the code
+     */
+    int bin (final int attribute, final int code) {
+        return (codeBins[attribute] == null) ? code : codeBins[attribute][code];
+    }
+
+    /**
+     *
+     * @param attribute a nominal attribute
+     * @return the bin of every code of the attribute dictionary, null when the codes are the bins
+     */
+    int[] codeBins (final int attribute) {
+        return codeBins[attribute];
+    }
+}
@@ -0,0 +1,144 @@
+package ro.comanitza.simpletree;
+
+import java.util.Arrays;
+
+/**
+ *
+ * The flattened trees of a {@link GradientBoostedTrees} model, all of them in the same primitive arrays
+ *
+ * The score of a class is its base score plus the sum of the values of the leaves reached in its trees, tree t scores class t % classes.
+ * The lookup is an iterative loop over the arrays. An unknown nominal value stops the lookup of a tree and the value of the node is taken,
+ * NaN values always go to the upper branch of a numeric split.
+ *
+ * Instances are immutable.
+ *
+ * @author comanitza
+ */
+final class BoostedForest {
+
+    private final double[] baseScores;
+    private final int[] roots;
+    private final boolean[] numeric;
+
+    /*
+     * per node, the split attribute (-1 for a leaf), the threshold of a numeric split, the first child, the number of children and the value
+     */
+    private final int[] attributes;
+    private final double[] thresholds;
+    private final int[] firstChildren;
+    private final int[] childCounts;
+    private final double[] values;
+
+    /*
+     * per nominal attribute, the bin (branch) of every code, null when the codes are the bins
+     */
+    private final int[][] codeBins;
+
+    private final int[] usedAttributes;
+
+    BoostedForest (final double[] baseScores, final int[] roots, final boolean[] numeric, final int[] attributes, final double[] thresholds,
+                   final int[] firstChildren, final int[] childCounts, final double[] values, final int[][] codeBins) {
+        this.baseScores = baseScores;
+        this.roots = roots;
+        this.numeric = numeric;
+        this.attributes = attributes;
+        this.thresholds = thresholds;
+        this.firstChildren = firstChildren;
+        this.childCounts = childCounts;
+        this.values = values;
+        this.codeBins = codeBins;
+        this.usedAttributes = Arrays.stream(attributes).filter((a) -> a >= 0).distinct().sorted().toArray();
+    }
+
+    int classCount () {
+        return baseScores.length;
+    }
+
+    /**
+     *
+     * @return the number of trees
+     */
+    int trees () {
+        return roots.length;
+    }
+
+    /**
+     *
+     * @return the attributes split on by at least one tree, the only ones to encode when scoring
+     */
+    int[] usedAttributes () {
+        return usedAttributes;
+    }
+
+    /**
+     *
+     * @param codes the codes of the nominal attributes, indexed by attribute, -1 for an unknown value
+     * @param numbers the values of the numeric attributes, indexed by attribute
+     * @param scores where to write the score of every class
+     */
+    void scores (final int[] codes, final double[] numbers, final double[] scores) {
+
+        int classes = baseScores.length;
+
+        System.arraycopy(baseScores, 0, scores, 0, classes);
+
+        for (int t = 0; t < roots.length; t++) {
+            scores[t % classes] += value(roots[t], codes, numbers);
+        }
+    }
+
+    private double value (final int root, final int[] codes, final double[] numbers) {
+
+        int node = root;
+
+        while (attributes[node] >= 0) {
+
+            int attribute = attributes[node];
+            int branch;
+
+            if (numeric[attribute]) {
+                branch = (numbers[attribute] <= thresholds[node]) ? 0 : 1;
+            } else {
+
+                int code = codes[attribute];
+                branch = (code < 0 || codeBins[attribute] == null) ? code : codeBins[attribute][code];
+
+                if (branch < 0 || branch >= childCounts[node]) {
+                    break;
+                }
+            }
+
+            node = firstChildren[node] + branch;
+        }
+
+        return values[node];
+    }
+
+    /**
+     *
+     * Turn the scores of an element into probabilities, in place
+     *
+     * @param scores the scores, the ones of the element start at the offset
+     * @param offset the index of the score of the first class
+     * @param classes the number of classes
+     */
+    static void softmax (final double[] scores, final int offset, final int classes) {
+
+        double max = Double.NEGATIVE_INFINITY;
+
+        for (int c = offset; c < offset + classes; c++) {
+            max = Math.max(max, scores[c]);
+        }
+
+        double sum = 0;
+
+        for (int c = offset; c < offset + classes; c++) {
+            scores[c] = Math.exp(scores[c] - max);
+            sum += scores[c];
+        }
+
+        for (int c = offset; c < offset + classes; c++) {
+            scores[c] /= sum;
+        }
+    }
+}
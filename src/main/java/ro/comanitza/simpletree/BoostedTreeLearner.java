@@ -0,0 +1,295 @@
+package ro.comanitza.simpletree;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Grows the regression trees of a {@link GradientBoostedTrees} model from the gradients and the hessians of the loss, on a {@link BinnedDataset}
+ *
+ * Every node sums the gradients and the hessians of its rows per bin, in one pass per attribute, and scores the splits with the
+ * second order gain G_L^2 / (H_L + lambda) + G_R^2 / (H_R + lambda) - G^2 / (H + lambda). Numeric attributes are split in two branches
+ * at a bin boundary, nominal attributes in one branch per bin like in the classification trees. The value of a node is the shrunk
+ * Newton step -G / (H + lambda) * learningRate, kept on the inner nodes too for the lookups stopped by an unknown value.
+ *
+ * The trees of all the rounds are appended to the same flat arrays, like in a {@link CompiledDecisionTree}: the children of a node are
+ * consecutive, a branch with no rows is a leaf with the value of its parent. The rows of a node are a range of a row ids array,
+ * partitioned in place when the node is split.
+ *
+ * @author comanitza
+ */
+final class BoostedTreeLearner {
+
+    private final BinnedDataset binned;
+    private final boolean[] numeric;
+    private final double learningRate;
+    private final double lambda;
+    private final int maxDepth;
+    private final int minSamplesLeaf;
+
+    /*
+     * the branch of every row of a node being split, indexed by row id, and the scratch space of the partitioning
+     */
+    private final int[] branches;
+    private final int[] buffer;
+
+    /*
+     * the gradient and hessian sums and the rows of every bin of the attribute being scored
+     */
+    private final double[] sums;
+    private final int[] counts;
+
+    /*
+     * the nodes of all the trees grown so far
+     */
+    private int size;
+    private int[] attributes = new int[64];
+    private int[] splitBins = new int[64];
+    private double[] thresholds = new double[64];
+    private int[] firstChildren = new int[64];
+    private int[] childCounts = new int[64];
+    private double[] values = new double[64];
+
+    /**
+     *
+     * @param data the encoded rows
+     * @param binned the bins of the rows, shared by all the rounds
+     * @param learningRate the shrinkage of the node values
+     * @param lambda the L2 regularization of the node values
+     * @param maxDepth the depth of the trees
+     * @param minSamplesLeaf the minimum number of rows of a branch
+     */
+    BoostedTreeLearner (final Dataset data, final BinnedDataset binned, final double learningRate, final double lambda, final int maxDepth, final int minSamplesLeaf) {
+        this.binned = binned;
+        this.numeric = new boolean[data.attributes()];
+        this.learningRate = learningRate;
+        this.lambda = lambda;
+        this.maxDepth = maxDepth;
+        this.minSamplesLeaf = minSamplesLeaf;
+        this.branches = new int[data.rows()];
+        this.buffer = new int[data.rows()];
+
+        int maxBins = 0;
+
+        for (int a = 0; a < numeric.length; a++) {
+            numeric[a] = data.isNumeric(a);
+            maxBins = Math.max(maxBins, binned.binCount(a));
+        }
+
+        this.sums = new double[2 * maxBins];
+        this.counts = new int[maxBins];
+    }
+
+    /**
+     *
+     * Grow one tree
+     *
+     * @param rows the ids of the rows to learn from, reordered by the learning
+     * @param gradients the gradients of the loss, indexed by row id
+     * @param hessians the hessians of the loss, indexed by row id
+     * @return the root of the tree
+     */
+    int grow (final int[] rows, final double[] gradients, final double[] hessians) {
+
+        int root = allocate(1);
+
+        grow(root, rows, 0, rows.length, 0, gradients, hessians);
+
+        return root;
+    }
+
+    private void grow (final int node, final int[] rows, final int from, final int to, final int depth, final double[] gradients, final double[] hessians) {
+
+        double gradient = 0;
+        double hessian = 0;
+
+        for (int i = from; i < to; i++) {
+            gradient += gradients[rows[i]];
+            hessian += hessians[rows[i]];
+        }
+
+        attributes[node] = -1;
+        values[node] = -gradient / (hessian + lambda) * learningRate;
+
+        if (depth >= maxDepth || to - from < 2 * minSamplesLeaf) {
+            return;
+        }
+
+        double parent = gradient * gradient / (hessian + lambda);
+        double bestGain = 0;
+        int bestAttribute = -1;
+        int bestBin = -1;
+
+        for (int a = 0; a < numeric.length; a++) {
+
+            int bins = binned.binCount(a);
+            int[] column = binned.bins(a);
+
+            Arrays.fill(sums, 0, 2 * bins, 0);
+            Arrays.fill(counts, 0, bins, 0);
+
+            for (int i = from; i < to; i++) {
+
+                int row = rows[i];
+                int bin = column[row];
+
+                sums[2 * bin] += gradients[row];
+                sums[2 * bin + 1] += hessians[row];
+                counts[bin]++;
+            }
+
+            if (numeric[a]) {
+
+                double[] edges = binned.thresholds(a);
+                double leftGradient = 0;
+                double leftHessian = 0;
+                int left = 0;
+
+                for (int bin = 0; bin < bins - 1; bin++) {
+
+                    leftGradient += sums[2 * bin];
+                    leftHessian += sums[2 * bin + 1];
+                    left += counts[bin];
+
+                    if (counts[bin] == 0 || Double.isNaN(edges[bin]) || left < minSamplesLeaf || to - from - left < minSamplesLeaf) {
+                        continue;
+                    }
+
+                    double rightGradient = gradient - leftGradient;
+                    double rightHessian = hessian - leftHessian;
+                    double gain = leftGradient * leftGradient / (leftHessian + lambda) + rightGradient * rightGradient / (rightHessian + lambda) - parent;
+
+                    if (gain > bestGain) {
+                        bestGain = gain;
+                        bestAttribute = a;
+                        bestBin = bin;
+                    }
+                }
+            } else {
+
+                double score = 0;
+                int filled = 0;
+                boolean valid = true;
+
+                for (int bin = 0; bin < bins && valid; bin++) {
+
+                    if (counts[bin] != 0) {
+                        valid = counts[bin] >= minSamplesLeaf;
+                        score += sums[2 * bin] * sums[2 * bin] / (sums[2 * bin + 1] + lambda);
+                        filled++;
+                    }
+                }
+
+                if (valid && filled > 1 && score - parent > bestGain) {
+                    bestGain = score - parent;
+                    bestAttribute = a;
+                    bestBin = -1;
+                }
+            }
+        }
+
+        if (bestAttribute < 0) {
+            return;
+        }
+
+        int[] column = binned.bins(bestAttribute);
+        int childCount = numeric[bestAttribute] ? 2 : binned.binCount(bestAttribute);
+
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            branches[row] = numeric[bestAttribute] ? ((column[row] <= bestBin) ? 0 : 1) : column[row];
+        }
+
+        int[] bounds = TreeLearner.partition(rows, from, to, childCount, branches, buffer);
+        int first = allocate(childCount);
+
+        attributes[node] = bestAttribute;
+        splitBins[node] = bestBin;
+        thresholds[node] = numeric[bestAttribute] ? binned.thresholds(bestAttribute)[bestBin] : Double.NaN;
+        firstChildren[node] = first;
+        childCounts[node] = childCount;
+
+        for (int branch = 0; branch < childCount; branch++) {
+
+            if (bounds[branch] < bounds[branch + 1]) {
+                grow(first + branch, rows, bounds[branch], bounds[branch + 1], depth + 1, gradients, hessians);
+            } else {
+                attributes[first + branch] = -1;
+                values[first + branch] = values[node];
+            }
+        }
+    }
+
+    /**
+     *
+     * Add the values of a tree to the scores of every row of the dataset
+     *
+     * @param root the root of the tree
+     * @param scores the scores, indexed by row * classes + class
+     * @param classes the number of classes
+     * @param label the class of the tree
+     */
+    void update (final int root, final double[] scores, final int classes, final int label) {
+
+        for (int row = 0; row < branches.length; row++) {
+
+            int node = root;
+
+            while (attributes[node] >= 0) {
+
+                int bin = binned.bins(attributes[node])[row];
+                int branch = numeric[attributes[node]] ? ((bin <= splitBins[node]) ? 0 : 1) : bin;
+
+                node = firstChildren[node] + branch;
+            }
+
+            scores[row * classes + label] += values[node];
+        }
+    }
+
+    /**
+     *
+     * @return the number of nodes grown so far, all the trees included
+     */
+    int size () {
+        return size;
+    }
+
+    /**
+     *
+     * Flatten the first trees grown
+     *
+     * @param baseScores the initial score of every class
+     * @param roots the roots of the trees, tree t scores class t % classes
+     * @param nodes the number of nodes of the trees, the nodes grown after them are dropped
+     * @param codeBins per nominal attribute, the bin of every code, null when the codes are the bins
+     * @return the forest
+     */
+    BoostedForest build (final double[] baseScores, final int[] roots, final int nodes, final int[][] codeBins) {
+        return new BoostedForest(baseScores, roots, numeric, Arrays.copyOf(attributes, nodes), Arrays.copyOf(thresholds, nodes),
+                Arrays.copyOf(firstChildren, nodes), Arrays.copyOf(childCounts, nodes), Arrays.copyOf(values, nodes), codeBins);
+    }
+
+    /**
+     *
+     * @return the first of count new consecutive nodes
+     */
+    private int allocate (final int count) {
+
+        if (size + count > attributes.length) {
+
+            int capacity = Math.max(attributes.length * 2, size + count);
+
+            attributes = Arrays.copyOf(attributes, capacity);
+            splitBins = Arrays.copyOf(splitBins, capacity);
+            thresholds = Arrays.copyOf(thresholds, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        int first = size;
+        size += count;
+
+        return first;
+    }
+}
@@ -0,0 +1,696 @@
+package ro.comanitza.simpletree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ *
+ * Read only, flattened form of a learned {@link DecisionTreeImpl}, built for fast inference
+ *
+ * The nodes are numbered breadth first (the root is 0) and stored in parallel primitive arrays:
+ * the split attribute of every node, the offset and the size of its child table, the threshold of the numeric splits, the label (majority class) of every node
+ * and the class counts of its learning rows.
+ * The child table of a numeric split has two entries, the lower or equal branch first. The child table of a nominal split with children
+ * for most of its codes has one entry per code of the split attribute dictionary, holding the child node number or -1.
+ * A nominal split with children for a few codes only, like the compacted nodes (see {@link Node#compactChildren()}), has a compacted table:
+ * the sorted codes of its children followed by their node numbers, searched by binary search. Its size is stored negated.
+ *
+ * A lookup meeting a value not seen while learning, or with no learning rows at the node, stops at the node and gives its majority class.
+ * The lookup is an iterative loop with no recursion, no hashing besides the dictionary lookup of the attribute value
+ * and no allocation until the final {@link Optional}, use {@link #outcomeId(Element)} to avoid that one too.
+ *
+ * Batches are scored column wise, see {@link #outcomeIds(List, int[])}.
+ *
+ * Besides the outcome, the class probabilities of an element are the shares of the classes among the learning rows of the node
+ * giving the outcome, see {@link #probabilities(Element, double[])} and {@link #top(Element, int)}.
+ *
+ * The tree can be saved with {@link #writeTo(Path)} and scored straight from the file with {@link MappedDecisionTree}.
+ *
+ * For the hottest models, {@link #generate()} turns the tree into bytecode, see {@link TreeClassGenerator}.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author comanitza
+ */
+public final class CompiledDecisionTree<T extends Element> {
+
+    /*
+     * number of rows scored together in batch mode, small enough for the block columns to stay in cache
+     */
+    private static final int BLOCK = 1024;
+
+    private final ElementSchema schema;
+    private final Dictionary[] dictionaries;
+    private final String[] classes;
+
+    /*
+     * per node, the split attribute or -1 for the leaves
+     */
+    private final int[] attributes;
+
+    /*
+     * per node, the offset of its child table in the children array
+     */
+    private final int[] childOffsets;
+
+    /*
+     * per node, the number of entries of a dense child table, or the number of children of a compacted table negated
+     */
+    private final int[] childCounts;
+
+    /*
+     * per node, the threshold of the numeric splits, NaN for the others
+     */
+    private final double[] thresholds;
+
+    /*
+     * per node, the label of the leaves, the majority class of the learning rows (or -1) for the inner nodes
+     */
+    private final int[] labels;
+
+    /*
+     * per node, the learning rows per class, indexed by node * classes + class
+     */
+    private final int[] classCounts;
+
+    /*
+     * the child tables of all the inner nodes, a dense table is indexed by childOffsets[node] + code
+     */
+    private final int[] children;
+
+    /*
+     * the attributes used by at least one split, the only ones read in batch mode
+     */
+    private final int[] usedAttributes;
+
+    /*
+     * the generated code of the single element lookups, null to walk the arrays
+     */
+    private final TreeClassGenerator.NodeLookup generated;
+
+    private CompiledDecisionTree (final ElementSchema schema, final Dictionary[] dictionaries, final String[] classes,
+                                  final int[] attributes, final int[] childOffsets, final int[] childCounts, final double[] thresholds, final int[] labels,
+                                  final int[] classCounts, final int[] children) {
+        this(schema, dictionaries, classes, attributes, childOffsets, childCounts, thresholds, labels, classCounts, children, null);
+    }
+
+    private CompiledDecisionTree (final ElementSchema schema, final Dictionary[] dictionaries, final String[] classes,
+                                  final int[] attributes, final int[] childOffsets, final int[] childCounts, final double[] thresholds, final int[] labels,
+                                  final int[] classCounts, final int[] children, final TreeClassGenerator.NodeLookup generated) {
+        this.schema = schema;
+        this.dictionaries = dictionaries;
+        this.classes = classes;
+        this.attributes = attributes;
+        this.childOffsets = childOffsets;
+        this.childCounts = childCounts;
+        this.thresholds = thresholds;
+        this.labels = labels;
+        this.classCounts = classCounts;
+        this.children = children;
+        this.usedAttributes = Arrays.stream(attributes).filter((a) -> a >= 0).distinct().sorted().toArray();
+        this.generated = generated;
+    }
+
+    /**
+     *
+     * Flatten a learned tree
+     *
+     * @param schema the schema of the learned type
+     * @param root the root of the tree
+     * @param dictionaries the dictionaries of the attributes
+     * @param classes the dictionary of the class field
+     * @param <T> the type of the elements
+     * @return the compiled tree
+     */
+    static <T extends Element> CompiledDecisionTree<T> compile (final ElementSchema schema, final Node root, final Dictionary[] dictionaries, final Dictionary classes) {
+
+        /*
+         * number the nodes breadth first, a node shared by several branches (see {@link HistogramTreeLearner}) is numbered once
+         */
+        List<Node> nodes = new ArrayList<>();
+        Map<Node, Integer> numbers = new IdentityHashMap<>();
+        int childSlots = 0;
+
+        nodes.add(root);
+        numbers.put(root, 0);
+
+        for (int n = 0; n < nodes.size(); n++) {
+
+            Node node = nodes.get(n);
+
+            if (!node.isLeaf()) {
+
+                childSlots += tableSize(childCount(node));
+
+                for (Node child: node.getChildren()) {
+
+                    if (child != null && !numbers.containsKey(child)) {
+                        numbers.put(child, nodes.size());
+                        nodes.add(child);
+                    }
+                }
+            }
+        }
+
+        int[] attributes = new int[nodes.size()];
+        int[] childOffsets = new int[nodes.size()];
+        int[] childCounts = new int[nodes.size()];
+        double[] thresholds = new double[nodes.size()];
+        int[] labels = new int[nodes.size()];
+        int[] classCounts = new int[nodes.size() * classes.size()];
+        int[] children = new int[childSlots];
+
+        int offset = 0;
+
+        for (int n = 0; n < nodes.size(); n++) {
+
+            Node node = nodes.get(n);
+
+            attributes[n] = node.getAttribute();
+            thresholds[n] = node.getThreshold();
+            labels[n] = node.getLabel();
+
+            if (node.getClassCounts() != null) {
+                System.arraycopy(node.getClassCounts(), 0, classCounts, n * classes.size(), Math.min(classes.size(), node.getClassCounts().length));
+            }
+
+            if (!node.isLeaf()) {
+
+                int count = childCount(node);
+                Node[] nodeChildren = node.getChildren();
+
+                childOffsets[n] = offset;
+                childCounts[n] = count;
+
+                if (count >= 0) {
+
+                    Arrays.fill(children, offset, offset + count, -1);
+
+                    for (int i = 0; i < nodeChildren.length; i++) {
+
+                        if (nodeChildren[i] != null) {
+                            children[offset + node.childCode(i)] = numbers.get(nodeChildren[i]);
+                        }
+                    }
+                } else {
+
+                    /*
+                     * the children are in increasing code order, dense or compacted
+                     */
+                    int entry = offset;
+
+                    for (int i = 0; i < nodeChildren.length; i++) {
+
+                        if (nodeChildren[i] != null) {
+                            children[entry] = node.childCode(i);
+                            children[entry - count] = numbers.get(nodeChildren[i]);
+                            entry++;
+                        }
+                    }
+                }
+
+                offset += tableSize(count);
+            }
+        }
+
+        String[] symbols = new String[classes.size()];
+
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = classes.symbol(i);
+        }
+
+        return new CompiledDecisionTree<>(schema, dictionaries, symbols, attributes, childOffsets, childCounts, thresholds, labels, classCounts, children);
+    }
+
+    /**
+     *
+     * A compacted table takes two entries per child, it is used when that is less than one entry per branch
+     *
+     * @return the number of entries of the dense child table of a node, or its number of children negated for a compacted table
+     */
+    private static int childCount (final Node node) {
+
+        int count = 0;
+
+        for (Node child: node.getChildren()) {
+
+            if (child != null) {
+                count++;
+            }
+        }
+
+        return (2 * count < node.branches()) ? -count : node.branches();
+    }
+
+    /**
+     *
+     * @return the number of ints of a child table of the provided count, two per child for a compacted table
+     */
+    private static int tableSize (final int count) {
+        return (count >= 0) ? count : -2 * count;
+    }
+
+    /**
+     *
+     * Look up the child of a node in its child table
+     *
+     * @param children the child tables
+     * @param offset the offset of the child table of the node
+     * @param count the size of the child table, negated for a compacted table
+     * @param code the code of the branch, not negative
+     * @return the child node number, -1 if the branch has no child
+     */
+    private static int child (final int[] children, final int offset, final int count, final int code) {
+
+        if (count >= 0) {
+            return (code < count) ? children[offset + code] : -1;
+        }
+
+        int i = Arrays.binarySearch(children, offset, offset - count, code);
+
+        return (i < 0) ? -1 : children[i - count];
+    }
+
+    /**
+     *
+     * Method to interogate the outcome for a provided {@link Element} instance
+     *
+     * @param element the element to query for
+     * @return an optional that might contain the outcome
+     */
+    public Optional<String> outcome (final T element) {
+
+        int label = outcomeId(element);
+
+        return (label < 0) ? Optional.empty() : Optional.ofNullable(classes[label]);
+    }
+
+    /**
+     *
+     * Allocation free variant of {@link #outcome(Element)}
+     *
+     * @param element the element to query for
+     * @return the id of the outcome, to be resolved with {@link #label(int)}, or -1 if there is no outcome
+     */
+    public int outcomeId (final T element) {
+        return labels[node(element)];
+    }
+
+    /**
+     *
+     * Method to interogate the outcome for a provided {@link Element} instance, with the confidence of the tree in it
+     *
+     * @param element the element to query for
+     * @return an optional that might contain the prediction
+     */
+    public Optional<Prediction> predict (final T element) {
+
+        int node = node(element);
+        int label = labels[node];
+
+        return (label < 0 || classes[label] == null) ? Optional.empty() : Optional.of(new Prediction(classes[label], confidence(node)));
+    }
+
+    /**
+     *
+     * Allocation free class probabilities of an element
+     *
+     * @param element the element to query for
+     * @param probabilities where to write the probabilities, indexed by class id (see {@link #label(int)}), at least {@link #classCount()} long
+     */
+    public void probabilities (final T element, final double[] probabilities) {
+
+        if (probabilities.length < classes.length) {
+            throw new IllegalArgumentException("Expected room for " + classes.length + " probabilities, got " + probabilities.length);
+        }
+
+        int offset = node(element) * classes.length;
+        int rows = 0;
+
+        for (int c = 0; c < classes.length; c++) {
+            rows += classCounts[offset + c];
+        }
+
+        for (int c = 0; c < classes.length; c++) {
+            probabilities[c] = (rows == 0) ? 0 : (double) classCounts[offset + c] / rows;
+        }
+    }
+
+    /**
+     *
+     * @param element the element to query for
+     * @return the class probabilities of the element, indexed by class id
+     */
+    public double[] probabilities (final T element) {
+
+        double[] probabilities = new double[classes.length];
+
+        probabilities(element, probabilities);
+
+        return probabilities;
+    }
+
+    /**
+     *
+     * @param element the element to query for
+     * @param k the maximum number of predictions
+     * @return the k most probable outcomes, by decreasing probability, with their probability as confidence
+     */
+    public List<Prediction> top (final T element, final int k) {
+        return Prediction.top(probabilities(element), this::label, k);
+    }
+
+    /**
+     *
+     * @return the leaf reached by the element, or the inner node where the lookup stopped
+     */
+    private int node (final T element) {
+
+        if (generated != null) {
+            return generated.node(schema, dictionaries, element);
+        }
+
+        int node = 0;
+        int attribute;
+
+        while ((attribute = attributes[node]) >= 0) {
+
+            int code = schema.isNumeric(attribute)
+                    ? ((schema.numericValue(attribute, element) <= thresholds[node]) ? 0 : 1)
+                    : dictionaries[attribute].code(schema.value(attribute, element));
+
+            int child = (code < 0) ? -1 : child(children, childOffsets[node], childCounts[node], code);
+
+            if (child < 0) {
+                return node;
+            }
+
+            node = child;
+        }
+
+        return node;
+    }
+
+    /**
+     *
+     * @return the share of the learning rows of a node that are of its label, NaN if unknown
+     */
+    private double confidence (final int node) {
+
+        int rows = 0;
+
+        for (int c = 0; c < classes.length; c++) {
+            rows += classCounts[node * classes.length + c];
+        }
+
+        return (rows == 0) ? Double.NaN : (double) classCounts[node * classes.length + labels[node]] / rows;
+    }
+
+    /**
+     *
+     * Variant of {@link #outcomeId(Element)} for an already encoded element, used by the ensembles to encode an element once for all their trees
+     *
+     * @param codes the dictionary codes of the nominal attributes, indexed by attribute
+     * @param values the values of the numeric attributes, indexed by attribute
+     * @return the id of the outcome or -1 if there is no outcome
+     */
+    int outcomeId (final int[] codes, final double[] values) {
+
+        int node = 0;
+        int attribute;
+
+        while ((attribute = attributes[node]) >= 0) {
+
+            int code = schema.isNumeric(attribute) ? ((values[attribute] <= thresholds[node]) ? 0 : 1) : codes[attribute];
+            int child = (code < 0) ? -1 : child(children, childOffsets[node], childCounts[node], code);
+
+            if (child < 0) {
+                break;
+            }
+
+            node = child;
+        }
+
+        return labels[node];
+    }
+
+    /**
+     *
+     * Method to interogate the outcomes for a batch of {@link Element} instances
+     *
+     * @param elements the elements to query for
+     * @return the outcomes, in the order of the elements
+     */
+    public List<Optional<String>> outcomes (final List<T> elements) {
+
+        int[] ids = new int[elements.size()];
+
+        outcomeIds(elements, ids);
+
+        return outcomes(ids);
+    }
+
+    /**
+     *
+     * @param ids the outcome ids of a batch
+     * @return the outcomes of the ids
+     */
+    List<Optional<String>> outcomes (final int[] ids) {
+
+        List<Optional<String>> outcomes = new ArrayList<>(ids.length);
+
+        for (int id: ids) {
+            outcomes.add((id < 0) ? Optional.empty() : Optional.ofNullable(classes[id]));
+        }
+
+        return outcomes;
+    }
+
+    /**
+     *
+     * Score a batch of elements, writing the outcome ids in the provided array
+     *
+     * The elements are processed in blocks. For every block the values of the used attributes are first extracted and encoded
+     * into code columns, then all the rows of the block are advanced through the tree one level at a time,
+     * so each pass is a tight loop over primitive arrays.
+     *
+     * @param elements the elements to query for
+     * @param ids where to write the outcome ids, to be resolved with {@link #label(int)}, -1 for no outcome
+     */
+    public void outcomeIds (final List<T> elements, final int[] ids) {
+        score(elements, ids);
+    }
+
+    /**
+     *
+     * Same as {@link #outcomeIds(List, int[])}, also counting the misses
+     *
+     * @return the number of elements whose lookup stopped before a leaf
+     */
+    int score (final List<T> elements, final int[] ids) {
+
+        if (ids.length < elements.size()) {
+            throw new IllegalArgumentException("Expected room for " + elements.size() + " ids, got " + ids.length);
+        }
+
+        int[][] codes = new int[schema.attributeCount()][];
+        double[][] values = new double[schema.attributeCount()][];
+
+        for (int attribute: usedAttributes) {
+
+            if (schema.isNumeric(attribute)) {
+                values[attribute] = new double[BLOCK];
+            } else {
+                codes[attribute] = new int[BLOCK];
+            }
+        }
+
+        int[] nodes = new int[BLOCK];
+        Element[] block = new Element[BLOCK];
+        int misses = 0;
+        Iterator<T> iterator = elements.iterator();
+
+        for (int start = 0; start < elements.size(); start += BLOCK) {
+
+            int length = Math.min(BLOCK, elements.size() - start);
+
+            for (int i = 0; i < length; i++) {
+                block[i] = iterator.next();
+            }
+
+            /*
+             * extract the block columns
+             */
+            for (int attribute: usedAttributes) {
+
+                if (schema.isNumeric(attribute)) {
+
+                    double[] column = values[attribute];
+
+                    for (int i = 0; i < length; i++) {
+                        column[i] = schema.numericValue(attribute, block[i]);
+                    }
+                } else {
+
+                    int[] column = codes[attribute];
+                    Dictionary dictionary = dictionaries[attribute];
+
+                    for (int i = 0; i < length; i++) {
+                        column[i] = dictionary.code(schema.value(attribute, block[i]));
+                    }
+                }
+            }
+
+            /*
+             * advance all the rows one level per pass, until all reached a leaf or a missing branch.
+             * A row stopped on a missing branch keeps its node encoded as -node - 1
+             */
+            Arrays.fill(nodes, 0, length, 0);
+
+            boolean moved = true;
+
+            while (moved) {
+
+                moved = false;
+
+                for (int i = 0; i < length; i++) {
+
+                    int node = nodes[i];
+
+                    if (node < 0 || attributes[node] < 0) {
+                        continue;
+                    }
+
+                    int attribute = attributes[node];
+                    int code = (codes[attribute] != null) ? codes[attribute][i] : ((values[attribute][i] <= thresholds[node]) ? 0 : 1);
+
+                    int child = (code < 0) ? -1 : child(children, childOffsets[node], childCounts[node], code);
+
+                    nodes[i] = (child < 0) ? -node - 1 : child;
+                    moved = true;
+                }
+            }
+
+            for (int i = 0; i < length; i++) {
+
+                if (nodes[i] < 0) {
+                    misses++;
+                }
+
+                ids[start + i] = labels[(nodes[i] < 0) ? -nodes[i] - 1 : nodes[i]];
+            }
+        }
+
+        return misses;
+    }
+
+    /**
+     *
+     * Generate the bytecode of the tree, every split becomes a comparison with a constant threshold or a switch on the dictionary code of the value
+     *
+     * The single element lookups of the returned tree run the generated code, with no array walk, and are inlined by the JIT once hot.
+     * The batches, the saved file and the results are the same as with this tree. Generating is slower than compiling, keep the result.
+     * A tree too big for the limits of a class file is not generated, this tree is returned and keeps walking the arrays.
+     *
+     * @return a tree scoring through the generated code, or this tree if it can not be generated
+     */
+    public CompiledDecisionTree<T> generate () {
+
+        if (generated != null) {
+            return this;
+        }
+
+        TreeClassGenerator.NodeLookup lookup = TreeClassGenerator.generate(this);
+
+        if (lookup == null) {
+            return this;
+        }
+
+        return new CompiledDecisionTree<>(schema, dictionaries, classes, attributes, childOffsets, childCounts, thresholds, labels, classCounts, children, lookup);
+    }
+
+    /**
+     *
+     * @return true if the single element lookups run generated code
+     */
+    boolean isGenerated () {
+        return generated != null;
+    }
+
+    /**
+     *
+     * @param id the id of an outcome
+     * @return the outcome
+     */
+    public String label (final int id) {
+        return classes[id];
+    }
+
+    /**
+     *
+     * @return the number of nodes of the tree
+     */
+    public int size () {
+        return attributes.length;
+    }
+
+    /**
+     *
+     * Save the tree in the binary model format, to be opened with {@link MappedDecisionTree#open(Path, Class)}
+     *
+     * @param path the file to write to, replaced if it exists
+     * @throws IOException if the file can not be written
+     */
+    public void writeTo (final Path path) throws IOException {
+        ModelFormat.write(this, path);
+    }
+
+    int[] usedAttributes () {
+        return usedAttributes;
+    }
+
+    /**
+     *
+     * @return the number of classes, the outcome ids are in [0, classCount)
+     */
+    public int classCount () {
+        return classes.length;
+    }
+
+    ElementSchema schema () {
+        return schema;
+    }
+
+    Dictionary[] dictionaries () {
+        return dictionaries;
+    }
+
+    int[] attributes () {
+        return attributes;
+    }
+
+    int[] childOffsets () {
+        return childOffsets;
+    }
+
+    int[] childCounts () {
+        return childCounts;
+    }
+
+    double[] thresholds () {
+        return thresholds;
+    }
+
+    int[] labels () {
+        return labels;
+    }
+
+    int[] classCounts () {
+        return classCounts;
+    }
+
+    int[] children () {
+        return children;
+    }
+}
@@ -0,0 +1,332 @@
+package ro.comanitza.simpletree;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Branch x class count matrix of a candidate split
+ *
+ * A branch is a value of the split attribute. The table is filled with a single pass over the rows of a node
+ * and all the split measures (Gini, entropy, information gain, gain ratio, chi-square) are computed from the counts, with no other pass over the data.
+ *
+ * The arrays are reused between {@link #reset(int)} calls, so a learner can evaluate all its candidates with one table.
+ *
+ * @author comanitza
+ */
+final class ContingencyTable implements SplitCounts {
+
+    private static final double LN_2 = Math.log(2);
+
+    private final int classes;
+    private int branches;
+    private int[] counts;
+    private int[] branchTotals;
+    private final int[] classTotals;
+    private int total;
+
+    ContingencyTable (final int branches, final int classes) {
+        this.classes = classes;
+        this.branches = branches;
+        this.counts = new int[branches * classes];
+        this.branchTotals = new int[branches];
+        this.classTotals = new int[classes];
+    }
+
+    /**
+     *
+     * Copy the counts of another implementation
+     *
+     * @param counts the counts to copy
+     * @return a table with the same counts
+     */
+    static ContingencyTable of (final SplitCounts counts) {
+
+        ContingencyTable table = new ContingencyTable(counts.branches(), counts.classes());
+
+        for (int b = 0; b < counts.branches(); b++) {
+
+            for (int c = 0; c < counts.classes(); c++) {
+                table.add(b, c, counts.count(b, c));
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     *
+     * Clear the table, making room for the provided number of branches
+     *
+     * @param branches the number of branches
+     */
+    void reset (final int branches) {
+
+        if (branches > branchTotals.length) {
+            counts = new int[branches * classes];
+            branchTotals = new int[branches];
+        } else {
+            Arrays.fill(counts, 0, branches * classes, 0);
+            Arrays.fill(branchTotals, 0, branches, 0);
+        }
+
+        Arrays.fill(classTotals, 0);
+        this.branches = branches;
+        this.total = 0;
+    }
+
+    /**
+     *
+     * Count one row
+     *
+     * @param branch the branch of the row
+     * @param label the class of the row
+     */
+    void add (final int branch, final int label) {
+        counts[branch * classes + label]++;
+        branchTotals[branch]++;
+        classTotals[label]++;
+        total++;
+    }
+
+    /**
+     *
+     * Count several rows of the same branch and class, used when the table is filled from a histogram
+     *
+     * @param branch the branch of the rows
+     * @param label the class of the rows
+     * @param rows the number of rows
+     */
+    void add (final int branch, final int label, final int rows) {
+        counts[branch * classes + label] += rows;
+        branchTotals[branch] += rows;
+        classTotals[label] += rows;
+        total += rows;
+    }
+
+    /**
+     *
+     * Move one already counted row to another branch, used when scanning the thresholds of a numeric attribute
+     *
+     * @param label the class of the row
+     * @param from the current branch of the row
+     * @param to the new branch of the row
+     */
+    void move (final int label, final int from, final int to) {
+        counts[from * classes + label]--;
+        counts[to * classes + label]++;
+        branchTotals[from]--;
+        branchTotals[to]++;
+    }
+
+    /**
+     *
+     * Move several already counted rows of the same class to another branch
+     *
+     * @param label the class of the rows
+     * @param from the current branch of the rows
+     * @param to the new branch of the rows
+     * @param rows the number of rows
+     */
+    void move (final int label, final int from, final int to, final int rows) {
+        counts[from * classes + label] -= rows;
+        counts[to * classes + label] += rows;
+        branchTotals[from] -= rows;
+        branchTotals[to] += rows;
+    }
+
+    @Override
+    public int branches () {
+        return branches;
+    }
+
+    @Override
+    public int classes () {
+        return classes;
+    }
+
+    @Override
+    public int count (final int branch, final int label) {
+        return counts[branch * classes + label];
+    }
+
+    @Override
+    public int branchTotal (final int branch) {
+        return branchTotals[branch];
+    }
+
+    @Override
+    public int classTotal (final int label) {
+        return classTotals[label];
+    }
+
+    @Override
+    public int total () {
+        return total;
+    }
+
+    /**
+     *
+     * Gini index of the whole table (the node before the split)
+     *
+     * Gini = 1 - sum (p1^2, p2^2...)
+     *
+     * @return the Gini index
+     */
+    double gini () {
+        return gini(classTotals, 0, total);
+    }
+
+    /**
+     *
+     * Sum of the Gini indexes of the branches, each weighted by the share of rows of the branch
+     *
+     * @return the sub table Gini index
+     */
+    double subTableGini () {
+
+        double sum = 0;
+
+        for (int b = 0; b < branches; b++) {
+
+            if (branchTotals[b] != 0) {
+                sum += gini(counts, b * classes, branchTotals[b]) * branchTotals[b] / total;
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     *
+     * @return the decrease of the Gini index obtained by the split
+     */
+    double giniGain () {
+        return gini() - subTableGini();
+    }
+
+    /**
+     *
+     * Entropy of the whole table (the node before the split)
+     *
+     * Entropy = - sum (p1 * log2(p1), p2 * log2(p2)...)
+     *
+     * @return the entropy
+     */
+    double entropy () {
+        return entropy(classTotals, 0, total);
+    }
+
+    /**
+     *
+     * Sum of the entropies of the branches, each weighted by the share of rows of the branch
+     *
+     * @return the sub table entropy
+     */
+    double subTableEntropy () {
+
+        double sum = 0;
+
+        for (int b = 0; b < branches; b++) {
+
+            if (branchTotals[b] != 0) {
+                sum += entropy(counts, b * classes, branchTotals[b]) * branchTotals[b] / total;
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     *
+     * @return the decrease of the entropy obtained by the split
+     */
+    double informationGain () {
+        return entropy() - subTableEntropy();
+    }
+
+    /**
+     *
+     * Entropy of the branch sizes, how finely the split cuts the rows
+     *
+     * @return the split information
+     */
+    double splitInformation () {
+        return entropy(branchTotals, 0, branches, total);
+    }
+
+    /**
+     *
+     * @return the information gain divided by the split information, 0 if the split does not cut the rows
+     */
+    double gainRatio () {
+
+        double splitInformation = splitInformation();
+
+        return (splitInformation > 0) ? informationGain() / splitInformation : 0;
+    }
+
+    /**
+     *
+     * Chi-square statistic of the table, sum of (observed - expected)^2 / expected over the cells,
+     * expected = branch total * class total / total
+     *
+     * @return the chi-square statistic
+     */
+    double chiSquare () {
+
+        double sum = 0;
+
+        for (int b = 0; b < branches; b++) {
+
+            if (branchTotals[b] == 0) {
+                continue;
+            }
+
+            for (int c = 0; c < classes; c++) {
+
+                if (classTotals[c] != 0) {
+                    double expected = (double) branchTotals[b] * classTotals[c] / total;
+                    double difference = counts[b * classes + c] - expected;
+                    sum += difference * difference / expected;
+                }
+            }
+        }
+
+        return sum;
+    }
+
+    private double gini (final int[] values, final int offset, final int rows) {
+
+        if (rows == 0) {
+            return 0;
+        }
+
+        double sum = 0;
+
+        for (int c = 0; c < classes; c++) {
+            double p = (double) values[offset + c] / rows;
+            sum += p * p;
+        }
+
+        return 1 - sum;
+    }
+
+    private double entropy (final int[] values, final int offset, final int rows) {
+        return entropy(values, offset, classes, rows);
+    }
+
+    private static double entropy (final int[] values, final int offset, final int length, final int rows) {
+
+        double sum = 0;
+
+        for (int i = 0; i < length; i++) {
+
+            if (values[offset + i] != 0) {
+                double p = (double) values[offset + i] / rows;
+                sum -= p * Math.log(p) / LN_2;
+            }
+        }
+
+        return sum;
+    }
+}
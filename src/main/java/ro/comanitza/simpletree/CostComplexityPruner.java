@@ -0,0 +1,117 @@
+package ro.comanitza.simpletree;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * Minimal cost-complexity pruning of a grown tree (Breiman et al., CART)
+ *
+ * The cost of a sub tree is its misclassification rate on the learning rows plus alpha for every leaf. Walking bottom up,
+ * a sub tree is replaced by a leaf predicting the majority class of its node when the leaf costs no more than the sub tree,
+ * which yields the smallest sub tree of minimal cost for the given alpha.
+ *
+ * The tree is pruned in place, so the nodes shared by several branches (see {@link HistogramTreeLearner}) stay shared.
+ *
+ * @author comanitza
+ */
+final class CostComplexityPruner {
+
+    private final double leafCost;
+
+    /**
+     *
+     * @param alpha the cost of a leaf, in misclassification rate
+     * @param totalRows the learning rows of the tree
+     */
+    private CostComplexityPruner (final double alpha, final int totalRows) {
+        this.leafCost = alpha * totalRows;
+    }
+
+    /**
+     *
+     * Prune a tree in place
+     *
+     * @param root the root of the tree, with the row counts of the learners
+     * @param alpha the cost of a leaf, in misclassification rate, 0 keeps the tree as it is
+     */
+    static void prune (final Node root, final double alpha) {
+
+        if (alpha > 0 && root.getRows() > 0) {
+            new CostComplexityPruner(alpha, root.getRows()).visit(root);
+        }
+    }
+
+    /**
+     *
+     * Prune bottom up, with an explicit stack so the depth of the tree is not bounded by the call stack.
+     * A node is pushed once to visit its children and once more to be pruned, after all of them
+     */
+    private void visit (final Node root) {
+
+        Deque<Node> pending = new ArrayDeque<>();
+        Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Node> expanded = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /*
+         * the errors and the number of leaves of the pruned sub trees, for the nodes already pruned
+         */
+        Map<Node, int[]> pruned = new IdentityHashMap<>();
+
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+
+            Node node = pending.peek();
+
+            if (node.isLeaf()) {
+                pending.pop();
+                pruned.put(node, new int[] {node.getErrors(), 1});
+                continue;
+            }
+
+            if (expanded.add(node)) {
+
+                for (Node child: node.getChildren()) {
+
+                    if (child != null && visited.add(child)) {
+                        pending.push(child);
+                    }
+                }
+
+                continue;
+            }
+
+            pending.pop();
+
+            int errors = 0;
+            int leaves = 0;
+
+            /*
+             * a child shared by several branches counts once
+             */
+            Set<Node> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+
+            for (Node child: node.getChildren()) {
+
+                if (child != null && counted.add(child)) {
+                    int[] subtree = pruned.remove(child);
+                    errors += subtree[0];
+                    leaves += subtree[1];
+                }
+            }
+
+            if (node.getErrors() <= errors + leafCost * (leaves - 1)) {
+                node.collapse();
+                errors = node.getErrors();
+                leaves = 1;
+            }
+
+            pruned.put(node, new int[] {errors, leaves});
+        }
+    }
+}
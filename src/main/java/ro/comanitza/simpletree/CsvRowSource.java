@@ -0,0 +1,185 @@
+package ro.comanitza.simpletree;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ *
+ * {@link RowSource} reading the elements from a CSV file, one element per line
+ *
+ * Every pass opens the file again and streams it line by line, only the current line is in memory.
+ * The values are separated by a single char, with no quoting, and mapped to an element by the provided function.
+ * Read errors are thrown as {@link UncheckedIOException} by the iterators. The iterators are {@link AutoCloseable} and close the file
+ * at the end of the rows, on a read error or when closed, the learner closes them after every pass even if the pass fails.
+ *
+ * @author comanitza
+ */
+public class CsvRowSource<T extends Element> implements RowSource<T> {
+
+    private final Path path;
+    private final char separator;
+    private final boolean header;
+    private final Function<String[], T> mapper;
+
+    /**
+     *
+     * @param path the file to read, UTF-8 encoded
+     * @param separator the values separator
+     * @param header true to skip the first line of the file
+     * @param mapper builds an element from the values of a line
+     */
+    public CsvRowSource (final Path path, final char separator, final boolean header, final Function<String[], T> mapper) {
+        this.path = Objects.requireNonNull(path);
+        this.separator = separator;
+        this.header = header;
+        this.mapper = Objects.requireNonNull(mapper);
+    }
+
+    /**
+     *
+     * @param path the file to read, UTF-8 encoded, comma separated and with no header
+     * @param mapper builds an element from the values of a line
+     */
+    public CsvRowSource (final Path path, final Function<String[], T> mapper) {
+        this(path, ',', false, mapper);
+    }
+
+    @Override
+    public Iterator<T> iterator () {
+
+        BufferedReader reader;
+
+        try {
+            reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open " + path, e);
+        }
+
+        try {
+
+            if (header) {
+                reader.readLine();
+            }
+        } catch (IOException e) {
+
+            try {
+                reader.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
+
+        return new LineIterator(reader);
+    }
+
+    /**
+     *
+     * Split a line on the separator, keeping the empty values
+     */
+    private String[] split (final String line) {
+
+        List<String> values = new ArrayList<>();
+        int start = 0;
+
+        for (int i = 0; i < line.length(); i++) {
+
+            if (line.charAt(i) == separator) {
+                values.add(line.substring(start, i));
+                start = i + 1;
+            }
+        }
+
+        values.add(line.substring(start));
+
+        return values.toArray(new String[0]);
+    }
+
+    /**
+     *
+     * Iterator over the lines of an open file, the file is closed when the last line is read or when the iterator is closed
+     */
+    private final class LineIterator implements Iterator<T>, AutoCloseable {
+
+        private final BufferedReader reader;
+        private String next;
+
+        LineIterator (final BufferedReader reader) {
+            this.reader = reader;
+            this.next = read();
+        }
+
+        @Override
+        public boolean hasNext () {
+            return next != null;
+        }
+
+        @Override
+        public T next () {
+
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            String line = next;
+            next = read();
+
+            return mapper.apply(split(line));
+        }
+
+        /**
+         *
+         * @return the next non empty line, null at the end of the file
+         */
+        private String read () {
+
+            try {
+
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+
+                    if (!line.isEmpty()) {
+                        return line;
+                    }
+                }
+
+                close();
+
+                return null;
+            } catch (IOException e) {
+
+                try {
+                    reader.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+
+                throw new UncheckedIOException("Could not read " + path, e);
+            }
+        }
+
+        @Override
+        public void close () {
+
+            next = null;
+
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not close " + path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ro.comanitza.simpletree;
+
+import java.util.List;
+
+/**
+ *
+ * Columnar, dictionary encoded copy of the training elements
+ *
+ * Every nominal attribute becomes an int column of dictionary codes, every numeric attribute a double column,
+ * and the class field becomes the labels column. For every numeric attribute the row ids are also presorted by value once,
+ * so the learner can find thresholds with sorted scans without sorting again at every node.
+ *
+ * It is built once at the start of the learning, after that the learner works only with row ids and primitive arrays.
+ *
+ * @author comanitza
+ */
+final class Dataset {
+
+    private final ElementSchema schema;
+    private final int rows;
+    private final int[][] columns;
+    private final double[][] values;
+    private final int[][] sorted;
+    private final Dictionary[] dictionaries;
+    private final int[] labels;
+    private final Dictionary classes;
+
+    private Dataset (final ElementSchema schema, final int[][] columns, final double[][] values, final Dictionary[] dictionaries, final int[] labels, final Dictionary classes) {
+        this.schema = schema;
+        this.rows = labels.length;
+        this.columns = columns;
+        this.values = values;
+        this.dictionaries = dictionaries;
+        this.labels = labels;
+        this.classes = classes;
+        this.sorted = new int[values.length][];
+
+        for (int a = 0; a < values.length; a++) {
+
+            if (values[a] != null) {
+                sorted[a] = sortByValue(values[a]);
+            }
+        }
+    }
+
+    /**
+     *
+     * Encode the provided elements
+     *
+     * @param elements the elements to encode, all of the same type
+     * @param schema the schema of the elements type
+     * @return the encoded dataset
+     */
+    static Dataset of (final List<? extends Element> elements, final ElementSchema schema) {
+
+        int attributes = schema.attributeCount();
+        int rows = elements.size();
+
+        int[][] columns = new int[attributes][];
+        double[][] values = new double[attributes][];
+        Dictionary[] dictionaries = new Dictionary[attributes];
+        int[] labels = new int[rows];
+        Dictionary classes = new Dictionary();
+
+        for (int a = 0; a < attributes; a++) {
+
+            dictionaries[a] = new Dictionary();
+
+            if (schema.isNumeric(a)) {
+                values[a] = new double[rows];
+            } else {
+                columns[a] = new int[rows];
+            }
+        }
+
+        int row = 0;
+
+        /*
+         * the attributes of one element are read at once, with direct calls when the type has a generated schema
+         */
+        String[] nominal = new String[attributes];
+        double[] numbers = new double[attributes];
+
+        for (Element e: elements) {
+
+            schema.read(e, nominal, numbers);
+
+            for (int a = 0; a < attributes; a++) {
+
+                if (values[a] != null) {
+                    values[a][row] = numbers[a];
+                } else {
+                    columns[a][row] = dictionaries[a].add(nominal[a]);
+                }
+            }
+
+            labels[row++] = classes.add(schema.classValue(e));
+        }
+
+        return new Dataset(schema, columns, values, dictionaries, labels, classes);
+    }
+
+    /**
+     *
+     * Sort the row ids by value with a bottom up (so stable and non recursive) merge sort, NaN values go last
+     *
+     * @param column the values
+     * @return the sorted row ids
+     */
+    private static int[] sortByValue (final double[] column) {
+
+        int[] ids = new int[column.length];
+        int[] merged = new int[column.length];
+
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+
+        for (int width = 1; width < ids.length; width *= 2) {
+
+            for (int start = 0; start < ids.length; start += 2 * width) {
+
+                int middle = Math.min(start + width, ids.length);
+                int end = Math.min(start + 2 * width, ids.length);
+                int i = start;
+                int j = middle;
+                int k = start;
+
+                while (i < middle && j < end) {
+                    merged[k++] = (Double.compare(column[ids[j]], column[ids[i]]) < 0) ? ids[j++] : ids[i++];
+                }
+
+                while (i < middle) {
+                    merged[k++] = ids[i++];
+                }
+
+                while (j < end) {
+                    merged[k++] = ids[j++];
+                }
+            }
+
+            int[] swap = ids;
+            ids = merged;
+            merged = swap;
+        }
+
+        return ids;
+    }
+
+    ElementSchema getSchema() {
+        return schema;
+    }
+
+    int rows () {
+        return rows;
+    }
+
+    int attributes () {
+        return columns.length;
+    }
+
+    boolean isNumeric (final int attribute) {
+        return values[attribute] != null;
+    }
+
+    /**
+     *
+     * @param attribute a nominal attribute
+     * @return the codes column of the attribute
+     */
+    int[] column (final int attribute) {
+        return columns[attribute];
+    }
+
+    /**
+     *
+     * @param attribute a numeric attribute
+     * @return the values column of the attribute
+     */
+    double[] values (final int attribute) {
+        return values[attribute];
+    }
+
+    /**
+     *
+     * @param attribute a numeric attribute
+     * @return the row ids sorted by the value of the attribute, shared, must not be modified
+     */
+    int[] sorted (final int attribute) {
+        return sorted[attribute];
+    }
+
+    /**
+     *
+     * @param attribute the attribute
+     * @return the dictionary of the attribute, empty for numeric attributes
+     */
+    Dictionary dictionary (final int attribute) {
+        return dictionaries[attribute];
+    }
+
+    Dictionary[] dictionaries () {
+        return dictionaries;
+    }
+
+    int[] labels () {
+        return labels;
+    }
+
+    Dictionary classes () {
+        return classes;
+    }
+}
@@ -1,5 +1,6 @@
 package ro.comanitza.simpletree;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -27,4 +28,37 @@ public interface DecisionTree<T> {
      * @return an optional that might contain the outcome
      */
     Optional<String> outcome(final T element);
+
+    /**
+     *
+     * Method to interogate the outcome for a provided {@link Element} instance, with the confidence of the tree in it
+     *
+     * Implementations are expected to override it, the default one does not know the confidence
+     *
+     * @param element the element to query for
+     * @return an optional that might contain the prediction, empty only when there is no outcome
+     */
+    default Optional<Prediction> predict(final T element) {
+        return outcome(element).map((label) -> new Prediction(label, Double.NaN));
+    }
+
+    /**
+     *
+     * Method to interogate the outcomes for a batch of {@link Element} instances
+     *
+     * Implementations are expected to override it when they can score a batch faster than one element at a time
+     *
+     * @param elements the elements to query for
+     * @return the outcomes, in the order of the elements
+     */
+    default List<Optional<String>> outcomes(final List<T> elements) {
+
+        List<Optional<String>> outcomes = new ArrayList<>(elements.size());
+
+        for (T element: elements) {
+            outcomes.add(outcome(element));
+        }
+
+        return outcomes;
+    }
 }
@@ -1,6 +1,7 @@
 package ro.comanitza.simpletree;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -11,9 +12,35 @@ import java.util.*;
  */
 public class DecisionTreeImpl<T extends Element> extends DecisionTreeBase<T> {
 
-    private String classFieldName;
+    private final LearnerSettings settings;
 
-    private Node root;
+    /*
+     * the latency and the misses of the outcomes, null if not measured
+     */
+    private final ScoringStatistics statistics;
+
+    /*
+     * the current model, replaced as a whole by every learning so scoring threads need no lock
+     */
+    private volatile TreeModel<T> model;
+
+    public DecisionTreeImpl () {
+        this(new LearnerSettings(), null);
+    }
+
+    private DecisionTreeImpl (final LearnerSettings settings, final ScoringStatistics statistics) {
+        this.settings = settings;
+        this.statistics = statistics;
+    }
+
+    /**
+     *
+     * @param <T> the type of the elements
+     * @return a builder for configuring the learning
+     */
+    public static <T extends Element> Builder<T> builder () {
+        return new Builder<>();
+    }
 
     @Override
     public boolean learn (final List<T> elements) {
@@ -22,233 +49,588 @@ public class DecisionTreeImpl<T extends Element> extends DecisionTreeBase<T> {
             return false;
         }
 
+        ElementSchema schema = ElementSchema.of(elements.get(0).getClass());
+
         /*
-         * elect the class field name for the {@link Element} implementation
+         * check the class field of the {@link Element} implementation
          */
-        classFieldName = getClassFieldName (elements.get(0).getClass())
+        schema.classFieldName()
                 .orElseThrow(
                         () -> new RuntimeException("Provided class " + elements.get(0).getClass() + " is missing class field.")
                     );
 
-        try {
-            root = generateRoot(elements);
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
+        long start = System.nanoTime();
+        long allocated = TreeStatistics.allocatedBytes();
+
+        /*
+         * encode the elements once, the learner works only with the columnar copy
+         */
+        Dataset dataset = Dataset.of(elements, schema);
+
+        settings.listener.encoded(dataset.rows(), dataset.attributes(), System.nanoTime() - start);
+
+        Node root = (settings.maxBins > 0) ? new HistogramTreeLearner(dataset, settings).grow() : new TreeLearner(dataset, settings).grow();
+
+        CostComplexityPruner.prune(root, settings.costComplexityAlpha);
+        NodeCompactor.compact(root);
+
+        model = new TreeModel<>(schema, root, dataset.dictionaries(), dataset.classes());
+
+        learned(settings.listener, root, start, allocated);
+
+        return true;
+    }
+
+    /**
+     *
+     * Learn from a source too big for the heap, see {@link StreamingTreeLearner}
+     *
+     * The tree is grown level by level with one pass over the source per level, the elements are never all in memory.
+     * Numeric attributes are split on the quantiles of a sample, the number of candidate thresholds is set by {@link Builder#maxBins(int)}.
+     *
+     * @param source the elements to learn from, read several times
+     * @return true if learning was done, false if the source is empty
+     */
+    public boolean learn (final RowSource<T> source) {
+
+        long start = System.nanoTime();
+        long allocated = TreeStatistics.allocatedBytes();
+
+        StreamingTreeLearner learner = new StreamingTreeLearner(settings);
+        Node learned = learner.grow(source);
+
+        if (learned == null) {
+            return false;
         }
 
+        CostComplexityPruner.prune(learned, settings.costComplexityAlpha);
+        NodeCompactor.compact(learned);
+
+        model = new TreeModel<>(learner.getSchema(), learned, learner.dictionaries(), learner.classes());
+
+        learned(settings.listener, learned, start, allocated);
+
         return true;
     }
 
+    /**
+     *
+     * Report a learned tree to the listener
+     *
+     * @param listener the listener
+     * @param root the root of the tree
+     * @param start the {@link System#nanoTime()} at the start of the learning
+     * @param allocated the bytes allocated by the current thread at the start of the learning, -1 if unknown
+     */
+    static void learned (final TrainingListener listener, final Node root, final long start, final long allocated) {
+
+        if (listener == TrainingListener.NONE) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - start;
+        long now = TreeStatistics.allocatedBytes();
+
+        listener.learned(TreeStatistics.of(root, nanos, (allocated < 0 || now < 0) ? -1 : now - allocated));
+    }
+
     @Override
     public Optional<String>  outcome (final T element) {
-        return outcomeBase (root, element);
+
+        long start = (statistics != null) ? System.nanoTime() : 0;
+        TreeModel<T> current = model;
+
+        if (current == null) {
+            scored(start, null);
+            return Optional.empty();
+        }
+
+        Node node = outcomeBase(current, current.root(), element);
+
+        scored(start, node);
+
+        return Optional.ofNullable(current.classes().symbol(node.getLabel()));
     }
 
     /**
      *
-     * Base method for obtaining the outcome
+     * The confidence is the share of the learning rows of the node giving the outcome that are of the outcome class
      *
-     * @param node the node to start from, should be root in most cases
-     * @param t the element to test for
-     * @return an optional that will containg the outcome
+     * @param element the element to query for
+     * @return an optional that might contain the prediction
      */
-    private Optional<String> outcomeBase (final Node node, final Element t) {
+    @Override
+    public Optional<Prediction> predict (final T element) {
+
+        long start = (statistics != null) ? System.nanoTime() : 0;
+        TreeModel<T> current = model;
 
-        if (node == null) {
+        if (current == null) {
+            scored(start, null);
             return Optional.empty();
         }
 
-        if (node.getChildren() == null || node.getChildren().isEmpty()) {
-            return Optional.ofNullable(node.getTransportation());
+        Node node = outcomeBase(current, current.root(), element);
+
+        scored(start, node);
+
+        String label = current.classes().symbol(node.getLabel());
+
+        return (label == null) ? Optional.empty() : Optional.of(new Prediction(label, node.confidence()));
+    }
+
+    /**
+     *
+     * Count an outcome in the scoring statistics, if measured
+     *
+     * @param start the {@link System#nanoTime()} at the start of the lookup
+     * @param node the node giving the outcome, null if nothing is learned
+     */
+    private void scored (final long start, final Node node) {
+
+        if (statistics != null) {
+            statistics.record(System.nanoTime() - start, node == null || !node.isLeaf());
         }
+    }
 
-        String nodeFieldName = node.getFieldName();
+    /**
+     *
+     * Allocation free class probabilities of an element, the shares of the classes among the learning rows of the node giving the outcome
+     *
+     * The class ids are the indexes of {@link #classes()}. A tree learning again concurrently may change them,
+     * use the {@link #compile()} snapshot to read the probabilities and the classes of the same tree.
+     *
+     * @param element the element to query for
+     * @param probabilities where to write the probabilities, indexed by class id, at least as long as the classes
+     * @return true if there are probabilities, false if nothing is learned yet
+     */
+    public boolean probabilities (final T element, final double[] probabilities) {
+
+        long start = (statistics != null) ? System.nanoTime() : 0;
+        TreeModel<T> current = model;
+
+        if (current == null) {
+            scored(start, null);
+            return false;
+        }
+
+        if (probabilities.length < current.classes().size()) {
+            throw new IllegalArgumentException("Expected room for " + current.classes().size() + " probabilities, got " + probabilities.length);
+        }
+
+        Node node = outcomeBase(current, current.root(), element);
+
+        node.probabilities(probabilities);
+        scored(start, node);
+
+        return true;
+    }
+
+    /**
+     *
+     * @param element the element to query for
+     * @return the class probabilities of the element, indexed by class id, empty if nothing is learned yet
+     */
+    public double[] probabilities (final T element) {
 
-        String fieldValue = null;
+        long start = (statistics != null) ? System.nanoTime() : 0;
+        TreeModel<T> current = model;
 
-        try {
-            fieldValue = getValueFromInstance(nodeFieldName, String.class, t); //fix this!
-        } catch (Throwable throwable) {
-            throw new RuntimeException(throwable);
+        if (current == null) {
+            scored(start, null);
+            return new double[0];
         }
 
-        return outcomeBase(node.getChildren().get(fieldValue), t);
+        double[] probabilities = new double[current.classes().size()];
+        Node node = outcomeBase(current, current.root(), element);
+
+        node.probabilities(probabilities);
+        scored(start, node);
+
+        return probabilities;
     }
 
     /**
      *
-     * Method to generate root node from the provided elements
+     * @param element the element to query for
+     * @param k the maximum number of predictions
+     * @return the k most probable outcomes, by decreasing probability, with their probability as confidence
+     */
+    public List<Prediction> top (final T element, final int k) {
+
+        long start = (statistics != null) ? System.nanoTime() : 0;
+        TreeModel<T> current = model;
+
+        if (current == null) {
+            scored(start, null);
+            return Collections.emptyList();
+        }
+
+        double[] probabilities = new double[current.classes().size()];
+        Node node = outcomeBase(current, current.root(), element);
+
+        node.probabilities(probabilities);
+        scored(start, node);
+
+        return Prediction.top(probabilities, current.classes()::symbol, k);
+    }
+
+    /**
      *
-     * @param elements the elements used to
-     * @return the created node
-     * @throws Throwable generic error/exception
+     * @return the learned classes, in class id order, empty if nothing is learned yet
      */
-    private Node generateRoot (final List<T> elements) throws Throwable {
+    public List<String> classes () {
+
+        TreeModel<T> current = model;
 
-        return generateRootNode(elements, classFieldName, Collections.singletonList(classFieldName));
+        return (current == null) ? Collections.emptyList() : current.classes().symbols();
     }
 
     /**
      *
-     * Method to actually generate the root node
+     * Batches are scored column wise through the compiled form of the tree, see {@link CompiledDecisionTree#outcomeIds(List, int[])}.
+     * A measured batch counts all its elements and their misses in the scoring statistics
      *
-     * @param elements the elements for which to create the root node
-     * @param classFieldName the anchor field, this is the
-     * @param omittedFields the fields to omit from the calculation
-     * @return the created root node
-     * @throws Throwable generic exception/error
+     * @param elements the elements to query for
+     * @return the outcomes, in the order of the elements
      */
-    private Node generateRootNode (final List<T> elements, final String classFieldName, final List<String> omittedFields) throws Throwable {
+    @Override
+    public List<Optional<String>> outcomes (final List<T> elements) {
 
-        Node parent = new Node ();
+        long start = (statistics != null) ? System.nanoTime() : 0;
+        TreeModel<T> current = model;
 
-        /*
-         * calculate the Gini index for the provided elements
-         */
-        double fullTableGini = calculateGiniIndex(elements, classFieldName);
+        if (current == null) {
 
-        List<InformationGainPair> informationGains = new LinkedList<>();
+            if (statistics != null) {
+                statistics.record(System.nanoTime() - start, elements.size(), elements.size());
+            }
 
-        /*
-         * get the info gains for all the firlds, taking into account the omitted fields
-         */
-        for (String attributeName: getAttributesNames(elements.get(0).getClass(), omittedFields)) {
-            informationGains.add(new InformationGainPair(attributeName, (fullTableGini - calculateSubTableGiniIndex(elements, attributeName, classFieldName))));
+            return Collections.nCopies(elements.size(), Optional.empty());
         }
 
-        /*
-         * get the max info gain, which our best option
-         */
-        Optional<InformationGainPair> maxGainNodeOptional = informationGains.stream().max(Comparator.comparing(InformationGainPair::getInformationGain));
-
-        /*
-         * should not really happen
-         */
-        InformationGainPair maxGainNode = maxGainNodeOptional.orElseThrow(() -> new RuntimeException("Could not compute root"));
+        if (statistics == null) {
+            return current.compiled().outcomes(elements);
+        }
 
-        /*
-         * set field name of the root
-         */
-        parent.setFieldName(maxGainNode.getFieldName());
+        CompiledDecisionTree<T> compiled = current.compiled();
+        int[] ids = new int[elements.size()];
+        int misses = compiled.score(elements, ids);
 
-        /*
-         * create the children of the root
-         */
-        parent.setChildren(generateChildrenNode(elements, classFieldName, new LinkedList<>() {{this.add(maxGainNode.getFieldName()); this.addAll(omittedFields); }}, maxGainNode.getFieldName()));
+        statistics.record(System.nanoTime() - start, ids.length, misses);
 
-        return parent;
+        return compiled.outcomes(ids);
     }
-    
+
     /**
      *
-     * Method to generate a map of children
+     * Flatten the learned tree into a {@link CompiledDecisionTree}, meant for latency sensitive inference
+     *
+     * The compiled tree is a snapshot, a later learning does not change it
      *
-     * @param elements the elements to work upon
-     * @param classFieldName the class field name
-     * @param omittedFields the fields to omit
-     * @param parentFieldName the parent field name
-     * @return the create children map
-     * @throws Throwable generic exception/error
+     * @return the compiled tree
      */
-    private Map<String, Node> generateChildrenNode (final List<T> elements, final String classFieldName, final List<String> omittedFields, final String parentFieldName) throws Throwable {
+    public CompiledDecisionTree<T> compile () {
 
-        Map<String, Node> nodes = new HashMap<>();
+        TreeModel<T> current = model;
+
+        if (current == null) {
+            throw new IllegalStateException("Nothing learned yet");
+        }
+
+        return current.compiled();
+    }
 
-        Map<String, List<T>> data = new HashMap<>();
+    /**
+     *
+     * Base method for obtaining the outcome, the node predicting it
+     *
+     * When the element has a value not seen while learning, or a value no learning row of the node had, the lookup stops at the node
+     * and its majority class is the outcome. The values are read through the schema the tree was learned with,
+     * so the attribute indexes stay right for the subclasses of the learned type
+     *
+     * @param model the model the node belongs to
+     * @param node the node to start from, should be root in most cases
+     * @param t the element to test for
+     * @return the leaf reached by the element or the inner node where the lookup stopped
+     */
+    private Node outcomeBase (final TreeModel<T> model, final Node node, final Element t) {
+
+        ElementSchema elementSchema = model.schema();
+        Node current = node;
 
         /*
-         * make a map of the values for the provided parent field name to the list of elements that have that value
-         *
-         * for fields "cost" we have the value "low", "mid", "high", we will map each value to the sub list of elements containing it
+         * an iterative walk, the depth of a learned tree is not bounded by the call stack
          */
-        for (T t: elements) {
-            String classValue = String.class.cast(getValueFromInstance (parentFieldName, String.class, t));
+        while (!current.isLeaf()) {
 
-            if (!data.containsKey(classValue)) {
-                data.put(classValue, new ArrayList<>() {{ this.add(t); }});
+            int attribute = current.getAttribute();
+            int code;
+
+            if (elementSchema.isNumeric(attribute)) {
+                code = (elementSchema.numericValue(attribute, t) <= current.getThreshold()) ? 0 : 1;
             } else {
-                data.get(classValue).add(t);
+                code = model.dictionaries()[attribute].code(elementSchema.value(attribute, t));
             }
-        }
 
-        for (Map.Entry<String, List<T>> e: data.entrySet()) {
+            Node child = (code < 0) ? null : current.child(code);
 
-            /*
-             * if it's a pure class based on the targeted field and the elements list, add it as a child
-             */
-            if (isPureClass(e.getValue(), classFieldName)) {
-                nodes.put(e.getKey(), new Node(getValueFromInstance(classFieldName, String.class, e.getValue().get(0))));
-            } else {
-
-                /*
-                 * if not a pure class, continue splitting
-                 */
-                Optional<String> bestInfoGainFieldOptional = findBestInformationGain (e.getValue(), omittedFields);
-
-                if (!bestInfoGainFieldOptional.isPresent()) {
-                    continue;
-                }
-
-                /*
-                 * calls itself recursively to fetch all the nodes
-                 */
-                Node localNode = new Node();
-                localNode.setFieldName(bestInfoGainFieldOptional.get());
-                localNode.setChildren(generateChildrenNode (e.getValue(), classFieldName, omittedFields, bestInfoGainFieldOptional.get()));
-                nodes.put(e.getKey(), localNode);
+            if (child == null) {
+                return current;
             }
+
+            current = child;
         }
 
-        return nodes;
+        return current;
     }
 
     /**
      *
-     * Method to calculate the field that will yield the best information gain
+     * Builder for {@link DecisionTreeImpl}, by default the learning is sequential
      *
-     * @param elements the elements from which to elect the best info gain
-     * @param omittedFields the list of fields that should be omitted from the info gain election
-     * @return an optional that will contain the best info gain field name
-     * @throws Throwable generic exception/error
+     * @param <T> the type of the elements
      */
-    private Optional<String> findBestInformationGain (final List<T> elements, final List<String> omittedFields) throws Throwable {
+    public static final class Builder<T extends Element> {
 
-        /*
-         * the Gini index based on the class field of the element for the provided elements list
+        private final LearnerSettings settings = new LearnerSettings();
+        private ScoringStatistics statistics;
+
+        private Builder () {}
+
+        /**
+         *
+         * Learn in parallel, on a pool with the provided parallelism created for each learning
+         *
+         * @param parallelism the number of threads to use
+         * @return the builder
          */
-        double subTableGini = calculateGiniIndex(elements, classFieldName);
-        InformationGainPair informationGainPair = null;
+        public Builder<T> parallelism (final int parallelism) {
 
-        /*
-         * cycle all the fields (taking into account omissions) and gets the field name with yieleded the best info gain
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be positive, got " + parallelism);
+            }
+
+            settings.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         *
+         * Learn in parallel on the provided pool, the pool is not shut down by the tree
+         *
+         * @param pool the pool to learn on
+         * @return the builder
          */
-        for (String attributeName: getAttributesNames (elements.get(0).getClass(), omittedFields)) {
+        public Builder<T> pool (final ForkJoinPool pool) {
+            settings.pool = Objects.requireNonNull(pool);
+            return this;
+        }
 
-            double localGiniSum = 0;
+        /**
+         *
+         * In parallel mode, nodes with less rows than the threshold are grown sequentially
+         *
+         * @param rows the minimum number of rows of a node grown in parallel
+         * @return the builder
+         */
+        public Builder<T> sequentialThreshold (final int rows) {
+            settings.sequentialThreshold = rows;
+            return this;
+        }
 
-            /*
-             * split the fields values
-             */
-            Map<String, List<T>> data = splitListToMap(elements, attributeName);
+        /**
+         *
+         * Find the splits on per node histograms instead of the exact values, see {@link HistogramTreeLearner}
+         *
+         * Numeric attributes are bucketed by quantiles, nominal attributes keep their most frequent values and fold the others in one bucket.
+         * The learning gets linear in the number of rows, at the price of approximate thresholds.
+         *
+         * @param maxBins the maximum number of buckets per attribute, for example 256
+         * @return the builder
+         */
+        public Builder<T> maxBins (final int maxBins) {
 
-            for (Map.Entry<String, List<T>> entry: data.entrySet()) {
+            if (maxBins < 2) {
+                throw new IllegalArgumentException("At least 2 bins are needed, got " + maxBins);
+            }
 
-                /*
-                 * calculate the sum of all the Gini values for all the attributes of the field
-                 */
-                localGiniSum += (calculateSubTableGiniIndex(elements, attributeName, classFieldName) * entry.getValue().size() / elements.size());
+            settings.maxBins = maxBins;
+            return this;
+        }
+
+        /**
+         *
+         * Score at every node only a random subset of the candidate attributes, all of them are tried if none of the subset can split the node
+         *
+         * @param attributes the number of random candidate attributes scored at every node
+         * @return the builder
+         */
+        public Builder<T> attributesPerSplit (final int attributes) {
+
+            if (attributes < 1) {
+                throw new IllegalArgumentException("At least one attribute per split is needed, got " + attributes);
             }
 
-            double infoGain = (subTableGini - localGiniSum);
+            settings.attributesPerSplit = attributes;
+            return this;
+        }
+
+        /**
+         *
+         * Score the splits of the nodes with more rows than provided on a random sample of that many rows, the smaller nodes are scored exactly.
+         * The split chosen on the sample still partitions all the rows of the node. Does not apply to the histograms, see {@link #maxBins(int)}.
+         *
+         * @param rows the number of rows sampled by the big nodes, for example 10 000
+         * @return the builder
+         */
+        public Builder<T> rowsPerSplit (final int rows) {
 
-            if (informationGainPair == null || infoGain > informationGainPair.getInformationGain()) {
-                informationGainPair = new InformationGainPair(attributeName, infoGain);
+            if (rows < 2) {
+                throw new IllegalArgumentException("At least 2 rows per split are needed, got " + rows);
             }
+
+            settings.rowsPerSplit = rows;
+            return this;
         }
 
-        /*
-         * return the best info gain
+        /**
+         *
+         * @param seed the seed of the row samples and of the attribute subsets, 0 by default, the same seed grows the same tree whatever the parallelism
+         * @return the builder
          */
-        return (informationGainPair != null) ? Optional.of(informationGainPair.getFieldName()) : Optional.empty();
+        public Builder<T> seed (final long seed) {
+            settings.seed = seed;
+            return this;
+        }
+
+        /**
+         *
+         * Stop growing at the provided depth, the nodes that deep become leaves predicting their majority class
+         *
+         * @param maxDepth the maximum depth of the tree, the root being at depth 0
+         * @return the builder
+         */
+        public Builder<T> maxDepth (final int maxDepth) {
+
+            if (maxDepth < 1) {
+                throw new IllegalArgumentException("Max depth must be positive, got " + maxDepth);
+            }
+
+            settings.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         *
+         * Only consider the splits leaving at least the provided number of rows in every branch
+         *
+         * @param rows the minimum number of rows of a leaf
+         * @return the builder
+         */
+        public Builder<T> minSamplesLeaf (final int rows) {
+
+            if (rows < 1) {
+                throw new IllegalArgumentException("Min samples per leaf must be positive, got " + rows);
+            }
+
+            settings.minSamplesLeaf = rows;
+            return this;
+        }
+
+        /**
+         *
+         * Only split a node when the score of the split (the decrease of the Gini index by default), weighted by the share of the rows that reach the node,
+         * is at least the provided value
+         *
+         * @param decrease the minimum weighted impurity decrease
+         * @return the builder
+         */
+        public Builder<T> minImpurityDecrease (final double decrease) {
+
+            if (!(decrease >= 0)) {
+                throw new IllegalArgumentException("Min impurity decrease must not be negative, got " + decrease);
+            }
+
+            settings.minImpurityDecrease = decrease;
+            return this;
+        }
+
+        /**
+         *
+         * Prune the grown tree, see {@link CostComplexityPruner}. Every leaf costs alpha, the sub trees whose share of the misclassified rows does not
+         * decrease by more than alpha per extra leaf are replaced by a leaf
+         *
+         * @param alpha the complexity cost of a leaf, for example 0.001
+         * @return the builder
+         */
+        public Builder<T> costComplexityAlpha (final double alpha) {
+
+            if (!(alpha >= 0)) {
+                throw new IllegalArgumentException("Cost complexity alpha must not be negative, got " + alpha);
+            }
+
+            settings.costComplexityAlpha = alpha;
+            return this;
+        }
+
+        /**
+         *
+         * Grow the tree best first: the open node whose split decreases the impurity the most is split first, and the growth stops
+         * when the tree has the provided number of leaves, so a small tree keeps the most valuable splits. Not used when learning from a {@link RowSource}
+         *
+         * @param leaves the maximum number of leaves, at least 2
+         * @return the builder
+         */
+        public Builder<T> maxLeaves (final int leaves) {
+
+            if (leaves < 2) {
+                throw new IllegalArgumentException("Max leaves must be at least 2, got " + leaves);
+            }
+
+            settings.maxLeaves = leaves;
+            return this;
+        }
+
+        /**
+         *
+         * Score the candidate splits with the provided criterion instead of the decrease of the Gini index, see {@link SplitCriterion}
+         *
+         * @param criterion the split criterion, for example {@link SplitCriterion#GAIN_RATIO} for attributes with many values
+         * @return the builder
+         */
+        public Builder<T> criterion (final SplitCriterion criterion) {
+            settings.criterion = Objects.requireNonNull(criterion);
+            return this;
+        }
+
+        /**
+         *
+         * Report the progress of every learning, see {@link TrainingListener}
+         *
+         * @param listener the listener
+         * @return the builder
+         */
+        public Builder<T> listener (final TrainingListener listener) {
+            settings.listener = Objects.requireNonNull(listener);
+            return this;
+        }
+
+        /**
+         *
+         * Measure the latency and the misses of {@link DecisionTreeImpl#outcome(Element)} and {@link DecisionTreeImpl#predict(Element)},
+         * the statistics can be shared by several trees and published with {@link ScoringStatistics#register(String)}
+         *
+         * @param statistics the statistics to count in
+         * @return the builder
+         */
+        public Builder<T> scoringStatistics (final ScoringStatistics statistics) {
+            this.statistics = Objects.requireNonNull(statistics);
+            return this;
+        }
+
+        public DecisionTreeImpl<T> build () {
+            return new DecisionTreeImpl<>(settings.copy(), statistics);
+        }
     }
 }
@@ -0,0 +1,155 @@
+package ro.comanitza.simpletree;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * Symbol table of a column, maps every distinct string value to a dense int code (0, 1, 2...) in the order the values are first seen
+ *
+ * It is an open addressing table over primitive arrays, the lookup uses the (cached) {@link String#hashCode()} and does not allocate.
+ * The null value is a regular symbol with its own code.
+ *
+ * @author comanitza
+ */
+final class Dictionary {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] symbols = new String[INITIAL_CAPACITY / 2];
+    private int size;
+    private int nullCode = -1;
+
+    /*
+     * code + 1 of the symbol stored in every slot, 0 for an empty slot
+     */
+    private int[] slots = new int[INITIAL_CAPACITY];
+
+    /**
+     *
+     * Find the code of a value
+     *
+     * @param value the value to look for
+     * @return the code or -1 if the value is not in the dictionary
+     */
+    int code (final String value) {
+
+        if (value == null) {
+            return nullCode;
+        }
+
+        int hash = value.hashCode();
+        int mask = slots.length - 1;
+
+        for (int i = mix(hash) & mask; ; i = (i + 1) & mask) {
+
+            int slot = slots[i];
+
+            if (slot == 0) {
+                return -1;
+            }
+
+            String symbol = symbols[slot - 1];
+
+            if (symbol.hashCode() == hash && symbol.equals(value)) {
+                return slot - 1;
+            }
+        }
+    }
+
+    /**
+     *
+     * Find the code of a value, adding it to the dictionary if not already present
+     *
+     * @param value the value
+     * @return the code of the value
+     */
+    int add (final String value) {
+
+        int code = code(value);
+
+        if (code >= 0) {
+            return code;
+        }
+
+        if (size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, size * 2);
+        }
+
+        code = size++;
+        symbols[code] = value;
+
+        if (value == null) {
+            nullCode = code;
+            return code;
+        }
+
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insert(code);
+        }
+
+        return code;
+    }
+
+    String symbol (final int code) {
+        return symbols[code];
+    }
+
+    int size () {
+        return size;
+    }
+
+    /**
+     *
+     * @return a read only copy of the symbols, in code order
+     */
+    List<String> symbols () {
+        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(symbols, size)));
+    }
+
+    private void insert (final int code) {
+
+        int mask = slots.length - 1;
+        int i = mix(symbols[code].hashCode()) & mask;
+
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+
+        slots[i] = code + 1;
+    }
+
+    private void rehash (final int capacity) {
+
+        slots = new int[capacity];
+
+        for (int code = 0; code < size; code++) {
+
+            if (code != nullCode) {
+                insert(code);
+            }
+        }
+    }
+
+    /**
+     *
+     * Spread the bits of a hash code, the start slot of a value is mix(hash) & (capacity - 1)
+     *
+     * @param hash the hash code of the value
+     * @return the mixed hash
+     */
+    static int mix (final int hash) {
+
+        int h = hash * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(symbols, size));
+    }
+}
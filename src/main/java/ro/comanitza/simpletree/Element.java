@@ -4,7 +4,7 @@ package ro.comanitza.simpletree;
  *
  * Marker interface that determines elements that could be used in a {@link DecisionTree} implementation
  *
- * As for this version, all fields should be string
+ * The String fields are nominal attributes, the primitive numeric fields are numeric attributes
  *
  * @author comanitza
  */
@@ -0,0 +1,404 @@
+package ro.comanitza.simpletree;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ *
+ * Accessor registry for an {@link Element} implementation
+ *
+ * All the getters of a type are resolved only once, the first time the type is seen, and cached for the lifetime of the class.
+ * After that reading a value is a plain indexed {@link MethodHandle#invokeExact(Object...)}, with no lookup and no string concatenation.
+ *
+ * The attributes are kept in the field declaration order, the class field (the one annotated with {@link ClassField}) is kept apart.
+ * Attributes declared as a primitive number ({@code int}, {@code long}, {@code double}...) are numeric and are read as {@code double},
+ * all the others are nominal and are read as {@link String}.
+ *
+ * When a {@link TreeSchema} was generated for the type (see {@link TreeElement}) the values are read through it, with direct getter calls,
+ * and the getters are resolved only if a field is read by name.
+ *
+ * @author comanitza
+ */
+final class ElementSchema {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType STRING_GETTER = MethodType.methodType(String.class, Element.class);
+
+    private static final MethodType NUMERIC_GETTER = MethodType.methodType(double.class, Element.class);
+
+    private static final ClassValue<ElementSchema> SCHEMAS = new ClassValue<>() {
+        @Override
+        protected ElementSchema computeValue (final Class<?> type) {
+
+            TreeSchema<?> generated = generated(type);
+
+            return (generated != null) ? new ElementSchema(type, generated) : new ElementSchema(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final String[] attributeNames;
+    private final boolean[] numeric;
+    private final String classFieldName;
+
+    /*
+     * the generated accessors, null if the type has none
+     */
+    private final TreeSchema<Element> generated;
+
+    private final MethodHandle[] attributeGetters;
+    private final MethodHandle[] numericGetters;
+    private final MethodHandle classGetter;
+
+    /*
+     * the getters of all the fields by name, resolved on first use when the values are read by the generated schema
+     */
+    private volatile Map<String, MethodHandle> gettersByName;
+
+    @SuppressWarnings("unchecked")
+    private ElementSchema (final Class<?> type, final TreeSchema<?> generated) {
+
+        this.type = type;
+        this.generated = (TreeSchema<Element>) generated;
+        this.attributeNames = generated.attributeNames();
+        this.numeric = new boolean[attributeNames.length];
+
+        for (int i = 0; i < numeric.length; i++) {
+            numeric[i] = generated.isNumeric(i);
+        }
+
+        this.classFieldName = generated.classFieldName();
+        this.attributeGetters = null;
+        this.numericGetters = null;
+        this.classGetter = null;
+    }
+
+    private ElementSchema (final Class<?> type) {
+
+        this.type = type;
+        this.generated = null;
+
+        List<String> names = new ArrayList<>();
+        List<MethodHandle> getters = new ArrayList<>();
+        List<MethodHandle> numericHandles = new ArrayList<>();
+        Map<String, MethodHandle> byName = new HashMap<>();
+        String classField = null;
+        MethodHandle classFieldGetter = null;
+
+        for (Field f: fields(type)) {
+
+            MethodHandle getter = resolveGetter(type, f);
+            MethodHandle stringGetter = asStringGetter(getter);
+            byName.put(f.getName(), getter);
+
+            if (f.isAnnotationPresent(ClassField.class)) {
+
+                if (classField == null) {
+                    classField = f.getName();
+                    classFieldGetter = stringGetter;
+                }
+
+                continue;
+            }
+
+            names.add(f.getName());
+            getters.add(stringGetter);
+            numericHandles.add(isNumeric(f.getType()) ? getter.asType(NUMERIC_GETTER) : null);
+        }
+
+        this.attributeNames = names.toArray(new String[0]);
+        this.attributeGetters = getters.toArray(new MethodHandle[0]);
+        this.numericGetters = numericHandles.toArray(new MethodHandle[0]);
+        this.numeric = new boolean[numericGetters.length];
+
+        for (int i = 0; i < numeric.length; i++) {
+            numeric[i] = numericGetters[i] != null;
+        }
+        this.classFieldName = classField;
+        this.classGetter = classFieldGetter;
+        this.gettersByName = byName;
+    }
+
+    /**
+     *
+     * @return the generated schema of the type, null if there is none
+     */
+    private static TreeSchema<?> generated (final Class<?> type) {
+
+        ClassLoader loader = (type.getClassLoader() != null) ? type.getClassLoader() : ClassLoader.getSystemClassLoader();
+
+        for (TreeSchema<?> schema: ServiceLoader.load(TreeSchema.class, loader)) {
+
+            if (schema.type() == type) {
+                return schema;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     *
+     * @return the attribute fields and the class field, static and compiler/agent generated fields are not attributes of the element
+     */
+    private static List<Field> fields (final Class<?> type) {
+
+        List<Field> fields = new ArrayList<>();
+
+        for (Field f: type.getDeclaredFields()) {
+
+            if (!Modifier.isStatic(f.getModifiers()) && !f.isSynthetic()) {
+                fields.add(f);
+            }
+        }
+
+        return fields;
+    }
+
+    /**
+     *
+     * Fetch the (cached) schema for the provided type
+     *
+     * @param type the {@link Element} implementation
+     * @return the schema of the type
+     */
+    static ElementSchema of (final Class<?> type) {
+        return SCHEMAS.get(type);
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    /**
+     *
+     * @return true if the values are read by a generated {@link TreeSchema}
+     */
+    boolean isGenerated () {
+        return generated != null;
+    }
+
+    int attributeCount () {
+        return attributeNames.length;
+    }
+
+    String attributeName (final int attribute) {
+        return attributeNames[attribute];
+    }
+
+    /**
+     *
+     * @param attribute the attribute index
+     * @return true if the attribute is numeric, false if it's nominal
+     */
+    boolean isNumeric (final int attribute) {
+        return numeric[attribute];
+    }
+
+    /**
+     *
+     * Find the index of an attribute by its name
+     *
+     * @param name the attribute name
+     * @return the index or -1 if there is no such attribute
+     */
+    int attributeIndex (final String name) {
+
+        for (int i = 0; i < attributeNames.length; i++) {
+
+            if (attributeNames[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    Optional<String> classFieldName () {
+        return Optional.ofNullable(classFieldName);
+    }
+
+    /**
+     *
+     * Read the value of an attribute from the provided element
+     *
+     * @param attribute the attribute index
+     * @param element the element to read from
+     * @return the attribute value
+     */
+    String value (final int attribute, final Element element) {
+
+        if (generated != null) {
+            return generated.value(attribute, element);
+        }
+
+        try {
+            return (String) attributeGetters[attribute].invokeExact(element);
+        } catch (Throwable throwable) {
+            throw new RuntimeException(throwable);
+        }
+    }
+
+    /**
+     *
+     * Read the value of a numeric attribute from the provided element
+     *
+     * @param attribute the attribute index, must be numeric
+     * @param element the element to read from
+     * @return the attribute value
+     */
+    double numericValue (final int attribute, final Element element) {
+
+        if (generated != null) {
+            return generated.numericValue(attribute, element);
+        }
+
+        try {
+            return (double) numericGetters[attribute].invokeExact(element);
+        } catch (Throwable throwable) {
+            throw new RuntimeException(throwable);
+        }
+    }
+
+    /**
+     *
+     * Read the value of the class field from the provided element
+     *
+     * @param element the element to read from
+     * @return the class field value
+     */
+    String classValue (final Element element) {
+
+        if (classFieldName == null) {
+            throw new RuntimeException("Provided class " + type + " is missing class field.");
+        }
+
+        if (generated != null) {
+            return generated.classValue(element);
+        }
+
+        try {
+            return (String) classGetter.invokeExact(element);
+        } catch (Throwable throwable) {
+            throw new RuntimeException(throwable);
+        }
+    }
+
+    /**
+     *
+     * Read all the attributes of an element, the nominal values as strings and the numeric ones as doubles
+     *
+     * @param element the element to read from
+     * @param values where to write the values of the nominal attributes, indexed by attribute
+     * @param numbers where to write the values of the numeric attributes, indexed by attribute
+     */
+    void read (final Element element, final String[] values, final double[] numbers) {
+
+        if (generated != null) {
+            generated.read(element, values, numbers);
+            return;
+        }
+
+        for (int a = 0; a < attributeNames.length; a++) {
+
+            if (numeric[a]) {
+                numbers[a] = numericValue(a, element);
+            } else {
+                values[a] = value(a, element);
+            }
+        }
+    }
+
+    /**
+     *
+     * Fetch the getter of any field, including the class field, with its original type
+     *
+     * @param fieldName the field name
+     * @return the getter handle
+     */
+    MethodHandle getter (final String fieldName) {
+
+        resolveGetters();
+
+        MethodHandle handle = gettersByName.get(fieldName);
+
+        if (handle == null) {
+            throw new RuntimeException("Provided class " + type + " has no field " + fieldName);
+        }
+
+        return handle;
+    }
+
+    /**
+     *
+     * Resolve the getters of a type with a generated schema, the first time a field is read by name
+     */
+    private void resolveGetters () {
+
+        if (gettersByName != null) {
+            return;
+        }
+
+        Map<String, MethodHandle> byName = new HashMap<>();
+
+        for (Field f: fields(type)) {
+            byName.put(f.getName(), resolveGetter(type, f));
+        }
+
+        /*
+         * a benign race, two threads may resolve the same getters
+         */
+        gettersByName = byName;
+    }
+
+    /**
+     *
+     * Adapt a getter to {@code (Element)String}, non string fields are read through {@link String#valueOf(Object)}
+     *
+     * @param getter the raw getter
+     * @return the adapted getter
+     */
+    private static MethodHandle asStringGetter (final MethodHandle getter) {
+
+        if (getter.type().returnType() == String.class) {
+            return getter.asType(STRING_GETTER);
+        }
+
+        try {
+            MethodHandle valueOf = LOOKUP.findStatic(String.class, "valueOf", MethodType.methodType(String.class, Object.class));
+
+            return MethodHandles.filterReturnValue(getter.asType(getter.type().changeReturnType(Object.class)), valueOf).asType(STRING_GETTER);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean isNumeric (final Class<?> type) {
+        return type.isPrimitive() && type != boolean.class && type != char.class;
+    }
+
+    private static MethodHandle resolveGetter (final Class<?> type, final Field field) {
+
+        try {
+            return LOOKUP.findVirtual(type, composeGetterMethodName(field.getName()), MethodType.methodType(field.getType()));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException("Could not resolve getter for field " + field.getName() + " of " + type, e);
+        }
+    }
+
+    /**
+     *
+     * Compose the name for the standard getter method based on the provided field name
+     *
+     * @param fieldName the targeted field name
+     * @return the getter method name
+     */
+    private static String composeGetterMethodName (final String fieldName) {
+        return "get" + (fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1));
+    }
+}
@@ -0,0 +1,566 @@
+package ro.comanitza.simpletree;
+
+import java.util.*;
+
+/**
+ *
+ * Gradient boosted trees implementation of the {@link DecisionTree} contract, an additive model of shallow regression trees
+ *
+ * Every class has a score, the softmax of the scores gives the class probabilities. Each round fits, for every class, one tree to the gradients
+ * of the multiclass log-loss (p - y) with the hessians p * (1 - p), see {@link BoostedTreeLearner}, and adds it to the scores of the rows.
+ * The gradients and the hessians are primitive arrays indexed by row, and the elements are encoded and binned only once for all the rounds.
+ *
+ * With early stopping a random share of the elements is held out, the learning stops when the log-loss of the held out elements
+ * has not improved for the configured number of rounds, and the model keeps the rounds up to the best one.
+ *
+ * Scoring encodes an element once and sums the leaf values over the flattened trees, see {@link BoostedForest}.
+ * A learning publishes the new model at once, threads scoring meanwhile see either the old model or the new one.
+ *
+ * @author comanitza
+ */
+public class GradientBoostedTrees<T extends Element> extends DecisionTreeBase<T> {
+
+    static final int DEFAULT_ROUNDS = 100;
+    static final double DEFAULT_LEARNING_RATE = 0.1;
+    static final int DEFAULT_MAX_DEPTH = 3;
+    static final int DEFAULT_MAX_BINS = 256;
+    static final double DEFAULT_LAMBDA = 1;
+
+    /*
+     * the lower bound of the hessians, keeps the node values finite when the probabilities saturate
+     */
+    private static final double MIN_HESSIAN = 1e-6;
+
+    private final int rounds;
+    private final double learningRate;
+    private final int maxDepth;
+    private final int maxBins;
+    private final double lambda;
+    private final int minSamplesLeaf;
+    private final int earlyStoppingRounds;
+    private final double validationFraction;
+    private final long seed;
+
+    /*
+     * the current model, replaced as a whole by every learning so scoring threads need no lock
+     */
+    private volatile Model<T> model;
+
+    public GradientBoostedTrees () {
+        this(new Builder<>());
+    }
+
+    private GradientBoostedTrees (final Builder<T> builder) {
+        this.rounds = builder.rounds;
+        this.learningRate = builder.learningRate;
+        this.maxDepth = builder.maxDepth;
+        this.maxBins = builder.maxBins;
+        this.lambda = builder.lambda;
+        this.minSamplesLeaf = builder.minSamplesLeaf;
+        this.earlyStoppingRounds = builder.earlyStoppingRounds;
+        this.validationFraction = builder.validationFraction;
+        this.seed = builder.seed;
+    }
+
+    /**
+     *
+     * @param <T> the type of the elements
+     * @return a builder for configuring the boosting
+     */
+    public static <T extends Element> Builder<T> builder () {
+        return new Builder<>();
+    }
+
+    @Override
+    public boolean learn (final List<T> elements) {
+
+        if (elements == null || elements.isEmpty()) {
+            return false;
+        }
+
+        ElementSchema schema = ElementSchema.of(elements.get(0).getClass());
+
+        if (!schema.classFieldName().isPresent()) {
+            throw new RuntimeException("Provided class " + elements.get(0).getClass() + " is missing class field.");
+        }
+
+        Dataset data = Dataset.of(elements, schema);
+        BinnedDataset binned = BinnedDataset.of(data, maxBins);
+        BoostedTreeLearner learner = new BoostedTreeLearner(data, binned, learningRate, lambda, maxDepth, minSamplesLeaf);
+
+        int rows = data.rows();
+        int classes = data.classes().size();
+        int[] labels = data.labels();
+
+        /*
+         * the held out rows are the last ones of a seeded shuffle
+         */
+        int[] shuffled = TreeLearner.identity(rows);
+        int held = (earlyStoppingRounds > 0) ? (int) Math.min(rows - 1, Math.round(rows * validationFraction)) : 0;
+
+        if (held > 0) {
+
+            SplittableRandom random = new SplittableRandom(seed);
+
+            for (int i = rows - 1; i > 0; i--) {
+
+                int j = random.nextInt(i + 1);
+                int swap = shuffled[i];
+
+                shuffled[i] = shuffled[j];
+                shuffled[j] = swap;
+            }
+        }
+
+        int[] training = Arrays.copyOf(shuffled, rows - held);
+        int[] validation = Arrays.copyOfRange(shuffled, rows - held, rows);
+
+        double[] baseScores = baseScores(training, labels, classes);
+        double[] scores = new double[rows * classes];
+
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(baseScores, 0, scores, row * classes, classes);
+        }
+
+        double[] probabilities = new double[rows * classes];
+        double[] gradients = new double[rows];
+        double[] hessians = new double[rows];
+        int[] nodeRows = new int[training.length];
+        int[] roots = new int[rounds * classes];
+
+        int bestRound = -1;
+        int bestSize = 0;
+        double bestLoss = Double.POSITIVE_INFINITY;
+
+        for (int round = 0; round < rounds; round++) {
+
+            /*
+             * the gradients of all the classes come from the scores before the round
+             */
+            for (int row: training) {
+                System.arraycopy(scores, row * classes, probabilities, row * classes, classes);
+                BoostedForest.softmax(probabilities, row * classes, classes);
+            }
+
+            for (int label = 0; label < classes; label++) {
+
+                for (int row: training) {
+
+                    double p = probabilities[row * classes + label];
+
+                    gradients[row] = p - ((labels[row] == label) ? 1 : 0);
+                    hessians[row] = Math.max(p * (1 - p), MIN_HESSIAN);
+                }
+
+                System.arraycopy(training, 0, nodeRows, 0, training.length);
+
+                int root = learner.grow(nodeRows, gradients, hessians);
+
+                roots[round * classes + label] = root;
+                learner.update(root, scores, classes, label);
+            }
+
+            if (held == 0) {
+                bestRound = round;
+                bestSize = learner.size();
+                continue;
+            }
+
+            double loss = logLoss(validation, labels, scores, classes);
+
+            if (loss < bestLoss) {
+                bestLoss = loss;
+                bestRound = round;
+                bestSize = learner.size();
+            } else if (round - bestRound >= earlyStoppingRounds) {
+                break;
+            }
+        }
+
+        int[][] codeBins = new int[data.attributes()][];
+
+        for (int a = 0; a < codeBins.length; a++) {
+            codeBins[a] = data.isNumeric(a) ? null : binned.codeBins(a);
+        }
+
+        BoostedForest forest = learner.build(baseScores, Arrays.copyOf(roots, (bestRound + 1) * classes), bestSize, codeBins);
+
+        model = new Model<>(schema, data.dictionaries(), data.classes(), forest);
+
+        return true;
+    }
+
+    /**
+     *
+     * @return the log of the (Laplace smoothed) class frequencies of the rows, the scores before the first round
+     */
+    private static double[] baseScores (final int[] rows, final int[] labels, final int classes) {
+
+        double[] counts = new double[classes];
+
+        for (int row: rows) {
+            counts[labels[row]]++;
+        }
+
+        for (int label = 0; label < classes; label++) {
+            counts[label] = Math.log((counts[label] + 1) / (rows.length + classes));
+        }
+
+        return counts;
+    }
+
+    /**
+     *
+     * @return the mean log-loss of the rows
+     */
+    private static double logLoss (final int[] rows, final int[] labels, final double[] scores, final int classes) {
+
+        double[] probabilities = new double[classes];
+        double loss = 0;
+
+        for (int row: rows) {
+
+            System.arraycopy(scores, row * classes, probabilities, 0, classes);
+            BoostedForest.softmax(probabilities, 0, classes);
+
+            loss -= Math.log(Math.max(probabilities[labels[row]], 1e-15));
+        }
+
+        return loss / rows.length;
+    }
+
+    @Override
+    public Optional<String> outcome (final T element) {
+
+        Model<T> current = model;
+
+        if (current == null) {
+            return Optional.empty();
+        }
+
+        double[] probabilities = new double[current.classes.size()];
+
+        current.probabilities(element, probabilities);
+
+        return Optional.ofNullable(current.classes.symbol(best(probabilities)));
+    }
+
+    /**
+     *
+     * The confidence is the probability of the outcome class
+     *
+     * @param element the element to query for
+     * @return an optional that might contain the prediction
+     */
+    @Override
+    public Optional<Prediction> predict (final T element) {
+
+        Model<T> current = model;
+
+        if (current == null) {
+            return Optional.empty();
+        }
+
+        double[] probabilities = new double[current.classes.size()];
+
+        current.probabilities(element, probabilities);
+
+        int label = best(probabilities);
+        String symbol = current.classes.symbol(label);
+
+        return (symbol == null) ? Optional.empty() : Optional.of(new Prediction(symbol, probabilities[label]));
+    }
+
+    /**
+     *
+     * Class probabilities of an element, the softmax of the class scores
+     *
+     * The class ids are the indexes of {@link #classes()}, which a concurrent learning may change
+     *
+     * @param element the element to query for
+     * @param probabilities where to write the probabilities, indexed by class id, at least as long as the classes
+     * @return true if there are probabilities, false if nothing is learned yet
+     */
+    public boolean probabilities (final T element, final double[] probabilities) {
+
+        Model<T> current = model;
+
+        if (current == null) {
+            return false;
+        }
+
+        if (probabilities.length < current.classes.size()) {
+            throw new IllegalArgumentException("Expected room for " + current.classes.size() + " probabilities, got " + probabilities.length);
+        }
+
+        current.probabilities(element, probabilities);
+
+        return true;
+    }
+
+    /**
+     *
+     * @param element the element to query for
+     * @return the class probabilities of the element, indexed by class id, empty if nothing is learned yet
+     */
+    public double[] probabilities (final T element) {
+
+        Model<T> current = model;
+
+        if (current == null) {
+            return new double[0];
+        }
+
+        double[] probabilities = new double[current.classes.size()];
+
+        current.probabilities(element, probabilities);
+
+        return probabilities;
+    }
+
+    /**
+     *
+     * @param element the element to query for
+     * @param k the maximum number of predictions
+     * @return the k most probable outcomes, by decreasing probability, with their probability as confidence
+     */
+    public List<Prediction> top (final T element, final int k) {
+
+        Model<T> current = model;
+
+        if (current == null) {
+            return Collections.emptyList();
+        }
+
+        double[] probabilities = new double[current.classes.size()];
+
+        current.probabilities(element, probabilities);
+
+        return Prediction.top(probabilities, current.classes::symbol, k);
+    }
+
+    /**
+     *
+     * @return the learned classes, in class id order, empty if nothing is learned yet
+     */
+    public List<String> classes () {
+
+        Model<T> current = model;
+
+        return (current == null) ? Collections.emptyList() : current.classes.symbols();
+    }
+
+    /**
+     *
+     * @return the number of boosting rounds of the model, less than the configured ones if the learning stopped early, 0 if nothing is learned yet
+     */
+    public int rounds () {
+
+        Model<T> current = model;
+
+        return (current == null) ? 0 : current.forest.trees() / current.forest.classCount();
+    }
+
+    /**
+     *
+     * @return the most probable class, the first one on ties
+     */
+    private static int best (final double[] probabilities) {
+
+        int best = 0;
+
+        for (int label = 1; label < probabilities.length; label++) {
+
+            if (probabilities[label] > probabilities[best]) {
+                best = label;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     *
+     * Immutable snapshot of a learned model, the trees and the symbol tables needed to encode the queried elements
+     */
+    private static final class Model<T extends Element> {
+
+        private final ElementSchema schema;
+        private final Dictionary[] dictionaries;
+        private final Dictionary classes;
+        private final BoostedForest forest;
+
+        Model (final ElementSchema schema, final Dictionary[] dictionaries, final Dictionary classes, final BoostedForest forest) {
+            this.schema = schema;
+            this.dictionaries = dictionaries;
+            this.classes = classes;
+            this.forest = forest;
+        }
+
+        void probabilities (final Element element, final double[] probabilities) {
+
+            int[] codes = new int[schema.attributeCount()];
+            double[] values = new double[schema.attributeCount()];
+
+            for (int attribute: forest.usedAttributes()) {
+
+                if (schema.isNumeric(attribute)) {
+                    values[attribute] = schema.numericValue(attribute, element);
+                } else {
+                    codes[attribute] = dictionaries[attribute].code(schema.value(attribute, element));
+                }
+            }
+
+            forest.scores(codes, values, probabilities);
+            BoostedForest.softmax(probabilities, 0, classes.size());
+        }
+    }
+
+    /**
+     *
+     * Builder for {@link GradientBoostedTrees}
+     *
+     * @param <T> the type of the elements
+     */
+    public static final class Builder<T extends Element> {
+
+        private int rounds = DEFAULT_ROUNDS;
+        private double learningRate = DEFAULT_LEARNING_RATE;
+        private int maxDepth = DEFAULT_MAX_DEPTH;
+        private int maxBins = DEFAULT_MAX_BINS;
+        private double lambda = DEFAULT_LAMBDA;
+        private int minSamplesLeaf = 1;
+        private int earlyStoppingRounds;
+        private double validationFraction = 0.1;
+        private long seed = System.nanoTime();
+
+        private Builder () {}
+
+        /**
+         *
+         * @param rounds the maximum number of boosting rounds, every round grows one tree per class
+         * @return the builder
+         */
+        public Builder<T> rounds (final int rounds) {
+
+            if (rounds < 1) {
+                throw new IllegalArgumentException("At least one round is needed, got " + rounds);
+            }
+
+            this.rounds = rounds;
+            return this;
+        }
+
+        /**
+         *
+         * @param learningRate the shrinkage of the tree values, smaller values need more rounds but generalize better
+         * @return the builder
+         */
+        public Builder<T> learningRate (final double learningRate) {
+
+            if (!(learningRate > 0 && learningRate <= 1)) {
+                throw new IllegalArgumentException("Learning rate must be in (0, 1], got " + learningRate);
+            }
+
+            this.learningRate = learningRate;
+            return this;
+        }
+
+        /**
+         *
+         * @param maxDepth the depth of the trees, the root being at depth 0
+         * @return the builder
+         */
+        public Builder<T> maxDepth (final int maxDepth) {
+
+            if (maxDepth < 1) {
+                throw new IllegalArgumentException("Max depth must be positive, got " + maxDepth);
+            }
+
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         *
+         * @param maxBins the maximum number of buckets per attribute, see {@link BinnedDataset}
+         * @return the builder
+         */
+        public Builder<T> maxBins (final int maxBins) {
+
+            if (maxBins < 2) {
+                throw new IllegalArgumentException("At least 2 bins are needed, got " + maxBins);
+            }
+
+            this.maxBins = maxBins;
+            return this;
+        }
+
+        /**
+         *
+         * @param lambda the L2 regularization of the tree values
+         * @return the builder
+         */
+        public Builder<T> lambda (final double lambda) {
+
+            if (!(lambda >= 0)) {
+                throw new IllegalArgumentException("Lambda must not be negative, got " + lambda);
+            }
+
+            this.lambda = lambda;
+            return this;
+        }
+
+        /**
+         *
+         * @param rows the minimum number of rows of a branch
+         * @return the builder
+         */
+        public Builder<T> minSamplesLeaf (final int rows) {
+
+            if (rows < 1) {
+                throw new IllegalArgumentException("Min samples per leaf must be positive, got " + rows);
+            }
+
+            this.minSamplesLeaf = rows;
+            return this;
+        }
+
+        /**
+         *
+         * Hold out a share of the elements and stop when their log-loss has not improved for the provided number of rounds
+         *
+         * @param rounds the number of rounds without improvement before stopping
+         * @param validationFraction the share of the elements held out, for example 0.1
+         * @return the builder
+         */
+        public Builder<T> earlyStopping (final int rounds, final double validationFraction) {
+
+            if (rounds < 1) {
+                throw new IllegalArgumentException("Early stopping rounds must be positive, got " + rounds);
+            }
+
+            if (!(validationFraction > 0 && validationFraction < 1)) {
+                throw new IllegalArgumentException("Validation fraction must be in (0, 1), got " + validationFraction);
+            }
+
+            this.earlyStoppingRounds = rounds;
+            this.validationFraction = validationFraction;
+            return this;
+        }
+
+        /**
+         *
+         * @param seed the seed of the held out elements, for reproducible models
+         * @return the builder
+         */
+        public Builder<T> seed (final long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public GradientBoostedTrees<T> build () {
+            return new GradientBoostedTrees<>(this);
+        }
+    }
+}
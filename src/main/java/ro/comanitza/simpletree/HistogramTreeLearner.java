@@ -0,0 +1,727 @@
+package ro.comanitza.simpletree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *
+ * Grows a decision tree from the histograms of a {@link BinnedDataset}, the approximate counterpart of the {@link TreeLearner}
+ *
+ * Every node keeps, per candidate attribute, a bin x class count histogram of its rows. The splits are scored on the histograms only,
+ * so the cost of scoring a node depends on the number of bins and not on the number of rows or distinct values.
+ *
+ * The histograms of the children are not all counted: the biggest child gets the histograms of its parent minus the ones of its siblings,
+ * so at every level at most half of the rows are scanned.
+ *
+ * The rows are partitioned like in the {@link TreeLearner}, in place on a single row ids array, and the same parallel mode and stopping criteria are supported.
+ * With {@link LearnerSettings#attributesPerSplit} only a random subset of the candidates is scored, the histograms of all of them are still kept for the children.
+ * {@link LearnerSettings#rowsPerSplit} does not apply, scoring a histogram already costs the same whatever the rows.
+ * The nodes are grown from a work queue, depth first or best first under {@link LearnerSettings#maxLeaves}, as in the {@link TreeLearner}.
+ *
+ * @author comanitza
+ */
+final class HistogramTreeLearner {
+
+    /*
+     * the biggest impurity decrease first, then the first queued
+     */
+    private static final Comparator<Open> BEST_FIRST = Comparator.comparingDouble(Open::decrease).reversed().thenComparingLong((open) -> open.sequence);
+
+    private final Dataset data;
+    private final BinnedDataset binned;
+    private final LearnerSettings settings;
+    private final int[] labels;
+    private final int classes;
+
+    /*
+     * the row ids, each node owns a [from, to) range of it
+     */
+    private final int[] rows;
+
+    /*
+     * the branch of every row of a node being split, indexed by row id
+     */
+    private final int[] branches;
+
+    /*
+     * scratch space for the partitioning, a node uses only its own [from, to) range
+     */
+    private final int[] buffer;
+
+    HistogramTreeLearner (final Dataset data, final LearnerSettings settings) {
+        this.data = data;
+        this.binned = BinnedDataset.of(data, settings.maxBins);
+        this.settings = settings;
+        this.labels = data.labels();
+        this.classes = data.classes().size();
+        this.rows = TreeLearner.identity(data.rows());
+        this.branches = new int[data.rows()];
+        this.buffer = new int[data.rows()];
+    }
+
+    /**
+     *
+     * Grow the tree
+     *
+     * @return the root node
+     */
+    Node grow () {
+
+        Node root = new Node();
+        Open first = new Open(root, 0, rows.length, TreeLearner.identity(data.attributes()), 0, null);
+
+        ForkJoinTask<?> task = (settings.maxLeaves > 0) ? ForkJoinTask.adapt(() -> growBestFirst(first, true)) : new GrowTask(null, first);
+
+        if (settings.pool != null) {
+            settings.pool.invoke(task);
+        } else if (settings.parallelism > 1) {
+
+            ForkJoinPool pool = new ForkJoinPool(settings.parallelism);
+
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        } else if (settings.maxLeaves > 0) {
+            growBestFirst(first, false);
+        } else {
+            grow(first, newTable());
+        }
+
+        return root;
+    }
+
+    /**
+     *
+     * Grow sequentially the sub tree of a node, depth first from an explicit stack so the call stack does not grow with the depth of the tree
+     *
+     * @param first the node to grow, not scored yet
+     * @param table the count table to use for scoring
+     */
+    private void grow (final Open first, final ContingencyTable table) {
+
+        Deque<Open> pending = new ArrayDeque<>();
+        pending.push(first);
+
+        while (!pending.isEmpty()) {
+
+            Open open = pending.pop();
+
+            if (!score(open, table, false)) {
+                continue;
+            }
+
+            Open[] children = split(open, Integer.MAX_VALUE, false);
+
+            /*
+             * pushed in reverse so the first branch is grown first, as a recursive descent would
+             */
+            for (int branch = children.length - 1; branch >= 0; branch--) {
+
+                if (children[branch] != null) {
+                    pending.push(children[branch]);
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * Grow the tree best first, like {@link TreeLearner}: the open nodes are split by decreasing impurity decrease until the tree has
+     * {@link LearnerSettings#maxLeaves} leaves. Every open node keeps its histograms until it is split
+     *
+     * @param first the root, not scored yet
+     * @param parallel true to count the histograms of the big nodes concurrently, the caller must then run in a fork/join pool
+     */
+    private void growBestFirst (final Open first, final boolean parallel) {
+
+        ContingencyTable table = newTable();
+        PriorityQueue<Open> queue = new PriorityQueue<>(BEST_FIRST);
+        long sequence = 0;
+        int leaves = 1;
+
+        if (score(first, table, parallel)) {
+            queue.add(first);
+        }
+
+        while (!queue.isEmpty()) {
+
+            Open[] children = split(queue.poll(), settings.maxLeaves - leaves + 1, parallel);
+
+            if (children == null) {
+                continue;
+            }
+
+            leaves--;
+
+            for (Open child: children) {
+
+                if (child != null) {
+
+                    leaves++;
+
+                    if (score(child, table, parallel)) {
+                        child.sequence = ++sequence;
+                        queue.add(child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * Count and score a node, the node stays a leaf predicting its majority class unless a split is found
+     *
+     * @param open the node
+     * @param table the count table to use for scoring
+     * @param parallel true to count the histograms concurrently if the node is big enough
+     * @return true if the node has a split good enough, kept in the open node
+     */
+    private boolean score (final Open open, final ContingencyTable table, final boolean parallel) {
+
+        int from = open.from;
+        int to = open.to;
+        int[] classCounts = classCounts(from, to);
+
+        open.node.setCounts(classCounts);
+
+        if (TreeLearner.isPure(classCounts) || settings.stops(to - from, open.depth)) {
+            settings.listener.node(open.depth, to - from, 0, 0, 0);
+            open.histograms = null;
+            return false;
+        }
+
+        if (open.histograms == null) {
+            open.histograms = parallel ? parallelHistograms(from, to, open.candidates) : histograms(from, to, open.candidates);
+        }
+
+        long start = System.nanoTime();
+
+        /*
+         * scoring a histogram is cheap, the candidates are always scored sequentially
+         */
+        int[] scored = TreeLearner.subset(open.candidates, settings.attributesPerSplit, settings.random(from, open.depth));
+        InformationGainPair best = score(open.candidates, scored, open.histograms, (table != null) ? table : newTable());
+
+        open.evaluated = scored.length;
+        open.scoreNanos = System.nanoTime() - start;
+
+        /*
+         * a node that can not be split, or not enough, predicts its majority class
+         */
+        if (best == null || !settings.decreases(best, to - from, rows.length)) {
+            settings.listener.node(open.depth, to - from, open.evaluated, open.scoreNanos, 0);
+            open.histograms = null;
+            return false;
+        }
+
+        open.best = best;
+
+        return true;
+    }
+
+    /**
+     *
+     * Split a scored node: partition its rows and open one child per bin with rows. The histograms of the siblings are counted
+     * and the ones of the largest child are derived from the histograms of the node
+     *
+     * @param open the scored node
+     * @param budget the maximum number of children, the node stays a leaf if its split has more
+     * @param parallel true to count the histograms concurrently for the big children
+     * @return the children to grow, indexed by bin, null for the empty bins, or null if the node stays a leaf
+     */
+    private Open[] split (final Open open, final int budget, final boolean parallel) {
+
+        int from = open.from;
+        int to = open.to;
+        InformationGainPair best = open.best;
+        int[][] histograms = open.histograms;
+
+        open.histograms = null;
+
+        if (budget < 2) {
+            settings.listener.node(open.depth, to - from, open.evaluated, open.scoreNanos, 0);
+            return null;
+        }
+
+        long start = System.nanoTime();
+        int[] bounds = partition(from, to, best);
+        int count = 0;
+
+        for (int branch = 0; branch < bounds.length - 1; branch++) {
+
+            if (bounds[branch] < bounds[branch + 1]) {
+                count++;
+            }
+        }
+
+        if (count > budget) {
+            settings.listener.node(open.depth, to - from, open.evaluated, open.scoreNanos, System.nanoTime() - start);
+            return null;
+        }
+
+        int[] remaining = remaining(open.candidates, best.getAttribute());
+        int largest = largest(bounds);
+
+        int[][][] childHistograms = new int[bounds.length - 1][][];
+
+        for (int branch = 0; branch < childHistograms.length; branch++) {
+
+            if (branch != largest && bounds[branch] < bounds[branch + 1]) {
+                childHistograms[branch] = parallel ? parallelHistograms(bounds[branch], bounds[branch + 1], remaining) : histograms(bounds[branch], bounds[branch + 1], remaining);
+            }
+        }
+
+        childHistograms[largest] = subtract(histograms, childHistograms, remaining);
+
+        Node[] children = new Node[childHistograms.length];
+        Open[] opened = new Open[children.length];
+
+        for (int branch = 0; branch < children.length; branch++) {
+
+            if (bounds[branch] < bounds[branch + 1]) {
+                children[branch] = new Node();
+                opened[branch] = new Open(children[branch], bounds[branch], bounds[branch + 1], remaining, open.depth + 1, childHistograms[branch]);
+            }
+        }
+
+        setSplit(open.node, best, children);
+
+        settings.listener.node(open.depth, to - from, open.evaluated, open.scoreNanos, System.nanoTime() - start);
+
+        return opened;
+    }
+
+    /**
+     *
+     * A node to grow, its range of rows, its histograms and, once scored, its best split
+     */
+    private static final class Open {
+
+        private final Node node;
+        private final int from;
+        private final int to;
+        private final int[] candidates;
+        private final int depth;
+
+        /*
+         * the histograms of the range, indexed by attribute, null until counted and once given away to the children
+         */
+        private int[][] histograms;
+
+        private InformationGainPair best;
+        private int evaluated;
+        private long scoreNanos;
+
+        /*
+         * the order the node was queued in, for the ties of the best first growth
+         */
+        private long sequence;
+
+        Open (final Node node, final int from, final int to, final int[] candidates, final int depth, final int[][] histograms) {
+            this.node = node;
+            this.from = from;
+            this.to = to;
+            this.candidates = candidates;
+            this.depth = depth;
+            this.histograms = histograms;
+        }
+
+        /**
+         *
+         * @return the impurity decrease of the split, its score weighted by the rows of the node
+         */
+        double decrease () {
+            return best.getInformationGain() * (to - from);
+        }
+    }
+
+    /**
+     *
+     * Task growing the sub tree of a node. The task forks one task per child and completes when all of them did,
+     * no task waits for another so the call stack stays shallow whatever the depth of the tree
+     */
+    private final class GrowTask extends CountedCompleter<Void> {
+
+        private final Open open;
+
+        GrowTask (final CountedCompleter<?> parent, final Open open) {
+            super(parent);
+            this.open = open;
+        }
+
+        @Override
+        public void compute () {
+
+            if (open.to - open.from < settings.sequentialThreshold) {
+                grow(open, newTable());
+            } else if (score(open, null, true)) {
+
+                /*
+                 * the histograms of the siblings are counted before any child is grown, the children modify their histograms in place
+                 */
+                for (Open child: split(open, Integer.MAX_VALUE, true)) {
+
+                    if (child != null) {
+                        addToPendingCount(1);
+                        new GrowTask(this, child).fork();
+                    }
+                }
+            }
+
+            tryComplete();
+        }
+    }
+
+    /**
+     *
+     * Task counting the histogram of one attribute for a range of rows
+     */
+    private final class HistogramTask extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+        private final int attribute;
+        private final int[][] histograms;
+
+        HistogramTask (final int from, final int to, final int attribute, final int[][] histograms) {
+            this.from = from;
+            this.to = to;
+            this.attribute = attribute;
+            this.histograms = histograms;
+        }
+
+        @Override
+        protected void compute () {
+            histograms[attribute] = histogram(from, to, attribute);
+        }
+    }
+
+    /**
+     *
+     * Count the histograms of a range of rows
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param candidates the attributes to count
+     * @return the histograms indexed by attribute, null for the attributes that are not candidates
+     */
+    private int[][] histograms (final int from, final int to, final int[] candidates) {
+
+        int[][] histograms = new int[data.attributes()][];
+
+        for (int attribute: candidates) {
+            histograms[attribute] = histogram(from, to, attribute);
+        }
+
+        return histograms;
+    }
+
+    /**
+     *
+     * Same as {@link #histograms(int, int, int[])}, with one task per attribute for the big ranges
+     */
+    private int[][] parallelHistograms (final int from, final int to, final int[] candidates) {
+
+        if (to - from < settings.sequentialThreshold) {
+            return histograms(from, to, candidates);
+        }
+
+        int[][] histograms = new int[data.attributes()][];
+        List<HistogramTask> tasks = new ArrayList<>(candidates.length);
+
+        for (int attribute: candidates) {
+            tasks.add(new HistogramTask(from, to, attribute, histograms));
+        }
+
+        ForkJoinTask.invokeAll(tasks);
+
+        return histograms;
+    }
+
+    /**
+     *
+     * @return the bin x class counts of the rows of a range for an attribute
+     */
+    private int[] histogram (final int from, final int to, final int attribute) {
+
+        int[] column = binned.bins(attribute);
+        int[] histogram = new int[binned.binCount(attribute) * classes];
+
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            histogram[column[row] * classes + labels[row]]++;
+        }
+
+        return histogram;
+    }
+
+    /**
+     *
+     * Turn the histograms of a parent into the ones of its largest child, by subtracting the histograms of the other children
+     *
+     * @param parent the histograms of the parent, modified in place
+     * @param siblings the histograms of the children, null for the largest and the empty ones
+     * @param remaining the attributes the children need
+     * @return the histograms of the largest child
+     */
+    private int[][] subtract (final int[][] parent, final int[][][] siblings, final int[] remaining) {
+
+        int[][] result = new int[parent.length][];
+
+        for (int attribute: remaining) {
+
+            int[] histogram = parent[attribute];
+
+            for (int[][] sibling: siblings) {
+
+                if (sibling != null) {
+
+                    int[] counts = sibling[attribute];
+
+                    for (int i = 0; i < histogram.length; i++) {
+                        histogram[i] -= counts[i];
+                    }
+                }
+            }
+
+            result[attribute] = histogram;
+        }
+
+        return result;
+    }
+
+    /**
+     *
+     * @return the best split of the scored attributes, or of all the candidates if none of the scored ones can split the rows
+     */
+    private InformationGainPair score (final int[] candidates, final int[] scored, final int[][] histograms, final ContingencyTable table) {
+
+        InformationGainPair best = null;
+
+        for (int attribute: scored) {
+            best = TreeLearner.better(best, calculateInformationGain(attribute, histograms[attribute], table));
+        }
+
+        if (best == null && scored != candidates) {
+
+            for (int attribute: candidates) {
+                best = TreeLearner.better(best, calculateInformationGain(attribute, histograms[attribute], table));
+            }
+        }
+
+        return best;
+    }
+
+    private InformationGainPair calculateInformationGain (final int attribute, final int[] histogram, final ContingencyTable table) {
+        return calculateInformationGain(attribute, histogram, binned.binCount(attribute), binned.thresholds(attribute), settings, table);
+    }
+
+    /**
+     *
+     * Calculate the information gain of splitting on an attribute from its histogram
+     *
+     * @param attribute the attribute to evaluate
+     * @param histogram the bin x class counts of the attribute for the rows of the node
+     * @param bins the number of bins of the attribute
+     * @param thresholds for a numeric attribute the threshold between every bin and the next one (NaN if it is not a split point), null for a nominal one
+     * @param minSamplesLeaf the minimum number of rows of a branch with rows
+     * @param table the table to use
+     * @return the information gain, null if the attribute can not split the rows
+     */
+    static InformationGainPair calculateInformationGain (final int attribute, final int[] histogram, final int bins, final double[] thresholds, final LearnerSettings settings,
+                                                         final ContingencyTable table) {
+
+        int classes = table.classes();
+
+        if (thresholds != null) {
+            return calculateThresholdInformationGain(attribute, histogram, bins, thresholds, settings, table);
+        }
+
+        table.reset(bins);
+
+        for (int bin = 0; bin < bins; bin++) {
+
+            for (int label = 0; label < classes; label++) {
+                table.add(bin, label, histogram[bin * classes + label]);
+            }
+        }
+
+        if (!TreeLearner.hasMinimumRows(table, settings.minSamplesLeaf)) {
+            return null;
+        }
+
+        return new InformationGainPair(attribute, settings.criterion.score(table));
+    }
+
+    /**
+     *
+     * Find the best bin boundary of a numeric attribute, moving the bins one by one from the upper branch to the lower one
+     *
+     * @return the information gain of the best threshold, null if all the rows are in the same bin
+     */
+    private static InformationGainPair calculateThresholdInformationGain (final int attribute, final int[] histogram, final int bins, final double[] thresholds,
+                                                                          final LearnerSettings settings, final ContingencyTable table) {
+
+        int classes = table.classes();
+        int minSamplesLeaf = settings.minSamplesLeaf;
+        SplitCriterion criterion = settings.criterion;
+
+        table.reset(2);
+
+        for (int bin = 0; bin < bins; bin++) {
+
+            for (int label = 0; label < classes; label++) {
+                table.add(1, label, histogram[bin * classes + label]);
+            }
+        }
+
+        InformationGainPair best = null;
+
+        for (int bin = 0; bin < bins - 1; bin++) {
+
+            int moved = 0;
+
+            for (int label = 0; label < classes; label++) {
+
+                int count = histogram[bin * classes + label];
+
+                if (count != 0) {
+                    table.move(label, 1, 0, count);
+                    moved += count;
+                }
+            }
+
+            /*
+             * an empty bin does not change the split, and both branches must have rows like in the exact learner
+             */
+            if (moved == 0 || table.branchTotal(1) == 0 || Double.isNaN(thresholds[bin])) {
+                continue;
+            }
+
+            if (table.branchTotal(0) < minSamplesLeaf || table.branchTotal(1) < minSamplesLeaf) {
+                continue;
+            }
+
+            double infoGain = criterion.score(table);
+
+            if (best == null || infoGain > best.getInformationGain()) {
+                best = new InformationGainPair(attribute, infoGain, thresholds[bin]);
+            }
+        }
+
+        return best;
+    }
+
+    private int[] classCounts (final int from, final int to) {
+
+        int[] classCounts = new int[classes];
+
+        for (int i = from; i < to; i++) {
+            classCounts[labels[rows[i]]]++;
+        }
+
+        return classCounts;
+    }
+
+    /**
+     *
+     * Partition in place a range of rows by the branches of the provided split, a nominal split has one branch per bin
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param split the split to partition by
+     * @return the bounds of the partitions, partition of branch b is [bounds[b], bounds[b + 1])
+     */
+    private int[] partition (final int from, final int to, final InformationGainPair split) {
+
+        int attribute = split.getAttribute();
+
+        if (data.isNumeric(attribute)) {
+
+            double[] values = data.values(attribute);
+            double threshold = split.getThreshold();
+
+            for (int i = from; i < to; i++) {
+                int row = rows[i];
+                branches[row] = (values[row] <= threshold) ? 0 : 1;
+            }
+
+            return TreeLearner.partition(rows, from, to, 2, branches, buffer);
+        }
+
+        int[] column = binned.bins(attribute);
+
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            branches[row] = column[row];
+        }
+
+        return TreeLearner.partition(rows, from, to, binned.binCount(attribute), branches, buffer);
+    }
+
+    /**
+     *
+     * @return the branch with the most rows
+     */
+    private static int largest (final int[] bounds) {
+
+        int largest = 0;
+
+        for (int branch = 1; branch < bounds.length - 1; branch++) {
+
+            if (bounds[branch + 1] - bounds[branch] > bounds[largest + 1] - bounds[largest]) {
+                largest = branch;
+            }
+        }
+
+        return largest;
+    }
+
+    private ContingencyTable newTable () {
+        return new ContingencyTable(0, classes);
+    }
+
+    /**
+     *
+     * A nominal attribute can be used only once on a path, a numeric one can be split again on another threshold
+     */
+    private int[] remaining (final int[] candidates, final int attribute) {
+        return data.isNumeric(attribute) ? candidates : TreeLearner.without(candidates, attribute);
+    }
+
+    /**
+     *
+     * Set the split of a node, the children of a nominal split are indexed by code so the codes folded in the same bin share their child
+     */
+    private void setSplit (final Node node, final InformationGainPair split, final Node[] binChildren) {
+
+        int attribute = split.getAttribute();
+
+        node.setAttribute(attribute);
+        node.setThreshold(split.getThreshold());
+
+        if (data.isNumeric(attribute)) {
+            node.setChildren(binChildren);
+            return;
+        }
+
+        Node[] children = new Node[data.dictionary(attribute).size()];
+
+        for (int code = 0; code < children.length; code++) {
+            children[code] = binChildren[binned.bin(attribute, code)];
+        }
+
+        node.setChildren(children);
+    }
+}
@@ -0,0 +1,416 @@
+package ro.comanitza.simpletree;
+
+import java.util.*;
+
+/**
+ *
+ * Online implementation of the {@link DecisionTree} contract, a Hoeffding tree (VFDT) updated one element at a time
+ *
+ * The elements are not kept, every leaf only keeps the {@link LeafStatistics} of the elements that reached it.
+ * Every {@link Builder#gracePeriod(int)} elements a leaf scores its candidate splits and is split when the Hoeffding bound shows,
+ * with probability 1 - delta, that the best split is better than the second best, or when the two are too close to matter (tie threshold).
+ * The cost of an update does not depend on the number of elements seen so far.
+ *
+ * The splits are scored with the Gini gain, whose range is 1. The leaves predict the majority class of their rows,
+ * a new leaf starts with the class counts of its branch in the parent statistics. A split node keeps the counts of the leaf it replaced,
+ * and predicts its majority class for the values with no branch.
+ *
+ * Instances are not thread safe.
+ *
+ * @author comanitza
+ */
+public class HoeffdingTree<T extends Element> extends DecisionTreeBase<T> {
+
+    static final double DEFAULT_DELTA = 1e-7;
+    static final double DEFAULT_TIE_THRESHOLD = 0.05;
+    static final int DEFAULT_GRACE_PERIOD = 200;
+
+    private final double delta;
+    private final double tieThreshold;
+    private final int gracePeriod;
+
+    private ElementSchema schema;
+    private Dictionary[] dictionaries;
+    private Dictionary classes;
+    private Node root;
+
+    /*
+     * the encoded current element
+     */
+    private int[] codes;
+    private double[] values;
+
+    /*
+     * the nominal attributes split on along the route of the current element
+     */
+    private int[] route;
+
+    public HoeffdingTree () {
+        this(DEFAULT_DELTA, DEFAULT_TIE_THRESHOLD, DEFAULT_GRACE_PERIOD);
+    }
+
+    private HoeffdingTree (final double delta, final double tieThreshold, final int gracePeriod) {
+        this.delta = delta;
+        this.tieThreshold = tieThreshold;
+        this.gracePeriod = gracePeriod;
+    }
+
+    /**
+     *
+     * @param <T> the type of the elements
+     * @return a builder for configuring the tree
+     */
+    public static <T extends Element> Builder<T> builder () {
+        return new Builder<>();
+    }
+
+    /**
+     *
+     * Forget everything learned so far and learn from the provided elements, in order
+     *
+     * @param elements the elements to learn from
+     * @return true if learning was done
+     */
+    @Override
+    public boolean learn (final List<T> elements) {
+
+        if (elements == null || elements.isEmpty()) {
+            return false;
+        }
+
+        schema = null;
+        root = null;
+
+        update(elements);
+
+        return true;
+    }
+
+    /**
+     *
+     * Learn from the provided elements, in order, on top of what is already learned
+     *
+     * @param elements the new elements
+     */
+    public void update (final List<T> elements) {
+
+        for (T element: elements) {
+            update(element);
+        }
+    }
+
+    /**
+     *
+     * Learn from one more element
+     *
+     * @param element the new element
+     */
+    public void update (final T element) {
+
+        if (schema == null) {
+            init(element);
+        }
+
+        int label = classes.add(schema.classValue(element));
+
+        for (int a = 0; a < schema.attributeCount(); a++) {
+
+            if (schema.isNumeric(a)) {
+                values[a] = schema.numericValue(a, element);
+            } else {
+                codes[a] = dictionaries[a].add(schema.value(a, element));
+            }
+        }
+
+        /*
+         * route the element to its leaf, creating the branches of the values not seen when the parent was split
+         */
+        Node parent = null;
+        int branch = -1;
+        int depth = 0;
+        Node node = root;
+
+        while (!node.isLeaf()) {
+
+            int attribute = node.getAttribute();
+
+            parent = node;
+
+            if (schema.isNumeric(attribute)) {
+                branch = (values[attribute] <= node.getThreshold()) ? 0 : 1;
+            } else {
+
+                branch = codes[attribute];
+                route[depth++] = attribute;
+
+                if (branch >= node.getChildren().length) {
+                    node.setChildren(Arrays.copyOf(node.getChildren(), dictionaries[attribute].size()));
+                }
+            }
+
+            node = node.getChildren()[branch];
+
+            if (node == null) {
+                node = newLeaf(candidates(depth), null);
+                parent.getChildren()[branch] = node;
+            }
+        }
+
+        GrowingLeaf leaf = (GrowingLeaf) node;
+
+        leaf.statistics.add(codes, values, label);
+        leaf.setCounts(leaf.statistics.classCounts());
+
+        if (leaf.statistics.rows() - leaf.evaluatedAt >= gracePeriod) {
+            leaf.evaluatedAt = leaf.statistics.rows();
+            trySplit(leaf, parent, branch);
+        }
+    }
+
+    @Override
+    public Optional<String> outcome (final T element) {
+
+        Node node = node(element);
+
+        return (node == null || node.getLabel() < 0) ? Optional.empty() : Optional.ofNullable(classes.symbol(node.getLabel()));
+    }
+
+    /**
+     *
+     * The confidence is the share of the rows of the node giving the outcome that are of the outcome class
+     *
+     * @param element the element to query for
+     * @return an optional that might contain the prediction
+     */
+    @Override
+    public Optional<Prediction> predict (final T element) {
+
+        Node node = node(element);
+        String label = (node == null || node.getLabel() < 0) ? null : classes.symbol(node.getLabel());
+
+        return (label == null) ? Optional.empty() : Optional.of(new Prediction(label, node.confidence()));
+    }
+
+    /**
+     *
+     * @return the leaf reached by the element, the node where the lookup stopped for a value with no branch, null if nothing is learned
+     */
+    private Node node (final T element) {
+
+        Node node = root;
+
+        while (node != null && !node.isLeaf()) {
+
+            int attribute = node.getAttribute();
+            int branch;
+
+            if (schema.isNumeric(attribute)) {
+                branch = (schema.numericValue(attribute, element) <= node.getThreshold()) ? 0 : 1;
+            } else {
+                branch = dictionaries[attribute].code(schema.value(attribute, element));
+            }
+
+            Node child = (branch < 0 || branch >= node.getChildren().length) ? null : node.getChildren()[branch];
+
+            /*
+             * a leaf with no rows yet, created for a value new to its parent, has no outcome of its own
+             */
+            if (child == null || child.getLabel() < 0) {
+                return node;
+            }
+
+            node = child;
+        }
+
+        return node;
+    }
+
+    private void init (final T first) {
+
+        schema = ElementSchema.of(first.getClass());
+
+        if (!schema.classFieldName().isPresent()) {
+            throw new RuntimeException("Provided class " + first.getClass() + " is missing class field.");
+        }
+
+        dictionaries = new Dictionary[schema.attributeCount()];
+        classes = new Dictionary();
+        codes = new int[schema.attributeCount()];
+        values = new double[schema.attributeCount()];
+        route = new int[schema.attributeCount()];
+
+        for (int a = 0; a < dictionaries.length; a++) {
+            dictionaries[a] = new Dictionary();
+        }
+
+        root = newLeaf(TreeLearner.identity(schema.attributeCount()), null);
+    }
+
+    /**
+     *
+     * Split a leaf if the Hoeffding bound allows it
+     */
+    private void trySplit (final GrowingLeaf leaf, final Node parent, final int branch) {
+
+        LeafStatistics statistics = leaf.statistics;
+
+        if (statistics.isPure()) {
+            return;
+        }
+
+        /*
+         * not splitting is always a candidate, with a gain of 0
+         */
+        InformationGainPair best = null;
+        double second = 0;
+
+        for (InformationGainPair split: statistics.splits(new ContingencyTable(0, classes.size()))) {
+
+            if (best == null || split.getInformationGain() > best.getInformationGain()) {
+                second = (best == null) ? second : Math.max(second, best.getInformationGain());
+                best = split;
+            } else {
+                second = Math.max(second, split.getInformationGain());
+            }
+        }
+
+        if (best == null || best.getInformationGain() <= 0) {
+            return;
+        }
+
+        double epsilon = Math.sqrt(Math.log(1 / delta) / (2.0 * statistics.rows()));
+
+        if (best.getInformationGain() - second <= epsilon && epsilon >= tieThreshold) {
+            return;
+        }
+
+        int attribute = best.getAttribute();
+        int[] remaining = schema.isNumeric(attribute) ? statistics.candidates() : TreeLearner.without(statistics.candidates(), attribute);
+        int[][] branchCounts = statistics.branchCounts(best, classes.size());
+
+        Node split = new Node();
+        split.setCounts(statistics.classCounts());
+        split.setAttribute(attribute);
+        split.setThreshold(best.getThreshold());
+
+        Node[] children = new Node[schema.isNumeric(attribute) ? 2 : dictionaries[attribute].size()];
+
+        for (int b = 0; b < children.length; b++) {
+            children[b] = newLeaf(remaining, (b < branchCounts.length) ? branchCounts[b] : null);
+        }
+
+        split.setChildren(children);
+
+        if (parent == null) {
+            root = split;
+        } else {
+            parent.getChildren()[branch] = split;
+        }
+    }
+
+    /**
+     *
+     * @param depth the number of nominal attributes on the current route
+     * @return the attributes not used yet on the current route
+     */
+    private int[] candidates (final int depth) {
+
+        int[] candidates = TreeLearner.identity(schema.attributeCount());
+
+        for (int i = 0; i < depth; i++) {
+            candidates = TreeLearner.without(candidates, route[i]);
+        }
+
+        return candidates;
+    }
+
+    private GrowingLeaf newLeaf (final int[] candidates, final int[] classCounts) {
+
+        GrowingLeaf leaf = new GrowingLeaf(new LeafStatistics(schema, candidates, (classCounts != null) ? classCounts : new int[classes.size()]));
+        leaf.setCounts(leaf.statistics.classCounts());
+
+        return leaf;
+    }
+
+    /**
+     *
+     * A leaf with the statistics of the elements that reached it
+     */
+    private static final class GrowingLeaf extends Node {
+
+        private final LeafStatistics statistics;
+
+        /*
+         * the number of rows of the last split attempt
+         */
+        private int evaluatedAt;
+
+        GrowingLeaf (final LeafStatistics statistics) {
+            this.statistics = statistics;
+        }
+    }
+
+    /**
+     *
+     * Builder for {@link HoeffdingTree}
+     *
+     * @param <T> the type of the elements
+     */
+    public static final class Builder<T extends Element> {
+
+        private double delta = DEFAULT_DELTA;
+        private double tieThreshold = DEFAULT_TIE_THRESHOLD;
+        private int gracePeriod = DEFAULT_GRACE_PERIOD;
+
+        private Builder () {}
+
+        /**
+         *
+         * @param delta the probability of choosing a split that is not the best one, smaller values need more elements before splitting
+         * @return the builder
+         */
+        public Builder<T> delta (final double delta) {
+
+            if (!(delta > 0 && delta < 1)) {
+                throw new IllegalArgumentException("Delta must be in (0, 1), got " + delta);
+            }
+
+            this.delta = delta;
+            return this;
+        }
+
+        /**
+         *
+         * @param tieThreshold the bound below which the two best splits are considered equally good and the best one is taken
+         * @return the builder
+         */
+        public Builder<T> tieThreshold (final double tieThreshold) {
+
+            if (tieThreshold < 0) {
+                throw new IllegalArgumentException("Tie threshold must not be negative, got " + tieThreshold);
+            }
+
+            this.tieThreshold = tieThreshold;
+            return this;
+        }
+
+        /**
+         *
+         * @param gracePeriod the number of elements a leaf counts between two split attempts
+         * @return the builder
+         */
+        public Builder<T> gracePeriod (final int gracePeriod) {
+
+            if (gracePeriod < 1) {
+                throw new IllegalArgumentException("Grace period must be positive, got " + gracePeriod);
+            }
+
+            this.gracePeriod = gracePeriod;
+            return this;
+        }
+
+        public HoeffdingTree<T> build () {
+            return new HoeffdingTree<>(delta, tieThreshold, gracePeriod);
+        }
+    }
+}
@@ -4,27 +4,39 @@ package ro.comanitza.simpletree;
  *
  * Pair class that represents the info gain in the process of calculating the best info yielding field
  *
+ * For numeric attributes it also holds the threshold of the split, values lower or equal go to the first branch
+ *
  * @author comanitza
  */
 class InformationGainPair {
-    private final String fieldName;
+    private final int attribute;
     private final double informationGain;
+    private final double threshold;
+
+    InformationGainPair(final int attribute, final double informationGain) {
+        this(attribute, informationGain, Double.NaN);
+    }
 
-    InformationGainPair(final String fieldName, final double informationGain) {
-        this.fieldName = fieldName;
+    InformationGainPair(final int attribute, final double informationGain, final double threshold) {
+        this.attribute = attribute;
         this.informationGain = informationGain;
+        this.threshold = threshold;
     }
 
-    String getFieldName() {
-        return fieldName;
+    int getAttribute() {
+        return attribute;
     }
 
     double getInformationGain() {
         return informationGain;
     }
 
+    double getThreshold() {
+        return threshold;
+    }
+
     @Override
     public String toString() {
-        return '{' + fieldName + ", " + informationGain + '}';
+        return "{" + attribute + ", " + informationGain + (Double.isNaN(threshold) ? "" : ", <= " + threshold) + '}';
     }
 }
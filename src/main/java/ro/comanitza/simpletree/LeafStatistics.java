@@ -0,0 +1,351 @@
+package ro.comanitza.simpletree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * The sufficient statistics of a leaf of a {@link HoeffdingTree}, enough to score its candidate splits without keeping its rows
+ *
+ * For a nominal attribute the leaf counts the rows per value and class. For a numeric attribute it keeps, per class,
+ * the count, mean, variance (Welford), min and max of the values, and the class counts below a threshold are estimated with a normal distribution.
+ *
+ * The arrays grow with the dictionaries and the classes, new values and classes can appear at any time in a stream.
+ *
+ * @author comanitza
+ */
+final class LeafStatistics {
+
+    /*
+     * number of evenly spaced thresholds evaluated between the min and the max of a numeric attribute
+     */
+    static final int SPLIT_POINTS = 10;
+
+    private static final int COUNT = 0;
+    private static final int MEAN = 1;
+    private static final int M2 = 2;
+    private static final int MIN = 3;
+    private static final int MAX = 4;
+
+    private final int[] candidates;
+
+    private int[] classCounts;
+    private int rows;
+
+    /*
+     * per nominal candidate, the counts indexed by [code][class]
+     */
+    private final int[][][] nominal;
+
+    /*
+     * per numeric candidate, the statistics indexed by [statistic][class]
+     */
+    private final double[][][] numeric;
+
+    /**
+     *
+     * @param schema the schema of the elements
+     * @param candidates the attributes the leaf can still split on
+     * @param classCounts the class counts inherited from the parent split, used for the prediction until the leaf sees its own rows
+     */
+    LeafStatistics (final ElementSchema schema, final int[] candidates, final int[] classCounts) {
+        this.candidates = candidates;
+        this.classCounts = classCounts;
+        this.nominal = new int[schema.attributeCount()][][];
+        this.numeric = new double[schema.attributeCount()][][];
+
+        for (int attribute: candidates) {
+
+            if (schema.isNumeric(attribute)) {
+                numeric[attribute] = new double[MAX + 1][0];
+            } else {
+                nominal[attribute] = new int[0][];
+            }
+        }
+    }
+
+    /**
+     *
+     * Count one row
+     *
+     * @param codes the codes of the nominal attributes of the row
+     * @param values the values of the numeric attributes of the row
+     * @param label the class of the row
+     */
+    void add (final int[] codes, final double[] values, final int label) {
+
+        classCounts = ensure(classCounts, label + 1);
+        classCounts[label]++;
+        rows++;
+
+        for (int attribute: candidates) {
+
+            if (nominal[attribute] != null) {
+                addNominal(attribute, codes[attribute], label);
+            } else {
+                addNumeric(attribute, values[attribute], label);
+            }
+        }
+    }
+
+    private void addNominal (final int attribute, final int code, final int label) {
+
+        int[][] counts = nominal[attribute];
+
+        if (code >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(code + 1, counts.length * 2));
+            nominal[attribute] = counts;
+        }
+
+        counts[code] = ensure(counts[code], label + 1);
+        counts[code][label]++;
+    }
+
+    private void addNumeric (final int attribute, final double value, final int label) {
+
+        /*
+         * NaN values are not summarized, they always go to the upper branch
+         */
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        double[][] stats = numeric[attribute];
+
+        /*
+         * the class arrays never grow past the last class seen, so they are never wider than a table of all the classes
+         */
+        if (label >= stats[COUNT].length) {
+
+            for (int s = 0; s < stats.length; s++) {
+                stats[s] = Arrays.copyOf(stats[s], label + 1);
+            }
+        }
+
+        double count = ++stats[COUNT][label];
+        double delta = value - stats[MEAN][label];
+
+        stats[MEAN][label] += delta / count;
+        stats[M2][label] += delta * (value - stats[MEAN][label]);
+        stats[MIN][label] = (count == 1) ? value : Math.min(stats[MIN][label], value);
+        stats[MAX][label] = (count == 1) ? value : Math.max(stats[MAX][label], value);
+    }
+
+    /**
+     *
+     * @return the number of rows counted by this leaf, the inherited counts excluded
+     */
+    int rows () {
+        return rows;
+    }
+
+    int[] candidates () {
+        return candidates;
+    }
+
+    /**
+     *
+     * @return the rows per class, the inherited counts included, indexed up to the last class seen by the leaf
+     */
+    int[] classCounts () {
+        return classCounts;
+    }
+
+    boolean isPure () {
+
+        int classes = 0;
+
+        for (int count: classCounts) {
+
+            if (count > 0) {
+                classes++;
+            }
+        }
+
+        return classes <= 1;
+    }
+
+    /**
+     *
+     * Score the candidates of the leaf, the best split of every attribute that can split the rows
+     *
+     * @param table a table with room for all the classes
+     * @return the splits, in attribute order
+     */
+    List<InformationGainPair> splits (final ContingencyTable table) {
+
+        List<InformationGainPair> splits = new ArrayList<>(candidates.length);
+
+        for (int attribute: candidates) {
+
+            InformationGainPair split = (nominal[attribute] != null) ? nominalSplit(attribute, table) : numericSplit(attribute, table);
+
+            if (split != null) {
+                splits.add(split);
+            }
+        }
+
+        return splits;
+    }
+
+    private InformationGainPair nominalSplit (final int attribute, final ContingencyTable table) {
+
+        int[][] counts = nominal[attribute];
+
+        table.reset(counts.length);
+
+        for (int code = 0; code < counts.length; code++) {
+
+            if (counts[code] != null) {
+
+                for (int label = 0; label < counts[code].length; label++) {
+                    table.add(code, label, counts[code][label]);
+                }
+            }
+        }
+
+        return new InformationGainPair(attribute, table.giniGain());
+    }
+
+    private InformationGainPair numericSplit (final int attribute, final ContingencyTable table) {
+
+        double[][] stats = numeric[attribute];
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        for (int label = 0; label < stats[COUNT].length; label++) {
+
+            if (stats[COUNT][label] > 0) {
+                min = Math.min(min, stats[MIN][label]);
+                max = Math.max(max, stats[MAX][label]);
+            }
+        }
+
+        if (!(min < max)) {
+            return null;
+        }
+
+        InformationGainPair best = null;
+
+        for (int point = 1; point <= SPLIT_POINTS; point++) {
+
+            double threshold = min + (max - min) * point / (SPLIT_POINTS + 1);
+
+            fill(table, branchCounts(attribute, threshold));
+
+            double infoGain = table.giniGain();
+
+            if (best == null || infoGain > best.getInformationGain()) {
+                best = new InformationGainPair(attribute, infoGain, threshold);
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     *
+     * The (estimated for numeric splits) class counts of the branches of a split, the initial counts of the new leaves
+     *
+     * @param split a split of this leaf
+     * @param classes the number of classes
+     * @return the counts indexed by [branch][class]
+     */
+    int[][] branchCounts (final InformationGainPair split, final int classes) {
+
+        int attribute = split.getAttribute();
+
+        if (nominal[attribute] == null) {
+
+            int[][] counts = branchCounts(attribute, split.getThreshold());
+
+            counts[0] = Arrays.copyOf(counts[0], classes);
+            counts[1] = Arrays.copyOf(counts[1], classes);
+
+            return counts;
+        }
+
+        int[][] counts = new int[nominal[attribute].length][];
+
+        for (int code = 0; code < counts.length; code++) {
+            counts[code] = (nominal[attribute][code] == null) ? new int[classes] : Arrays.copyOf(nominal[attribute][code], classes);
+        }
+
+        return counts;
+    }
+
+    private int[][] branchCounts (final int attribute, final double threshold) {
+
+        double[][] stats = numeric[attribute];
+        int[][] counts = new int[2][stats[COUNT].length];
+
+        for (int label = 0; label < stats[COUNT].length; label++) {
+
+            int count = (int) stats[COUNT][label];
+            int below = (int) Math.round(count * probabilityBelow(stats, label, threshold));
+
+            counts[0][label] = below;
+            counts[1][label] = count - below;
+        }
+
+        return counts;
+    }
+
+    /**
+     *
+     * @return the estimated share of the values of a class lower or equal to the threshold
+     */
+    private static double probabilityBelow (final double[][] stats, final int label, final double threshold) {
+
+        if (stats[COUNT][label] == 0 || threshold < stats[MIN][label]) {
+            return 0;
+        }
+
+        if (threshold >= stats[MAX][label]) {
+            return 1;
+        }
+
+        double deviation = Math.sqrt(stats[M2][label] / stats[COUNT][label]);
+
+        if (deviation == 0) {
+            return (stats[MEAN][label] <= threshold) ? 1 : 0;
+        }
+
+        return normal((threshold - stats[MEAN][label]) / deviation);
+    }
+
+    /**
+     *
+     * Standard normal cumulative distribution, Abramowitz and Stegun 7.1.26 approximation of erf (error below 1.5e-7)
+     */
+    private static double normal (final double z) {
+
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - ((((1.061405429 * t - 1.453152027) * t + 1.421413741) * t - 0.284496736) * t + 0.254829592) * t * Math.exp(-x * x);
+
+        return (z >= 0) ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+
+    private static void fill (final ContingencyTable table, final int[][] counts) {
+
+        table.reset(counts.length);
+
+        for (int branch = 0; branch < counts.length; branch++) {
+
+            for (int label = 0; label < counts[branch].length; label++) {
+                table.add(branch, label, counts[branch][label]);
+            }
+        }
+    }
+
+    private static int[] ensure (final int[] counts, final int size) {
+
+        if (counts == null) {
+            return new int[size];
+        }
+
+        return (counts.length < size) ? Arrays.copyOf(counts, size) : counts;
+    }
+}
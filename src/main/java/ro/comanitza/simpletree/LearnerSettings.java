@@ -0,0 +1,145 @@
+package ro.comanitza.simpletree;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ *
+ * The options of a {@link TreeLearner} or a {@link HistogramTreeLearner}, filled by the builders of the {@link DecisionTree} implementations
+ *
+ * @author comanitza
+ */
+final class LearnerSettings {
+
+    static final int DEFAULT_SEQUENTIAL_THRESHOLD = 10_000;
+
+    /*
+     * the pool to learn on, if null and the parallelism is greater than 1 a pool is created for each learning
+     */
+    ForkJoinPool pool;
+
+    int parallelism = 1;
+
+    /*
+     * nodes with less rows than this are grown sequentially
+     */
+    int sequentialThreshold = DEFAULT_SEQUENTIAL_THRESHOLD;
+
+    /*
+     * the maximum number of histogram bins per attribute, 0 for the exact split finding
+     */
+    int maxBins;
+
+    /*
+     * the number of random candidates scored at every node, 0 to score all of them
+     */
+    int attributesPerSplit;
+
+    /*
+     * nodes with more rows than this score their splits on a random sample of this many rows, 0 to score all the rows
+     */
+    int rowsPerSplit;
+
+    /*
+     * the seed of the per node random draws of a single tree
+     */
+    long seed;
+
+    /*
+     * scores the candidate splits
+     */
+    SplitCriterion criterion = SplitCriterion.GINI;
+
+    /*
+     * nodes this deep become leaves, 0 for no limit
+     */
+    int maxDepth;
+
+    /*
+     * a split must leave at least this many rows in every branch that has rows
+     */
+    int minSamplesLeaf = 1;
+
+    /*
+     * the score of a split, weighted by the share of rows of the node, must be at least this much
+     */
+    double minImpurityDecrease;
+
+    /*
+     * the complexity cost of a leaf for the cost-complexity pruning of the grown tree, 0 for no pruning
+     */
+    double costComplexityAlpha;
+
+    /*
+     * the tree is grown best first and stops at this many leaves, 0 to grow it depth first with no limit
+     */
+    int maxLeaves;
+
+    /*
+     * receives the grown nodes and the learned trees
+     */
+    TrainingListener listener = TrainingListener.NONE;
+
+    /**
+     *
+     * @param rows the rows of a node
+     * @param depth the depth of the node, 0 for the root
+     * @return true if the node must be a leaf whatever its rows
+     */
+    boolean stops (final int rows, final int depth) {
+        return (maxDepth > 0 && depth >= maxDepth) || rows < 2 * minSamplesLeaf;
+    }
+
+    /**
+     *
+     * @param split the best split of a node
+     * @param rows the rows of the node
+     * @param totalRows the rows of the root
+     * @return true if the split scores enough
+     */
+    boolean decreases (final InformationGainPair split, final int rows, final int totalRows) {
+        return split.getInformationGain() * rows / totalRows >= minImpurityDecrease;
+    }
+
+    /**
+     *
+     * The random draws of a node depend only on the seed and on the position of the node, never on the scheduling,
+     * so a parallel learning grows the same tree as a sequential one
+     *
+     * @param from the start of the range of rows of the node
+     * @param depth the depth of the node
+     * @return the source of the random draws of the node, null if nothing is sampled
+     */
+    SplittableRandom random (final int from, final int depth) {
+
+        if (attributesPerSplit <= 0 && rowsPerSplit <= 0) {
+            return null;
+        }
+
+        /*
+         * the nodes of a depth have disjoint ranges, so (from, depth) identifies a node
+         */
+        return new SplittableRandom(seed ^ (((long) depth << 32) | from) * 0x9E3779B97F4A7C15L);
+    }
+
+    LearnerSettings copy () {
+
+        LearnerSettings copy = new LearnerSettings();
+        copy.pool = pool;
+        copy.parallelism = parallelism;
+        copy.sequentialThreshold = sequentialThreshold;
+        copy.maxBins = maxBins;
+        copy.attributesPerSplit = attributesPerSplit;
+        copy.rowsPerSplit = rowsPerSplit;
+        copy.seed = seed;
+        copy.criterion = criterion;
+        copy.maxDepth = maxDepth;
+        copy.minSamplesLeaf = minSamplesLeaf;
+        copy.minImpurityDecrease = minImpurityDecrease;
+        copy.costComplexityAlpha = costComplexityAlpha;
+        copy.maxLeaves = maxLeaves;
+        copy.listener = listener;
+
+        return copy;
+    }
+}
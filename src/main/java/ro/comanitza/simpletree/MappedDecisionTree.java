@@ -0,0 +1,494 @@
+package ro.comanitza.simpletree;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+
+import static ro.comanitza.simpletree.ModelFormat.*;
+
+/**
+ *
+ * A {@link CompiledDecisionTree} scored straight from its memory mapped model file, see {@link CompiledDecisionTree#writeTo(Path)}
+ *
+ * Opening a model maps the file and checks it in a single pass: every section, dictionary slot, child table and string must be within the file
+ * and every child must be a node numbered after its parent, so a truncated or corrupt file fails to open instead of failing or looping while scoring.
+ * The nodes and the dictionaries are never copied to the heap, only the class labels are decoded when the model is opened.
+ * The mapped pages are shared by all the processes that open the same file.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author comanitza
+ */
+public final class MappedDecisionTree<T extends Element> {
+
+    private final ElementSchema schema;
+    private final IntBuffer ints;
+    private final CharBuffer strings;
+    private final String[] classes;
+
+    /*
+     * per model attribute, the attribute index in the schema of the element type
+     */
+    private final int[] schemaAttributes;
+
+    private final int attributeTable;
+    private final int nodeTable;
+    private final int childTable;
+    private final int countTable;
+
+    private MappedDecisionTree (final ElementSchema schema, final MappedByteBuffer buffer) throws IOException {
+
+        this.schema = schema;
+        this.ints = buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+        if (ints.limit() < HEADER_INTS || ints.get(H_MAGIC) != MAGIC) {
+            throw new IOException("Not a simple tree model");
+        }
+
+        if (ints.get(H_VERSION) != VERSION) {
+            throw new IOException("Unsupported model version " + ints.get(H_VERSION) + ", expected " + VERSION);
+        }
+
+        int stringsStart = ints.get(H_STRINGS);
+
+        checkRange(stringsStart, 0, HEADER_INTS, ints.limit(), "string pool");
+
+        buffer.position(stringsStart * Integer.BYTES);
+        this.strings = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asCharBuffer();
+
+        this.attributeTable = ints.get(H_ATTRIBUTE_TABLE);
+        this.nodeTable = ints.get(H_NODE_TABLE);
+        this.childTable = ints.get(H_CHILD_TABLE);
+        this.countTable = ints.get(H_COUNT_TABLE);
+
+        check(stringsStart);
+
+        this.schemaAttributes = new int[ints.get(H_ATTRIBUTES)];
+
+        for (int a = 0; a < schemaAttributes.length; a++) {
+
+            String name = string(attributeTable + a * ATTRIBUTE_INTS);
+
+            schemaAttributes[a] = schema.attributeIndex(name);
+
+            if (schemaAttributes[a] < 0) {
+                throw new IOException("Provided class " + schema.getType() + " has no attribute " + name);
+            }
+
+            if (schema.isNumeric(schemaAttributes[a]) != (ints.get(attributeTable + a * ATTRIBUTE_INTS + 5) == 1)) {
+                throw new IOException("Attribute " + name + " of " + schema.getType() + " does not have the type of the model attribute");
+            }
+        }
+
+        this.classes = new String[ints.get(H_CLASSES)];
+
+        for (int c = 0; c < classes.length; c++) {
+            classes[c] = string(ints.get(H_CLASS_TABLE) + c * CLASS_INTS);
+        }
+    }
+
+    /**
+     *
+     * Check the sections, the dictionaries, the nodes and the string references of the file against its size
+     *
+     * @param stringsStart the start of the string pool, the end of the int sections
+     * @throws IOException if a reference is out of the file or a child does not follow its parent
+     */
+    private void check (final int stringsStart) throws IOException {
+
+        int attributes = ints.get(H_ATTRIBUTES);
+        int classes = ints.get(H_CLASSES);
+        int nodes = ints.get(H_NODES);
+
+        if (attributes < 0 || classes < 0 || nodes < 1) {
+            throw new IOException("Corrupt model, invalid counts");
+        }
+
+        checkRange(attributeTable, (long) attributes * ATTRIBUTE_INTS, HEADER_INTS, stringsStart, "attribute table");
+        checkRange(ints.get(H_CLASS_TABLE), (long) classes * CLASS_INTS, HEADER_INTS, stringsStart, "class table");
+        checkRange(nodeTable, (long) nodes * NODE_INTS, HEADER_INTS, stringsStart, "node table");
+        checkRange(childTable, 0, HEADER_INTS, stringsStart, "child table");
+        checkRange(countTable, (long) nodes * classes, childTable, stringsStart, "count table");
+
+        for (int a = 0; a < attributes; a++) {
+
+            int entry = attributeTable + a * ATTRIBUTE_INTS;
+            int table = ints.get(entry + 2);
+            int capacity = ints.get(entry + 3);
+
+            checkString(entry);
+
+            if (capacity < 1 || Integer.bitCount(capacity) != 1 || ints.get(entry + 4) < -1 || (ints.get(entry + 5) & ~1) != 0) {
+                throw new IOException("Corrupt model, invalid attribute " + a);
+            }
+
+            checkRange(table, (long) capacity * SLOT_INTS, HEADER_INTS, stringsStart, "dictionary of attribute " + a);
+
+            /*
+             * the probing stops at an empty slot, a full table would loop on unknown values
+             */
+            boolean empty = false;
+
+            for (int slot = table; slot < table + capacity * SLOT_INTS; slot += SLOT_INTS) {
+
+                if (ints.get(slot) < 0) {
+                    empty = true;
+                } else {
+                    checkString(slot + 2);
+                }
+            }
+
+            if (!empty) {
+                throw new IOException("Corrupt model, dictionary of attribute " + a + " has no empty slot");
+            }
+        }
+
+        for (int c = 0; c < classes; c++) {
+            checkString(ints.get(H_CLASS_TABLE) + c * CLASS_INTS);
+        }
+
+        for (int n = 0; n < nodes; n++) {
+
+            int node = nodeTable + n * NODE_INTS;
+            int attribute = ints.get(node);
+            int label = ints.get(node + 3);
+
+            if (attribute < -1 || attribute >= attributes || label < -1 || label >= classes) {
+                throw new IOException("Corrupt model, invalid node " + n);
+            }
+
+            if (attribute < 0) {
+                continue;
+            }
+
+            long table = (long) childTable + ints.get(node + 1);
+            int count = ints.get(node + 2);
+
+            checkRange(table, (count >= 0) ? (long) count : -2L * count, childTable, countTable, "child table of node " + n);
+
+            /*
+             * a dense table has -1 for the branches with no child, a compacted table lists its children after their codes
+             */
+            int children = (count >= 0) ? count : -count;
+            int first = (int) table + ((count >= 0) ? 0 : children);
+
+            for (int i = 0; i < children; i++) {
+
+                int child = ints.get(first + i);
+
+                if (!(count >= 0 && child == -1) && (child <= n || child >= nodes)) {
+                    throw new IOException("Corrupt model, invalid child of node " + n);
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @throws IOException if the range [from, from + length) is not within [start, end)
+     */
+    private static void checkRange (final long from, final long length, final long start, final long end, final String what) throws IOException {
+
+        if (length < 0 || from < start || from + length > end) {
+            throw new IOException("Corrupt model, " + what + " out of bounds");
+        }
+    }
+
+    /**
+     *
+     * @throws IOException if the string referred at the provided index is not within the string pool
+     */
+    private void checkString (final int reference) throws IOException {
+
+        int length = ints.get(reference + 1);
+
+        if (length >= 0) {
+            checkRange(ints.get(reference), length, 0, strings.limit(), "string");
+        } else if (length != -1) {
+            throw new IOException("Corrupt model, invalid string length");
+        }
+    }
+
+    /**
+     *
+     * Map a model file
+     *
+     * @param path the model file
+     * @param type the type of the elements to score
+     * @param <T> the type of the elements to score
+     * @return the mapped tree
+     * @throws IOException if the file can not be mapped or is not a valid model for the provided type
+     */
+    public static <T extends Element> MappedDecisionTree<T> open (final Path path, final Class<T> type) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MappedDecisionTree<>(ElementSchema.of(type), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     *
+     * Method to interogate the outcome for a provided {@link Element} instance
+     *
+     * @param element the element to query for
+     * @return an optional that might contain the outcome
+     */
+    public Optional<String> outcome (final T element) {
+
+        int label = outcomeId(element);
+
+        return (label < 0) ? Optional.empty() : Optional.ofNullable(classes[label]);
+    }
+
+    /**
+     *
+     * Allocation free variant of {@link #outcome(Element)}
+     *
+     * @param element the element to query for
+     * @return the id of the outcome, to be resolved with {@link #label(int)}, or -1 if there is no outcome
+     */
+    public int outcomeId (final T element) {
+        return ints.get(node(element) + 3);
+    }
+
+    /**
+     *
+     * Method to interogate the outcome for a provided {@link Element} instance, with the confidence of the tree in it
+     *
+     * @param element the element to query for
+     * @return an optional that might contain the prediction
+     */
+    public Optional<Prediction> predict (final T element) {
+
+        int node = node(element);
+        int label = ints.get(node + 3);
+
+        if (label < 0 || classes[label] == null) {
+            return Optional.empty();
+        }
+
+        int counts = countTable + (node - nodeTable) / NODE_INTS * classes.length;
+        int rows = 0;
+
+        for (int c = 0; c < classes.length; c++) {
+            rows += ints.get(counts + c);
+        }
+
+        return Optional.of(new Prediction(classes[label], (rows == 0) ? Double.NaN : (double) ints.get(counts + label) / rows));
+    }
+
+    /**
+     *
+     * Allocation free class probabilities of an element, see {@link CompiledDecisionTree#probabilities(Element, double[])}
+     *
+     * @param element the element to query for
+     * @param probabilities where to write the probabilities, indexed by class id (see {@link #label(int)}), at least {@link #classCount()} long
+     */
+    public void probabilities (final T element, final double[] probabilities) {
+
+        if (probabilities.length < classes.length) {
+            throw new IllegalArgumentException("Expected room for " + classes.length + " probabilities, got " + probabilities.length);
+        }
+
+        int counts = countTable + (node(element) - nodeTable) / NODE_INTS * classes.length;
+        int rows = 0;
+
+        for (int c = 0; c < classes.length; c++) {
+            rows += ints.get(counts + c);
+        }
+
+        for (int c = 0; c < classes.length; c++) {
+            probabilities[c] = (rows == 0) ? 0 : (double) ints.get(counts + c) / rows;
+        }
+    }
+
+    /**
+     *
+     * @param element the element to query for
+     * @return the class probabilities of the element, indexed by class id
+     */
+    public double[] probabilities (final T element) {
+
+        double[] probabilities = new double[classes.length];
+
+        probabilities(element, probabilities);
+
+        return probabilities;
+    }
+
+    /**
+     *
+     * @param element the element to query for
+     * @param k the maximum number of predictions
+     * @return the k most probable outcomes, by decreasing probability, with their probability as confidence
+     */
+    public List<Prediction> top (final T element, final int k) {
+        return Prediction.top(probabilities(element), this::label, k);
+    }
+
+    /**
+     *
+     * @return the position of the leaf reached by the element, or of the inner node where the lookup stopped
+     */
+    private int node (final T element) {
+
+        int node = nodeTable;
+        int attribute;
+
+        while ((attribute = ints.get(node)) >= 0) {
+
+            int schemaAttribute = schemaAttributes[attribute];
+
+            int code = schema.isNumeric(schemaAttribute)
+                    ? ((schema.numericValue(schemaAttribute, element) <= threshold(node)) ? 0 : 1)
+                    : code(attribute, schema.value(schemaAttribute, element));
+
+            int child = (code < 0) ? -1 : child(childTable + ints.get(node + 1), ints.get(node + 2), code);
+
+            if (child < 0) {
+                return node;
+            }
+
+            node = nodeTable + child * NODE_INTS;
+        }
+
+        return node;
+    }
+
+    /**
+     *
+     * @param id the id of an outcome
+     * @return the outcome
+     */
+    public String label (final int id) {
+        return classes[id];
+    }
+
+    /**
+     *
+     * @return the number of classes, the outcome ids are in [0, classCount)
+     */
+    public int classCount () {
+        return classes.length;
+    }
+
+    /**
+     *
+     * @return the number of nodes of the tree
+     */
+    public int size () {
+        return ints.get(H_NODES);
+    }
+
+    /**
+     *
+     * Probe the dictionary of an attribute, comparing the value with the pooled chars in place
+     *
+     * @param attribute the model attribute
+     * @param value the value to look for
+     * @return the code of the value or -1 if unknown
+     */
+    private int code (final int attribute, final String value) {
+
+        int entry = attributeTable + attribute * ATTRIBUTE_INTS;
+
+        if (value == null) {
+            return ints.get(entry + 4);
+        }
+
+        int table = ints.get(entry + 2);
+        int mask = ints.get(entry + 3) - 1;
+        int hash = value.hashCode();
+
+        for (int i = Dictionary.mix(hash) & mask; ; i = (i + 1) & mask) {
+
+            int slot = table + i * SLOT_INTS;
+            int code = ints.get(slot);
+
+            if (code < 0) {
+                return -1;
+            }
+
+            if (ints.get(slot + 1) == hash && equalsPooled(value, ints.get(slot + 2), ints.get(slot + 3))) {
+                return code;
+            }
+        }
+    }
+
+    /**
+     *
+     * Look up a child in a child table, dense or compacted like in {@link CompiledDecisionTree}
+     *
+     * @return the child node number, -1 if the branch has no child
+     */
+    private int child (final int table, final int count, final int code) {
+
+        if (count >= 0) {
+            return (code < count) ? ints.get(table + code) : -1;
+        }
+
+        int low = 0;
+        int high = -count - 1;
+
+        while (low <= high) {
+
+            int middle = (low + high) >>> 1;
+            int key = ints.get(table + middle);
+
+            if (key < code) {
+                low = middle + 1;
+            } else if (key > code) {
+                high = middle - 1;
+            } else {
+                return ints.get(table - count + middle);
+            }
+        }
+
+        return -1;
+    }
+
+    private double threshold (final int node) {
+        return Double.longBitsToDouble(((long) ints.get(node + 5) << 32) | (ints.get(node + 4) & 0xFFFFFFFFL));
+    }
+
+    private boolean equalsPooled (final String value, final int offset, final int length) {
+
+        if (value.length() != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+
+            if (value.charAt(i) != strings.get(offset + i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String string (final int reference) {
+
+        int offset = ints.get(reference);
+        int length = ints.get(reference + 1);
+
+        if (length < 0) {
+            return null;
+        }
+
+        char[] chars = new char[length];
+
+        for (int i = 0; i < length; i++) {
+            chars[i] = strings.get(offset + i);
+        }
+
+        return new String(chars);
+    }
+}
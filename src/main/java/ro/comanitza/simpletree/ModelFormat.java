@@ -0,0 +1,210 @@
+package ro.comanitza.simpletree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ *
+ * The binary format of a {@link CompiledDecisionTree}, read in place by {@link MappedDecisionTree}
+ *
+ * The file is little endian and made of a sequence of int sections followed by a pool of UTF-16 chars holding all the strings.
+ * All the offsets are int indexes from the start of the file, except the string offsets which are char indexes in the pool.
+ * A string is referred by its (offset, length) pair, the null string has length -1.
+ *
+ * <pre>
+ * header            HEADER_INTS ints, see the H_ constants
+ * attributes        per attribute: name offset, name length, dictionary offset, dictionary capacity, null code, numeric flag
+ * dictionaries      per attribute an open addressing table of capacity slots: code (-1 if empty), hash, value offset, value length
+ * classes           per class: label offset, label length
+ * nodes             per node: attribute (-1 for leaves), child offset, child count, label (majority class for inner nodes), threshold (raw long bits, low int first)
+ * children          the child tables of the inner nodes, dense or compacted like in {@link CompiledDecisionTree}
+ * class counts      per node, the learning rows of every class
+ * strings           the char pool
+ * </pre>
+ *
+ * Numeric attributes have an empty dictionary, their nodes have a two entries child table, lower or equal branch first.
+ * The dictionaries are probed like {@link Dictionary}: linear probing from {@link Dictionary#mix(int)} of the string hash code.
+ * The nodes are numbered breadth first, a child always has a bigger number than its parent.
+ *
+ * @author comanitza
+ */
+final class ModelFormat {
+
+    static final int MAGIC = 0x45525453;
+    static final int VERSION = 1;
+
+    static final int H_MAGIC = 0;
+    static final int H_VERSION = 1;
+    static final int H_ATTRIBUTES = 2;
+    static final int H_CLASSES = 3;
+    static final int H_NODES = 4;
+    static final int H_ATTRIBUTE_TABLE = 5;
+    static final int H_CLASS_TABLE = 6;
+    static final int H_NODE_TABLE = 7;
+    static final int H_CHILD_TABLE = 8;
+    static final int H_STRINGS = 9;
+    static final int H_COUNT_TABLE = 10;
+    static final int HEADER_INTS = 11;
+
+    static final int ATTRIBUTE_INTS = 6;
+    static final int SLOT_INTS = 4;
+    static final int CLASS_INTS = 2;
+    static final int NODE_INTS = 6;
+
+    private ModelFormat () {}
+
+    /**
+     *
+     * Write a compiled tree to a file, replacing it if it exists
+     *
+     * @param tree the tree to write
+     * @param path the file to write to
+     * @throws IOException if the file can not be written
+     */
+    static void write (final CompiledDecisionTree<?> tree, final Path path) throws IOException {
+
+        ElementSchema schema = tree.schema();
+        Dictionary[] dictionaries = tree.dictionaries();
+        int[] attributes = tree.attributes();
+        int[] children = tree.children();
+        int[] classCounts = tree.classCounts();
+
+        StringBuilder strings = new StringBuilder();
+
+        int[] capacities = new int[dictionaries.length];
+        int dictionaryInts = 0;
+
+        for (int a = 0; a < dictionaries.length; a++) {
+            capacities[a] = capacity(dictionaries[a].size());
+            dictionaryInts += capacities[a] * SLOT_INTS;
+        }
+
+        int attributeTable = HEADER_INTS;
+        int dictionaryTable = attributeTable + dictionaries.length * ATTRIBUTE_INTS;
+        int classTable = dictionaryTable + dictionaryInts;
+        int nodeTable = classTable + tree.classCount() * CLASS_INTS;
+        int childTable = nodeTable + attributes.length * NODE_INTS;
+        int countTable = childTable + children.length;
+        int stringsStart = countTable + classCounts.length;
+
+        int[] ints = new int[stringsStart];
+
+        ints[H_MAGIC] = MAGIC;
+        ints[H_VERSION] = VERSION;
+        ints[H_ATTRIBUTES] = dictionaries.length;
+        ints[H_CLASSES] = tree.classCount();
+        ints[H_NODES] = attributes.length;
+        ints[H_ATTRIBUTE_TABLE] = attributeTable;
+        ints[H_CLASS_TABLE] = classTable;
+        ints[H_NODE_TABLE] = nodeTable;
+        ints[H_CHILD_TABLE] = childTable;
+        ints[H_STRINGS] = stringsStart;
+        ints[H_COUNT_TABLE] = countTable;
+
+        int table = dictionaryTable;
+
+        for (int a = 0; a < dictionaries.length; a++) {
+
+            int entry = attributeTable + a * ATTRIBUTE_INTS;
+
+            putString(ints, entry, strings, schema.attributeName(a));
+            ints[entry + 2] = table;
+            ints[entry + 3] = capacities[a];
+            ints[entry + 4] = dictionaries[a].code(null);
+            ints[entry + 5] = schema.isNumeric(a) ? 1 : 0;
+
+            Arrays.fill(ints, table, table + capacities[a] * SLOT_INTS, -1);
+
+            for (int code = 0; code < dictionaries[a].size(); code++) {
+
+                String symbol = dictionaries[a].symbol(code);
+
+                if (symbol == null) {
+                    continue;
+                }
+
+                int mask = capacities[a] - 1;
+                int i = Dictionary.mix(symbol.hashCode()) & mask;
+
+                while (ints[table + i * SLOT_INTS] >= 0) {
+                    i = (i + 1) & mask;
+                }
+
+                int slot = table + i * SLOT_INTS;
+
+                ints[slot] = code;
+                ints[slot + 1] = symbol.hashCode();
+                putString(ints, slot + 2, strings, symbol);
+            }
+
+            table += capacities[a] * SLOT_INTS;
+        }
+
+        for (int c = 0; c < tree.classCount(); c++) {
+            putString(ints, classTable + c * CLASS_INTS, strings, tree.label(c));
+        }
+
+        for (int n = 0; n < attributes.length; n++) {
+
+            int entry = nodeTable + n * NODE_INTS;
+
+            ints[entry] = attributes[n];
+            ints[entry + 1] = tree.childOffsets()[n];
+            ints[entry + 2] = tree.childCounts()[n];
+            ints[entry + 3] = tree.labels()[n];
+
+            long threshold = Double.doubleToRawLongBits(tree.thresholds()[n]);
+
+            ints[entry + 4] = (int) threshold;
+            ints[entry + 5] = (int) (threshold >>> 32);
+        }
+
+        System.arraycopy(children, 0, ints, childTable, children.length);
+        System.arraycopy(classCounts, 0, ints, countTable, classCounts.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(ints.length * Integer.BYTES + strings.length() * Character.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.asIntBuffer().put(ints);
+        buffer.position(ints.length * Integer.BYTES);
+        buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asCharBuffer().put(strings.toString());
+        buffer.rewind();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     *
+     * Append a string to the pool and write its (offset, length) reference
+     */
+    private static void putString (final int[] ints, final int index, final StringBuilder strings, final String value) {
+
+        if (value == null) {
+            ints[index] = 0;
+            ints[index + 1] = -1;
+            return;
+        }
+
+        ints[index] = strings.length();
+        ints[index + 1] = value.length();
+        strings.append(value);
+    }
+
+    /**
+     *
+     * @param size the number of symbols
+     * @return a power of 2 at least twice the number of symbols
+     */
+    private static int capacity (final int size) {
+        return Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+    }
+}
@@ -1,53 +1,297 @@
 package ro.comanitza.simpletree;
 
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  *
  * Class that represents the node of the {@link DecisionTree} implementations
  *
+ * The node works with the dictionary codes of the learned data: the split attribute is an attribute index,
+ * the children are indexed by the code of the attribute value and the label is the code of the class value.
+ * A node split on a numeric attribute has two children, the first for the values lower or equal to the threshold.
+ * The learners also record the class counts of the learning rows of every node. Inner nodes predict their majority class
+ * when a lookup can not go further down, for a value not seen while learning or with no rows at the node.
+ *
+ * The children of a learned tree can be compacted: a node with many branches and few children keeps only its children,
+ * with their codes sorted for a binary search, instead of one slot per value of the split attribute.
+ *
  * @author comanitza
  */
 class Node {
-    private String fieldName;
-    private String transportation;
-    private Map<String, Node> children;
+    private int attribute = -1;
+    private int label = -1;
+    private double threshold = Double.NaN;
+    private Node[] children;
+
+    /*
+     * null for dense children indexed by code. For compacted children, the sorted codes of the children followed by the number of branches
+     */
+    private int[] codes;
+
+    /*
+     * the learning rows of the node per class, null if unknown
+     */
+    private int[] classCounts;
+    private int rows;
 
     Node () {}
 
-    Node (final String transportation) {
-        this.transportation = transportation;
+    /**
+     *
+     * @return the index of the split attribute in the {@link ElementSchema} of the learned type, -1 for leaves
+     */
+    int getAttribute() {
+        return attribute;
     }
 
-    String getFieldName() {
-        return fieldName;
+    void setAttribute(int attribute) {
+        this.attribute = attribute;
     }
 
-    void setFieldName(String fieldName) {
-        this.fieldName = fieldName;
+    /**
+     *
+     * @return the class code of a leaf, the majority class of the learning rows for inner nodes or -1 if unknown
+     */
+    int getLabel() {
+        return label;
     }
 
-    String getTransportation() {
-        return transportation;
+    void setLabel(int label) {
+        this.label = label;
     }
 
-    void setTransportation(String transportation) {
-        this.transportation = transportation;
+    /**
+     *
+     * @return the threshold of a numeric split, NaN for the others
+     */
+    double getThreshold() {
+        return threshold;
     }
 
-    Map<String, Node> getChildren() {
+    void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     *
+     * @return the children indexed by the code of the split attribute value, missing branches are null. Once compacted only the children, use {@link #child(int)} to look them up
+     */
+    Node[] getChildren() {
         return children;
     }
 
-    void setChildren(Map<String, Node> children) {
+    void setChildren(Node[] children) {
+        this.children = children;
+        this.codes = null;
+    }
+
+    /**
+     *
+     * Set the children of the branches with rows only, compacted unless one slot per branch takes less memory, see {@link #compactChildren()}
+     *
+     * @param codes the sorted codes of the branches with a child
+     * @param children the children, in the order of their codes
+     * @param branches the number of branches of the split
+     */
+    void setChildren(final int[] codes, final Node[] children, final int branches) {
+
+        if (!compacts(children.length, branches)) {
+
+            Node[] dense = new Node[branches];
+
+            for (int i = 0; i < children.length; i++) {
+                dense[codes[i]] = children[i];
+            }
+
+            setChildren(dense);
+            return;
+        }
+
+        int[] compactedCodes = Arrays.copyOf(codes, children.length + 1);
+        compactedCodes[children.length] = branches;
+
         this.children = children;
+        this.codes = compactedCodes;
+    }
+
+    /**
+     *
+     * @param code the code of the split attribute value, 0 or 1 for numeric splits
+     * @return the child of the branch, null if the branch has no child
+     */
+    Node child(final int code) {
+
+        if (codes == null) {
+            return (code < children.length) ? children[code] : null;
+        }
+
+        int i = Arrays.binarySearch(codes, 0, children.length, code);
+
+        return (i < 0) ? null : children[i];
+    }
+
+    /**
+     *
+     * @param i the index of a child in {@link #getChildren()}
+     * @return the code of the branch of the child
+     */
+    int childCode(final int i) {
+        return (codes == null) ? i : codes[i];
+    }
+
+    /**
+     *
+     * @return the number of branches of the split, the number of values of the split attribute at learning time
+     */
+    int branches() {
+        return (codes == null) ? children.length : codes[children.length];
+    }
+
+    /**
+     *
+     * Keep only the children of the node if that takes less memory than one slot per branch
+     */
+    void compactChildren() {
+
+        if (children == null || codes != null) {
+            return;
+        }
+
+        int count = 0;
+
+        for (Node child: children) {
+
+            if (child != null) {
+                count++;
+            }
+        }
+
+        if (!compacts(count, children.length)) {
+            return;
+        }
+
+        int[] compactedCodes = new int[count + 1];
+        Node[] compacted = new Node[count];
+        int i = 0;
+
+        for (int code = 0; code < children.length; code++) {
+
+            if (children[code] != null) {
+                compactedCodes[i] = code;
+                compacted[i++] = children[code];
+            }
+        }
+
+        compactedCodes[count] = children.length;
+
+        this.children = compacted;
+        this.codes = compactedCodes;
+    }
+
+    /**
+     *
+     * A compacted child costs a reference and a code, a slot a reference only
+     */
+    private static boolean compacts(final int count, final int branches) {
+        return 2 * count + 1 < branches;
+    }
+
+    /**
+     *
+     * @return the number of learning rows that reached the node, 0 if unknown
+     */
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     *
+     * @return the number of learning rows of the node that are not of its majority class
+     */
+    int getErrors() {
+        return (label < 0 || classCounts == null) ? 0 : rows - classCounts[label];
+    }
+
+    /**
+     *
+     * @return the number of learning rows per class, null if unknown
+     */
+    int[] getClassCounts() {
+        return classCounts;
+    }
+
+    /**
+     *
+     * @return the share of the learning rows of the node that are of its label, NaN if unknown
+     */
+    double confidence() {
+        return (rows == 0 || label < 0) ? Double.NaN : (double) classCounts[label] / rows;
+    }
+
+    /**
+     *
+     * Write the share of the learning rows of every class
+     *
+     * @param probabilities where to write, indexed by class id, the classes the node has no count for get 0
+     */
+    void probabilities(final double[] probabilities) {
+
+        Arrays.fill(probabilities, 0);
+
+        if (rows == 0) {
+            return;
+        }
+
+        for (int c = 0; c < classCounts.length && c < probabilities.length; c++) {
+            probabilities[c] = (double) classCounts[c] / rows;
+        }
+    }
+
+    /**
+     *
+     * Record the class counts of the learning rows of the node, the label becomes the majority class
+     *
+     * @param classCounts the number of rows per class, kept by the node
+     */
+    void setCounts(final int[] classCounts) {
+
+        int majority = -1;
+        int rows = 0;
+
+        for (int c = 0; c < classCounts.length; c++) {
+
+            rows += classCounts[c];
+
+            if (classCounts[c] > 0 && (majority < 0 || classCounts[c] > classCounts[majority])) {
+                majority = c;
+            }
+        }
+
+        this.label = majority;
+        this.rows = rows;
+        this.classCounts = classCounts;
+    }
+
+    /**
+     *
+     * Turn the node into a leaf predicting its majority class
+     */
+    void collapse() {
+        this.attribute = -1;
+        this.threshold = Double.NaN;
+        this.children = null;
+        this.codes = null;
+    }
+
+    boolean isLeaf () {
+        return children == null;
     }
 
     public String toString () {
         if (children == null) {
-            return '[' + transportation + ']';
+            return "[" + label + ']';
         }
 
-        return children.toString();
+        return attribute + (Double.isNaN(threshold) ? "=" : "<=" + threshold) + ((codes == null) ? "" : Arrays.toString(Arrays.copyOf(codes, children.length))) + Arrays.toString(children);
     }
 }
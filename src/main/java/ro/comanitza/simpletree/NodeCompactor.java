@@ -0,0 +1,94 @@
+package ro.comanitza.simpletree;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * Shrinks the heap footprint of a learned tree before it is published
+ *
+ * The split attributes and the labels of the nodes are already small ids, the symbols live once in the dictionaries of the model.
+ * What remains repeated across the nodes are the class counts, many leaves have exactly the same ones (a few rows of a single class),
+ * so the equal count arrays are interned and shared by all the nodes having them. The children of the nodes split on an attribute
+ * with many values, of which only a few reach the node, are compacted, see {@link Node#compactChildren()}.
+ *
+ * The tree must not be modified afterwards, the shared count arrays are read only.
+ *
+ * @author comanitza
+ */
+final class NodeCompactor {
+
+    private NodeCompactor () {}
+
+    /**
+     *
+     * Compact a tree in place, the nodes shared by several branches (see {@link HistogramTreeLearner}) stay shared
+     *
+     * @param root the root of the learned tree
+     * @return the number of distinct count arrays kept by the tree
+     */
+    static int compact (final Node root) {
+
+        Map<Counts, int[]> interned = new HashMap<>();
+        Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Node> pending = new ArrayDeque<>();
+
+        pending.push(root);
+        visited.add(root);
+
+        while (!pending.isEmpty()) {
+
+            Node node = pending.pop();
+
+            if (node.getClassCounts() != null) {
+                node.setCounts(interned.computeIfAbsent(new Counts(node.getClassCounts()), (counts) -> counts.counts));
+            }
+
+            if (node.isLeaf()) {
+                continue;
+            }
+
+            node.compactChildren();
+
+            for (Node child: node.getChildren()) {
+
+                if (child != null && visited.add(child)) {
+                    pending.push(child);
+                }
+            }
+        }
+
+        return interned.size();
+    }
+
+    /**
+     *
+     * Key comparing the count arrays by value
+     */
+    private static final class Counts {
+
+        private final int[] counts;
+        private final int hash;
+
+        Counts (final int[] counts) {
+            this.counts = counts;
+            this.hash = Arrays.hashCode(counts);
+        }
+
+        @Override
+        public boolean equals (final Object o) {
+            return (o instanceof Counts) && Arrays.equals(counts, ((Counts) o).counts);
+        }
+
+        @Override
+        public int hashCode () {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ro.comanitza.simpletree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+/**
+ *
+ * The outcome of a {@link DecisionTree} for an element together with how sure the tree is of it
+ *
+ * For a single tree the confidence is the share of the learning rows of the node that gave the outcome which are of the outcome class,
+ * for a forest it is the share of the trees that voted for the outcome. In the top k predictions the confidence is the probability of the class.
+ *
+ * @author comanitza
+ */
+public final class Prediction {
+
+    private final String label;
+    private final double confidence;
+
+    Prediction (final String label, final double confidence) {
+        this.label = label;
+        this.confidence = confidence;
+    }
+
+    /**
+     *
+     * @return the outcome
+     */
+    public String getLabel () {
+        return label;
+    }
+
+    /**
+     *
+     * @return the confidence in the outcome, between 0 and 1, NaN if unknown
+     */
+    public double getConfidence () {
+        return confidence;
+    }
+
+    /**
+     *
+     * The classes with the highest probabilities, the ones with no probability excluded
+     *
+     * @param probabilities the probabilities indexed by class id
+     * @param labels the label of every class id
+     * @param k the maximum number of predictions
+     * @return the predictions by decreasing probability, the lower class id first on ties
+     */
+    static List<Prediction> top (final double[] probabilities, final IntFunction<String> labels, final int k) {
+
+        if (k < 1) {
+            throw new IllegalArgumentException("At least one prediction must be asked for, got " + k);
+        }
+
+        List<Prediction> top = new ArrayList<>(Math.min(k, probabilities.length));
+        double previous = Double.POSITIVE_INFINITY;
+        int previousId = -1;
+
+        /*
+         * k is small, one scan per prediction for the next class in (probability descending, id ascending) order
+         */
+        while (top.size() < k) {
+
+            int best = -1;
+
+            for (int id = 0; id < probabilities.length; id++) {
+
+                double p = probabilities[id];
+                boolean after = p < previous || (p == previous && id > previousId);
+
+                if (p > 0 && after && (best < 0 || p > probabilities[best])) {
+                    best = id;
+                }
+            }
+
+            if (best < 0) {
+                break;
+            }
+
+            top.add(new Prediction(labels.apply(best), probabilities[best]));
+            previous = probabilities[best];
+            previousId = best;
+        }
+
+        return top;
+    }
+
+    @Override
+    public boolean equals (final Object o) {
+
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof Prediction)) {
+            return false;
+        }
+
+        Prediction other = (Prediction) o;
+
+        return Objects.equals(label, other.label) && Double.compare(confidence, other.confidence) == 0;
+    }
+
+    @Override
+    public int hashCode () {
+        return Objects.hash(label, confidence);
+    }
+
+    @Override
+    public String toString () {
+        return "Prediction{label='" + label + "', confidence=" + confidence + '}';
+    }
+}
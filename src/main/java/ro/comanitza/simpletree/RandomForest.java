@@ -0,0 +1,581 @@
+package ro.comanitza.simpletree;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ *
+ * Random forest implementation of the {@link DecisionTree} contract
+ *
+ * Every tree is grown on a bootstrap sample of the rows (drawn with replacement) and scores at every node only a random subset of the candidate attributes.
+ * The outcome is the class with the most votes among the trees, ties go to the class seen first while learning.
+ *
+ * The elements are encoded once in a {@link Dataset} shared by all the trees, a tree only holds the row ids of its sample.
+ * The trees are grown concurrently, one fork/join task per tree, and compiled to {@link CompiledDecisionTree}s.
+ * Scoring encodes an element once for all the trees. A single element is voted on the calling thread, with no fork/join handoff,
+ * and batches are scored in parallel by rows.
+ *
+ * With the same seed and settings the learned forest is always the same, whatever the parallelism.
+ * A learning publishes the new trees at once, threads scoring meanwhile see either the old forest or the new one, never a mix.
+ *
+ * @author comanitza
+ */
+public class RandomForest<T extends Element> extends DecisionTreeBase<T> {
+
+    static final int DEFAULT_TREES = 100;
+
+    /*
+     * batches are split in tasks of this many elements
+     */
+    private static final int ELEMENTS_PER_TASK = 256;
+
+    private final LearnerSettings settings;
+    private final int treeCount;
+    private final long seed;
+
+    /*
+     * the current forest, replaced as a whole by every learning so scoring threads need no lock
+     */
+    private volatile Forest<T> forest;
+
+    public RandomForest () {
+        this(defaultSettings(), DEFAULT_TREES, System.nanoTime());
+    }
+
+    private RandomForest (final LearnerSettings settings, final int treeCount, final long seed) {
+        this.settings = settings;
+        this.treeCount = treeCount;
+        this.seed = seed;
+    }
+
+    /**
+     *
+     * @param <T> the type of the elements
+     * @return a builder for configuring the forest
+     */
+    public static <T extends Element> Builder<T> builder () {
+        return new Builder<>();
+    }
+
+    @Override
+    public boolean learn (final List<T> elements) {
+
+        if (elements == null || elements.isEmpty()) {
+            return false;
+        }
+
+        ElementSchema elementSchema = ElementSchema.of(elements.get(0).getClass());
+
+        if (!elementSchema.classFieldName().isPresent()) {
+            throw new RuntimeException("Provided class " + elements.get(0).getClass() + " is missing class field.");
+        }
+
+        long start = System.nanoTime();
+        Dataset dataset = Dataset.of(elements, elementSchema);
+
+        settings.listener.encoded(dataset.rows(), dataset.attributes(), System.nanoTime() - start);
+
+        /*
+         * the trees are the parallel units, every tree is grown sequentially so its random draws do not depend on the scheduling
+         */
+        LearnerSettings treeSettings = settings.copy();
+        treeSettings.pool = null;
+        treeSettings.parallelism = 1;
+
+        if (treeSettings.attributesPerSplit == 0) {
+            treeSettings.attributesPerSplit = Math.max(1, (int) Math.round(Math.sqrt(dataset.attributes())));
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        List<TreeTask> tasks = new ArrayList<>(treeCount);
+
+        for (int t = 0; t < treeCount; t++) {
+            tasks.add(new TreeTask(dataset, treeSettings, random.split()));
+        }
+
+        if (settings.pool != null) {
+            run(settings.pool, tasks);
+        } else {
+
+            ForkJoinPool pool = new ForkJoinPool(settings.parallelism);
+
+            try {
+                run(pool, tasks);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        List<CompiledDecisionTree<T>> learned = new ArrayList<>(treeCount);
+
+        for (TreeTask task: tasks) {
+            learned.add(task.join());
+        }
+
+        forest = new Forest<>(elementSchema, dataset.dictionaries(), dataset.classes(), learned);
+
+        return true;
+    }
+
+    @Override
+    public Optional<String> outcome (final T element) {
+
+        Forest<T> current = forest;
+
+        if (current == null) {
+            return Optional.empty();
+        }
+
+        int label = elect(votes(current, element));
+
+        return (label < 0) ? Optional.empty() : Optional.ofNullable(current.classes.symbol(label));
+    }
+
+    /**
+     *
+     * The confidence is the share of the trees voting for the outcome
+     *
+     * @param element the element to query for
+     * @return an optional that might contain the prediction
+     */
+    @Override
+    public Optional<Prediction> predict (final T element) {
+
+        Forest<T> current = forest;
+
+        if (current == null) {
+            return Optional.empty();
+        }
+
+        int[] votes = votes(current, element);
+        int label = elect(votes);
+        String symbol = (label < 0) ? null : current.classes.symbol(label);
+
+        return (symbol == null) ? Optional.empty() : Optional.of(new Prediction(symbol, (double) votes[label] / current.trees.size()));
+    }
+
+    /**
+     *
+     * Allocation free class probabilities of an element, the shares of the trees voting for every class
+     *
+     * The class ids are the indexes of {@link #classes()}, which a concurrent learning may change
+     *
+     * @param element the element to query for
+     * @param probabilities where to write the probabilities, indexed by class id, at least as long as the classes
+     * @return true if there are probabilities, false if nothing is learned yet
+     */
+    public boolean probabilities (final T element, final double[] probabilities) {
+
+        Forest<T> current = forest;
+
+        if (current == null) {
+            return false;
+        }
+
+        if (probabilities.length < current.classes.size()) {
+            throw new IllegalArgumentException("Expected room for " + current.classes.size() + " probabilities, got " + probabilities.length);
+        }
+
+        shares(current, votes(current, element), probabilities);
+
+        return true;
+    }
+
+    /**
+     *
+     * @param element the element to query for
+     * @return the class probabilities of the element, indexed by class id, empty if nothing is learned yet
+     */
+    public double[] probabilities (final T element) {
+
+        Forest<T> current = forest;
+
+        if (current == null) {
+            return new double[0];
+        }
+
+        double[] probabilities = new double[current.classes.size()];
+
+        shares(current, votes(current, element), probabilities);
+
+        return probabilities;
+    }
+
+    /**
+     *
+     * @param element the element to query for
+     * @param k the maximum number of predictions
+     * @return the k most voted outcomes, by decreasing share of votes, with their share as confidence
+     */
+    public List<Prediction> top (final T element, final int k) {
+
+        Forest<T> current = forest;
+
+        if (current == null) {
+            return Collections.emptyList();
+        }
+
+        double[] probabilities = new double[current.classes.size()];
+
+        shares(current, votes(current, element), probabilities);
+
+        return Prediction.top(probabilities, current.classes::symbol, k);
+    }
+
+    /**
+     *
+     * @return the learned classes, in class id order, empty if nothing is learned yet
+     */
+    public List<String> classes () {
+
+        Forest<T> current = forest;
+
+        return (current == null) ? Collections.emptyList() : current.classes.symbols();
+    }
+
+    private static void shares (final Forest<?> forest, final int[] votes, final double[] probabilities) {
+
+        for (int label = 0; label < votes.length; label++) {
+            probabilities[label] = (double) votes[label] / forest.trees.size();
+        }
+    }
+
+    private int[] votes (final Forest<T> current, final T element) {
+
+        int[] codes = new int[current.schema.attributeCount()];
+        double[] values = new double[current.schema.attributeCount()];
+
+        current.encode(element, codes, values);
+
+        return current.votes(codes, values, 0, current.trees.size(), new int[current.classes.size()]);
+    }
+
+    /**
+     *
+     * The batch is split in tasks of consecutive elements, every task scores its elements with all the trees
+     *
+     * @param elements the elements to query for
+     * @return the outcomes, in the order of the elements
+     */
+    @Override
+    public List<Optional<String>> outcomes (final List<T> elements) {
+
+        Forest<T> current = forest;
+
+        if (current == null) {
+            return Collections.nCopies(elements.size(), Optional.empty());
+        }
+
+        Object[] batch = elements.toArray();
+        int[] ids = new int[batch.length];
+
+        pool().invoke(new BatchTask(current, batch, ids, 0, batch.length));
+
+        List<Optional<String>> outcomes = new ArrayList<>(ids.length);
+
+        for (int id: ids) {
+            outcomes.add((id < 0) ? Optional.empty() : Optional.ofNullable(current.classes.symbol(id)));
+        }
+
+        return outcomes;
+    }
+
+    /**
+     *
+     * @return the number of trees of the forest, 0 if nothing is learned yet
+     */
+    public int size () {
+        Forest<T> current = forest;
+
+        return (current == null) ? 0 : current.trees.size();
+    }
+
+    private static void run (final ForkJoinPool pool, final List<? extends RecursiveTask<?>> tasks) {
+
+        for (RecursiveTask<?> task: tasks) {
+            pool.execute(task);
+        }
+    }
+
+    /**
+     *
+     * @return the pool to score on, the configured one or the common pool
+     */
+    private ForkJoinPool pool () {
+        return (settings.pool != null) ? settings.pool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     *
+     * @return the class with the most votes, the first one on ties, or -1 if no tree voted
+     */
+    private static int elect (final int[] votes) {
+
+        int best = -1;
+
+        for (int label = 0; label < votes.length; label++) {
+
+            if (votes[label] > 0 && (best < 0 || votes[label] > votes[best])) {
+                best = label;
+            }
+        }
+
+        return best;
+    }
+
+    private static LearnerSettings defaultSettings () {
+
+        LearnerSettings settings = new LearnerSettings();
+        settings.parallelism = Runtime.getRuntime().availableProcessors();
+
+        return settings;
+    }
+
+    /**
+     *
+     * Immutable snapshot of a learned forest, the trees and the symbol tables needed to encode the queried elements
+     */
+    private static final class Forest<T extends Element> {
+
+        private final ElementSchema schema;
+        private final Dictionary[] dictionaries;
+        private final Dictionary classes;
+        private final List<CompiledDecisionTree<T>> trees;
+
+        /*
+         * the attributes used by at least one tree, the only ones encoded when scoring
+         */
+        private final int[] usedAttributes;
+
+        Forest (final ElementSchema schema, final Dictionary[] dictionaries, final Dictionary classes, final List<CompiledDecisionTree<T>> trees) {
+            this.schema = schema;
+            this.dictionaries = dictionaries;
+            this.classes = classes;
+            this.trees = Collections.unmodifiableList(trees);
+            this.usedAttributes = trees.stream().flatMapToInt((tree) -> Arrays.stream(tree.usedAttributes())).distinct().sorted().toArray();
+        }
+
+        void encode (final Element element, final int[] codes, final double[] values) {
+
+            for (int attribute: usedAttributes) {
+
+                if (schema.isNumeric(attribute)) {
+                    values[attribute] = schema.numericValue(attribute, element);
+                } else {
+                    codes[attribute] = dictionaries[attribute].code(schema.value(attribute, element));
+                }
+            }
+        }
+
+        /**
+         *
+         * Add the votes of a range of trees
+         */
+        int[] votes (final int[] codes, final double[] values, final int from, final int to, final int[] votes) {
+
+            for (int t = from; t < to; t++) {
+
+                int label = trees.get(t).outcomeId(codes, values);
+
+                if (label >= 0) {
+                    votes[label]++;
+                }
+            }
+
+            return votes;
+        }
+    }
+
+    /**
+     *
+     * Task growing and compiling one tree on its own bootstrap sample
+     */
+    private final class TreeTask extends RecursiveTask<CompiledDecisionTree<T>> {
+
+        private final Dataset data;
+        private final LearnerSettings treeSettings;
+        private final SplittableRandom random;
+
+        TreeTask (final Dataset data, final LearnerSettings treeSettings, final SplittableRandom random) {
+            this.data = data;
+            this.treeSettings = treeSettings;
+            this.random = random;
+        }
+
+        @Override
+        protected CompiledDecisionTree<T> compute () {
+
+            long start = System.nanoTime();
+            long allocated = TreeStatistics.allocatedBytes();
+            int[] sample = new int[data.rows()];
+
+            for (int i = 0; i < sample.length; i++) {
+                sample[i] = random.nextInt(data.rows());
+            }
+
+            Node root = new TreeLearner(data, treeSettings, sample, random).grow();
+
+            DecisionTreeImpl.learned(treeSettings.listener, root, start, allocated);
+
+            return CompiledDecisionTree.compile(data.getSchema(), root, data.dictionaries(), data.classes());
+        }
+    }
+
+    /**
+     *
+     * Task scoring a range of a batch
+     */
+    private static final class BatchTask extends RecursiveAction {
+
+        private final Forest<?> forest;
+        private final Object[] batch;
+        private final int[] ids;
+        private final int from;
+        private final int to;
+
+        BatchTask (final Forest<?> forest, final Object[] batch, final int[] ids, final int from, final int to) {
+            this.forest = forest;
+            this.batch = batch;
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute () {
+
+            if (to - from > ELEMENTS_PER_TASK) {
+
+                int middle = (from + to) >>> 1;
+
+                invokeAll(new BatchTask(forest, batch, ids, from, middle), new BatchTask(forest, batch, ids, middle, to));
+                return;
+            }
+
+            int[] codes = new int[forest.schema.attributeCount()];
+            double[] values = new double[forest.schema.attributeCount()];
+            int[] votes = new int[forest.classes.size()];
+
+            for (int i = from; i < to; i++) {
+
+                Arrays.fill(votes, 0);
+                forest.encode((Element) batch[i], codes, values);
+
+                ids[i] = elect(forest.votes(codes, values, 0, forest.trees.size(), votes));
+            }
+        }
+    }
+
+    /**
+     *
+     * Builder for {@link RandomForest}, by default {@value #DEFAULT_TREES} trees scoring the square root of the attributes count at every node,
+     * learned on a pool as big as the number of processors
+     *
+     * @param <T> the type of the elements
+     */
+    public static final class Builder<T extends Element> {
+
+        private final LearnerSettings settings = defaultSettings();
+        private int trees = DEFAULT_TREES;
+        private long seed = System.nanoTime();
+
+        private Builder () {}
+
+        /**
+         *
+         * @param trees the number of trees of the forest
+         * @return the builder
+         */
+        public Builder<T> trees (final int trees) {
+
+            if (trees < 1) {
+                throw new IllegalArgumentException("A forest needs at least one tree, got " + trees);
+            }
+
+            this.trees = trees;
+            return this;
+        }
+
+        /**
+         *
+         * @param attributes the number of random candidate attributes scored at every node
+         * @return the builder
+         */
+        public Builder<T> attributesPerSplit (final int attributes) {
+
+            if (attributes < 1) {
+                throw new IllegalArgumentException("At least one attribute per split is needed, got " + attributes);
+            }
+
+            settings.attributesPerSplit = attributes;
+            return this;
+        }
+
+        /**
+         *
+         * @param seed the seed of the samples and of the attribute subsets, for reproducible forests
+         * @return the builder
+         */
+        public Builder<T> seed (final long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         *
+         * Learn on a pool with the provided parallelism created for each learning
+         *
+         * @param parallelism the number of threads to use
+         * @return the builder
+         */
+        public Builder<T> parallelism (final int parallelism) {
+
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be positive, got " + parallelism);
+            }
+
+            settings.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         *
+         * Learn and score on the provided pool, the pool is not shut down by the forest
+         *
+         * @param pool the pool to use
+         * @return the builder
+         */
+        public Builder<T> pool (final ForkJoinPool pool) {
+            settings.pool = Objects.requireNonNull(pool);
+            return this;
+        }
+
+        /**
+         *
+         * @param criterion the criterion scoring the candidate splits of the trees, see {@link SplitCriterion}
+         * @return the builder
+         */
+        public Builder<T> criterion (final SplitCriterion criterion) {
+            settings.criterion = Objects.requireNonNull(criterion);
+            return this;
+        }
+
+        /**
+         *
+         * Report the progress of every learning, see {@link TrainingListener}. The trees are reported one by one, from the pool threads
+         *
+         * @param listener the listener
+         * @return the builder
+         */
+        public Builder<T> listener (final TrainingListener listener) {
+            settings.listener = Objects.requireNonNull(listener);
+            return this;
+        }
+
+        public RandomForest<T> build () {
+            return new RandomForest<>(settings.copy(), trees, seed);
+        }
+    }
+}
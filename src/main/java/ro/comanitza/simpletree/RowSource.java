@@ -0,0 +1,18 @@
+package ro.comanitza.simpletree;
+
+/**
+ *
+ * A source of training elements that can be read several times, for learning from data that does not fit in the heap,
+ * see {@link DecisionTreeImpl#learn(RowSource)}
+ *
+ * Every call of {@link #iterator()} starts a new pass over all the rows, so a source can be as simple as a lambda reopening a file
+ * or a cursor. Every pass must return the same rows, the elements of a pass are not retained by the learner.
+ *
+ * An iterator holding a resource, like an open file, should implement {@link AutoCloseable}, the learner closes it at the end of every pass,
+ * also when the pass fails.
+ *
+ * @author comanitza
+ */
+@FunctionalInterface
+public interface RowSource<T extends Element> extends Iterable<T> {
+}
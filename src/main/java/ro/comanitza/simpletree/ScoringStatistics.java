@@ -0,0 +1,140 @@
+package ro.comanitza.simpletree;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * The latency and the miss rate of the outcomes of a tree, see {@link DecisionTreeImpl.Builder#scoringStatistics(ScoringStatistics)}
+ *
+ * The single lookups ({@code outcome}, {@code predict}, {@code probabilities} and {@code top}) are counted one by one.
+ * A batch ({@code outcomes}) counts all its elements and their misses, every element with the mean latency of the batch.
+ *
+ * The counters are striped ({@link LongAdder}) so concurrent scoring threads do not contend on them. The statistics can be published
+ * as an MXBean with {@link #register(String)}, to be watched with any JMX client.
+ *
+ * @author comanitza
+ */
+public final class ScoringStatistics implements ScoringStatisticsMXBean {
+
+    static final String DOMAIN = "ro.comanitza.simpletree";
+
+    private final LongAdder outcomes = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder latency = new LongAdder();
+    private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+
+    /**
+     *
+     * Count one outcome
+     *
+     * @param nanos the time the outcome took
+     * @param miss true if the lookup did not reach a leaf
+     */
+    void record (final long nanos, final boolean miss) {
+
+        outcomes.increment();
+        latency.add(nanos);
+        maxLatency.accumulate(nanos);
+
+        if (miss) {
+            misses.increment();
+        }
+    }
+
+    /**
+     *
+     * Count the outcomes of a batch
+     *
+     * @param nanos the time the whole batch took
+     * @param count the elements of the batch
+     * @param missed the elements whose lookup did not reach a leaf
+     */
+    void record (final long nanos, final int count, final int missed) {
+
+        if (count == 0) {
+            return;
+        }
+
+        outcomes.add(count);
+        latency.add(nanos);
+        maxLatency.accumulate(nanos / count);
+        misses.add(missed);
+    }
+
+    @Override
+    public long getOutcomes () {
+        return outcomes.sum();
+    }
+
+    @Override
+    public long getMisses () {
+        return misses.sum();
+    }
+
+    @Override
+    public double getMissRate () {
+
+        long count = outcomes.sum();
+
+        return (count == 0) ? 0 : (double) misses.sum() / count;
+    }
+
+    @Override
+    public double getMeanLatencyNanos () {
+
+        long count = outcomes.sum();
+
+        return (count == 0) ? 0 : (double) latency.sum() / count;
+    }
+
+    @Override
+    public long getMaxLatencyNanos () {
+        return maxLatency.get();
+    }
+
+    @Override
+    public void reset () {
+        outcomes.reset();
+        misses.reset();
+        latency.reset();
+        maxLatency.reset();
+    }
+
+    /**
+     *
+     * Publish the statistics in the platform MBean server, as {@code ro.comanitza.simpletree:type=ScoringStatistics,name=<name>}
+     *
+     * @param name the name of the tree, unique among the registered trees
+     * @return the name the statistics are registered with
+     */
+    public ObjectName register (final String name) {
+
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=ScoringStatistics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+
+            return objectName;
+        } catch (JMException e) {
+            throw new RuntimeException("Could not register the scoring statistics " + name, e);
+        }
+    }
+
+    /**
+     *
+     * Remove the statistics from the platform MBean server
+     *
+     * @param objectName the name returned by {@link #register(String)}
+     */
+    public static void unregister (final ObjectName objectName) {
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new RuntimeException("Could not unregister the scoring statistics " + objectName, e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ro.comanitza.simpletree;
+
+/**
+ *
+ * Management interface of the {@link ScoringStatistics}, the latency and the miss rate of the outcomes of a tree
+ *
+ * @author comanitza
+ */
+public interface ScoringStatisticsMXBean {
+
+    /**
+     *
+     * @return the number of elements scored
+     */
+    long getOutcomes ();
+
+    /**
+     *
+     * @return the number of elements whose lookup stopped before a leaf (a value not seen while learning), or that had no outcome
+     */
+    long getMisses ();
+
+    /**
+     *
+     * @return the share of the outcomes that were misses, 0 if nothing was scored
+     */
+    double getMissRate ();
+
+    double getMeanLatencyNanos ();
+
+    long getMaxLatencyNanos ();
+
+    /**
+     *
+     * Start counting again from zero
+     */
+    void reset ();
+}
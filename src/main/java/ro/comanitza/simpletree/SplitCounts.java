@@ -0,0 +1,35 @@
+package ro.comanitza.simpletree;
+
+/**
+ *
+ * Read only view of the branch x class counts of a candidate split, the input of a {@link SplitCriterion}
+ *
+ * A branch is a value (or a side of the threshold) of the split attribute. The counts are filled with a single pass over the rows of a node,
+ * or from its histograms, and are shared by all the criteria.
+ *
+ * @author comanitza
+ */
+public interface SplitCounts {
+
+    int branches ();
+
+    int classes ();
+
+    /**
+     *
+     * @param branch the branch
+     * @param label the class id
+     * @return the rows of the branch of the class
+     */
+    int count (int branch, int label);
+
+    int branchTotal (int branch);
+
+    int classTotal (int label);
+
+    /**
+     *
+     * @return the rows of the node
+     */
+    int total ();
+}
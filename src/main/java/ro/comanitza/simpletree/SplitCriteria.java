@@ -0,0 +1,45 @@
+package ro.comanitza.simpletree;
+
+/**
+ *
+ * The built in {@link SplitCriterion} implementations, computed by the {@link ContingencyTable} kernels
+ *
+ * @author comanitza
+ */
+enum SplitCriteria implements SplitCriterion {
+
+    GINI {
+        @Override
+        double score (final ContingencyTable table) {
+            return table.giniGain();
+        }
+    },
+
+    ENTROPY {
+        @Override
+        double score (final ContingencyTable table) {
+            return table.informationGain();
+        }
+    },
+
+    GAIN_RATIO {
+        @Override
+        double score (final ContingencyTable table) {
+            return table.gainRatio();
+        }
+    },
+
+    CHI_SQUARE {
+        @Override
+        double score (final ContingencyTable table) {
+            return table.chiSquare();
+        }
+    };
+
+    abstract double score (ContingencyTable table);
+
+    @Override
+    public double score (final SplitCounts counts) {
+        return score((counts instanceof ContingencyTable) ? (ContingencyTable) counts : ContingencyTable.of(counts));
+    }
+}
@@ -0,0 +1,42 @@
+package ro.comanitza.simpletree;
+
+/**
+ *
+ * Scores the candidate splits of a node, the learners keep the split with the highest score
+ *
+ * The score is computed from the {@link SplitCounts} of the split only, so every criterion costs the same passes over the data.
+ * {@link DecisionTreeImpl.Builder#minImpurityDecrease(double)} is compared to the score of the best split, weighted by the share of the rows of the node.
+ * A criterion must be thread safe, the candidates are scored concurrently in parallel mode.
+ *
+ * @author comanitza
+ */
+@FunctionalInterface
+public interface SplitCriterion {
+
+    /**
+     * the decrease of the Gini index, the default
+     */
+    SplitCriterion GINI = SplitCriteria.GINI;
+
+    /**
+     * the decrease of the entropy, in bits (information gain)
+     */
+    SplitCriterion ENTROPY = SplitCriteria.ENTROPY;
+
+    /**
+     * the information gain divided by the entropy of the branch sizes, penalizes the attributes with many values
+     */
+    SplitCriterion GAIN_RATIO = SplitCriteria.GAIN_RATIO;
+
+    /**
+     * the chi-square statistic of the independence of the branches and the classes
+     */
+    SplitCriterion CHI_SQUARE = SplitCriteria.CHI_SQUARE;
+
+    /**
+     *
+     * @param counts the branch x class counts of the split
+     * @return the score of the split, the higher the better
+     */
+    double score (SplitCounts counts);
+}
@@ -0,0 +1,452 @@
+package ro.comanitza.simpletree;
+
+import java.util.*;
+
+/**
+ *
+ * Grows a decision tree level by level from a {@link RowSource}, with one pass over the rows per level
+ *
+ * The first pass builds the dictionaries of the nominal attributes and keeps a fixed size reservoir sample of every numeric attribute,
+ * whose quantiles become the candidate thresholds. Every following pass routes each row through the tree grown so far to its open node
+ * and adds it to the bin x class histograms of that node, like in the {@link HistogramTreeLearner}. At the end of the pass all the open nodes
+ * are split from their histograms and their children, unless pure or stopped by the depth and size limits, are the open nodes of the next pass.
+ *
+ * The memory depends on the dictionaries and on the number of open nodes of a level, never on the number of rows.
+ * The passes are sequential, the parallel settings are not used.
+ *
+ * @author comanitza
+ */
+final class StreamingTreeLearner {
+
+    static final int DEFAULT_BINS = 256;
+
+    /*
+     * the reservoir of a numeric attribute holds this many values per bin
+     */
+    private static final int SAMPLES_PER_BIN = 64;
+
+    private final LearnerSettings settings;
+    private final int maxBins;
+
+    private ElementSchema schema;
+    private Dictionary[] dictionaries;
+    private final Dictionary classes = new Dictionary();
+    private int totalRows;
+
+    /*
+     * per numeric attribute, the candidate thresholds in increasing order, bin b holds the values in (thresholds[b - 1], thresholds[b]]
+     */
+    private double[][] thresholds;
+
+    /*
+     * the encoded current row, the bin of every attribute and the raw values of the numeric ones
+     */
+    private int[] bins;
+    private double[] values;
+
+    StreamingTreeLearner (final LearnerSettings settings) {
+        this.settings = settings;
+        this.maxBins = (settings.maxBins > 0) ? settings.maxBins : DEFAULT_BINS;
+    }
+
+    /**
+     *
+     * Grow the tree
+     *
+     * @param source the rows
+     * @return the root node, null if the source has no rows
+     */
+    Node grow (final Iterable<? extends Element> source) {
+
+        if (!scan(source)) {
+            return null;
+        }
+
+        Node root = new Node();
+        List<OpenNode> frontier = Collections.singletonList(new OpenNode(root, TreeLearner.identity(schema.attributeCount()), 0));
+
+        ContingencyTable table = new ContingencyTable(0, classes.size());
+
+        while (!frontier.isEmpty()) {
+
+            count(source, root, frontier);
+
+            List<OpenNode> next = new ArrayList<>();
+
+            for (OpenNode open: frontier) {
+                split(open, next, table);
+            }
+
+            frontier = next;
+        }
+
+        return root;
+    }
+
+    /**
+     *
+     * First pass, collect the dictionaries and the candidate thresholds
+     *
+     * @return false if there are no rows
+     */
+    private boolean scan (final Iterable<? extends Element> source) {
+
+        double[][] reservoirs = null;
+        long[] seen = null;
+        int capacity = maxBins * SAMPLES_PER_BIN;
+        SplittableRandom random = new SplittableRandom(0);
+
+        Iterator<? extends Element> rows = source.iterator();
+
+        try {
+
+            while (rows.hasNext()) {
+
+                Element e = rows.next();
+
+                if (schema == null) {
+                    init(e);
+                    reservoirs = new double[schema.attributeCount()][];
+                    seen = new long[schema.attributeCount()];
+                }
+
+                for (int a = 0; a < schema.attributeCount(); a++) {
+
+                    if (!schema.isNumeric(a)) {
+                        dictionaries[a].add(schema.value(a, e));
+                        continue;
+                    }
+
+                    double value = schema.numericValue(a, e);
+
+                    /*
+                     * NaN values are not sampled, they always go to the upper branch
+                     */
+                    if (Double.isNaN(value)) {
+                        continue;
+                    }
+
+                    if (reservoirs[a] == null) {
+                        reservoirs[a] = new double[capacity];
+                    }
+
+                    long n = seen[a]++;
+
+                    if (n < capacity) {
+                        reservoirs[a][(int) n] = value;
+                    } else {
+
+                        long slot = random.nextLong(n + 1);
+
+                        if (slot < capacity) {
+                            reservoirs[a][(int) slot] = value;
+                        }
+                    }
+                }
+
+                classes.add(schema.classValue(e));
+                totalRows++;
+            }
+        } finally {
+            close(rows);
+        }
+
+        if (schema == null) {
+            return false;
+        }
+
+        for (int a = 0; a < schema.attributeCount(); a++) {
+
+            if (schema.isNumeric(a)) {
+                thresholds[a] = (reservoirs[a] == null) ? new double[0] : quantiles(reservoirs[a], (int) Math.min(seen[a], capacity));
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     *
+     * Close the iterator of a pass if it holds a resource, see {@link RowSource}
+     */
+    private static void close (final Iterator<?> rows) {
+
+        if (rows instanceof AutoCloseable) {
+
+            try {
+                ((AutoCloseable) rows).close();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException("Could not close the rows of a pass", e);
+            }
+        }
+    }
+
+    private void init (final Element first) {
+
+        schema = ElementSchema.of(first.getClass());
+
+        if (!schema.classFieldName().isPresent()) {
+            throw new RuntimeException("Provided class " + first.getClass() + " is missing class field.");
+        }
+
+        dictionaries = new Dictionary[schema.attributeCount()];
+        thresholds = new double[schema.attributeCount()][];
+        bins = new int[schema.attributeCount()];
+        values = new double[schema.attributeCount()];
+
+        for (int a = 0; a < dictionaries.length; a++) {
+            dictionaries[a] = new Dictionary();
+        }
+    }
+
+    /**
+     *
+     * @return the distinct maxBins - 1 quantiles of a sample
+     */
+    private double[] quantiles (final double[] sample, final int size) {
+
+        double[] sorted = Arrays.copyOf(sample, size);
+        Arrays.sort(sorted);
+
+        double[] quantiles = new double[maxBins - 1];
+        int count = 0;
+
+        for (int q = 1; q < maxBins && size > 0; q++) {
+
+            double value = sorted[(int) ((long) q * (size - 1) / (maxBins - 1))];
+
+            if (count == 0 || value > quantiles[count - 1]) {
+                quantiles[count++] = value;
+            }
+        }
+
+        return Arrays.copyOf(quantiles, count);
+    }
+
+    /**
+     *
+     * One pass, add every row to the histograms of its open node
+     */
+    private void count (final Iterable<? extends Element> source, final Node root, final List<OpenNode> frontier) {
+
+        Map<Node, OpenNode> open = new IdentityHashMap<>();
+
+        for (OpenNode node: frontier) {
+            open.put(node.node, node);
+            node.allocate();
+        }
+
+        Iterator<? extends Element> rows = source.iterator();
+
+        try {
+
+            while (rows.hasNext()) {
+
+                Element e = rows.next();
+
+                int label = classes.code(schema.classValue(e));
+
+                if (label < 0 || !encode(e)) {
+                    continue;
+                }
+
+                Node node = root;
+
+                while (node != null && node.getAttribute() >= 0) {
+
+                    int attribute = node.getAttribute();
+
+                    node = node.getChildren()[schema.isNumeric(attribute) ? ((values[attribute] <= node.getThreshold()) ? 0 : 1) : bins[attribute]];
+                }
+
+                OpenNode target = (node == null) ? null : open.get(node);
+
+                if (target == null) {
+                    continue;
+                }
+
+                target.classCounts[label]++;
+
+                for (int attribute: target.candidates) {
+                    target.histograms[attribute][bins[attribute] * classes.size() + label]++;
+                }
+            }
+        } finally {
+            close(rows);
+        }
+    }
+
+    /**
+     *
+     * @return false if the row has a value unknown to the dictionaries, the source changed since the first pass
+     */
+    private boolean encode (final Element e) {
+
+        for (int a = 0; a < bins.length; a++) {
+
+            if (schema.isNumeric(a)) {
+
+                values[a] = schema.numericValue(a, e);
+
+                /*
+                 * the first threshold greater or equal to the value, NaN goes after all of them
+                 */
+                int index = Arrays.binarySearch(thresholds[a], values[a]);
+                bins[a] = (index >= 0) ? index : -index - 1;
+            } else {
+
+                bins[a] = dictionaries[a].code(schema.value(a, e));
+
+                if (bins[a] < 0) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     *
+     * Turn an open node into a leaf or a split, the open children are added to the next frontier
+     */
+    private void split (final OpenNode open, final List<OpenNode> next, final ContingencyTable table) {
+
+        /*
+         * the node is a leaf until it is split
+         */
+        open.node.setCounts(open.classCounts);
+
+        int rows = open.node.getRows();
+
+        if (TreeLearner.isPure(open.classCounts) || settings.stops(rows, open.depth)) {
+            settings.listener.node(open.depth, rows, 0, 0, 0);
+            return;
+        }
+
+        long start = System.nanoTime();
+        InformationGainPair best = null;
+
+        for (int attribute: open.candidates) {
+            best = TreeLearner.better(best, HistogramTreeLearner.calculateInformationGain(attribute, open.histograms[attribute], binCount(attribute), thresholds[attribute],
+                    settings, table));
+        }
+
+        long scoredAt = System.nanoTime();
+
+        if (best == null || !settings.decreases(best, rows, totalRows)) {
+            settings.listener.node(open.depth, rows, open.candidates.length, scoredAt - start, 0);
+            return;
+        }
+
+        int attribute = best.getAttribute();
+        int[] histogram = open.histograms[attribute];
+        int classCount = classes.size();
+
+        /*
+         * the class counts of the children come from the histogram of the split attribute, so the pure and the stopped children are closed without another pass
+         */
+        int[][] childCounts;
+
+        if (schema.isNumeric(attribute)) {
+
+            int splitBin = Arrays.binarySearch(thresholds[attribute], best.getThreshold());
+            childCounts = new int[2][classCount];
+
+            for (int bin = 0; bin < binCount(attribute); bin++) {
+
+                for (int c = 0; c < classCount; c++) {
+                    childCounts[(bin <= splitBin) ? 0 : 1][c] += histogram[bin * classCount + c];
+                }
+            }
+        } else {
+
+            childCounts = new int[binCount(attribute)][];
+
+            for (int bin = 0; bin < childCounts.length; bin++) {
+                childCounts[bin] = Arrays.copyOfRange(histogram, bin * classCount, (bin + 1) * classCount);
+            }
+        }
+
+        int[] remaining = schema.isNumeric(attribute) ? open.candidates : TreeLearner.without(open.candidates, attribute);
+        Node[] children = new Node[childCounts.length];
+
+        for (int branch = 0; branch < children.length; branch++) {
+
+            int childRows = Arrays.stream(childCounts[branch]).sum();
+
+            if (childRows == 0) {
+                continue;
+            }
+
+            if (TreeLearner.isPure(childCounts[branch]) || settings.stops(childRows, open.depth + 1)) {
+                settings.listener.node(open.depth + 1, childRows, 0, 0, 0);
+                children[branch] = TreeLearner.leaf(childCounts[branch]);
+            } else {
+                children[branch] = new Node();
+                next.add(new OpenNode(children[branch], remaining, open.depth + 1));
+            }
+        }
+
+        open.node.setAttribute(attribute);
+        open.node.setThreshold(best.getThreshold());
+        open.node.setChildren(children);
+
+        /*
+         * the rows are partitioned by the next pass, the partition time is the derivation of the children counts
+         */
+        settings.listener.node(open.depth, rows, open.candidates.length, scoredAt - start, System.nanoTime() - scoredAt);
+    }
+
+    private int binCount (final int attribute) {
+        return schema.isNumeric(attribute) ? thresholds[attribute].length + 1 : dictionaries[attribute].size();
+    }
+
+    ElementSchema getSchema () {
+        return schema;
+    }
+
+    Dictionary[] dictionaries () {
+        return dictionaries;
+    }
+
+    Dictionary classes () {
+        return classes;
+    }
+
+    /**
+     *
+     * A node of the current level, waiting for the counts of its rows
+     */
+    private final class OpenNode {
+
+        private final Node node;
+        private final int[] candidates;
+        private final int depth;
+
+        private int[] classCounts;
+        private int[][] histograms;
+
+        OpenNode (final Node node, final int[] candidates, final int depth) {
+            this.node = node;
+            this.candidates = candidates;
+            this.depth = depth;
+        }
+
+        /**
+         *
+         * Allocate the histograms only for the pass that needs them
+         */
+        void allocate () {
+
+            classCounts = new int[classes.size()];
+            histograms = new int[schema.attributeCount()][];
+
+            for (int attribute: candidates) {
+                histograms[attribute] = new int[binCount(attribute) * classes.size()];
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ro.comanitza.simpletree;
+
+/**
+ *
+ * Receives the progress of a learning, see {@link DecisionTreeImpl.Builder#listener(TrainingListener)} and {@link RandomForest.Builder#listener(TrainingListener)}
+ *
+ * All the methods do nothing by default. In a parallel learning, and for the trees of a forest, they are called concurrently from the pool threads,
+ * so the implementations must be thread safe and should be cheap, they run inside the learning.
+ *
+ * @author comanitza
+ */
+public interface TrainingListener {
+
+    /**
+     * the listener of the learnings with no listener
+     */
+    TrainingListener NONE = new TrainingListener() {};
+
+    /**
+     *
+     * The elements were encoded in the columnar copy the learners work on
+     *
+     * @param rows the number of elements
+     * @param attributes the number of attributes
+     * @param nanos the time spent reading and encoding the elements
+     */
+    default void encoded (final int rows, final int attributes, final long nanos) {}
+
+    /**
+     *
+     * A node was grown, called for the leaves as well as for the split nodes
+     *
+     * @param depth the depth of the node, 0 for the root
+     * @param rows the rows of the node, evaluated by every scored attribute and moved when the node is split
+     * @param scored the number of candidate attributes scored, 0 if the node was a leaf without scoring (pure or stopped)
+     * @param scoreNanos the time spent scoring the candidates
+     * @param partitionNanos the time spent partitioning the rows between the children (and counting their histograms in histogram mode), 0 for a leaf
+     */
+    default void node (final int depth, final int rows, final int scored, final long scoreNanos, final long partitionNanos) {}
+
+    /**
+     *
+     * A tree was learned, after pruning
+     *
+     * @param statistics the statistics of the tree
+     */
+    default void learned (final TreeStatistics statistics) {}
+}
@@ -0,0 +1,909 @@
+package ro.comanitza.simpletree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Turns a {@link CompiledDecisionTree} into bytecode, one class per tree, so the lookup is straight line code the JIT can inline
+ *
+ * Every split becomes a few instructions: a numeric split compares the value with the threshold as a constant, a nominal split
+ * is a {@code tableswitch} (or a {@code lookupswitch} for sparse codes) on the dictionary code of the value, with a case for the codes
+ * having a child only, so the switch of a compacted node grows with its children and not with the dictionary of its attribute.
+ * A leaf, or a missing branch, returns the number of the node in the compiled tree, which gives the label, the confidence and the probabilities.
+ *
+ * The JIT does not compile huge methods nor inline big ones, so the code of a tree is cut in small static methods of at most
+ * {@value #METHOD_BUDGET} bytes, every method growing a part of the tree breadth first and calling the methods of the sub trees that did not fit.
+ * A nominal split with too many branches for that budget calls a switch method with the code of the value, cut in ranges of at most
+ * {@value #SWITCH_CHUNK} branches, so a method never comes close to the class file limits whatever the number of values of an attribute.
+ *
+ * The constant pool, the methods and the code of a method are checked against the class file limits. A tree too big for them
+ * is not generated, see {@link #generate(CompiledDecisionTree)}.
+ *
+ * The class is defined in this package, it reads the values through the package private {@link ElementSchema} and {@link Dictionary}.
+ * On a runtime with hidden classes (Java 15+) the class is hidden and is unloaded with the tree, otherwise it is a regular class of the loader of this library.
+ *
+ * The generator writes the class file itself, the library has no dependency. Only the empty operand stack and the same locals are ever live
+ * at a branch target, so the stack map frames are all "same" frames.
+ *
+ * @author comanitza
+ */
+final class TreeClassGenerator {
+
+    /*
+     * the bytes of code of a method above which the sub trees go to methods of their own, below the JIT inlining limit of hot methods
+     */
+    static final int METHOD_BUDGET = 300;
+
+    /*
+     * the most branches a switch method dispatches, more are cut in ranges first. Keeps the switch methods under the JIT huge method limit
+     */
+    static final int SWITCH_CHUNK = 256;
+
+    /*
+     * the limit of the constant pool entries, of the methods and of the bytes of code of a method
+     */
+    private static final int CLASS_FILE_LIMIT = 65535;
+
+    private static final String PACKAGE = TreeClassGenerator.class.getPackage().getName().replace('.', '/');
+    private static final String SCHEMA = PACKAGE + "/ElementSchema";
+    private static final String DICTIONARY = PACKAGE + "/Dictionary";
+    private static final String ELEMENT = PACKAGE + "/Element";
+    private static final String LOOKUP = PACKAGE + "/TreeClassGenerator$NodeLookup";
+    private static final String NODE_DESCRIPTOR = "(L" + SCHEMA + ";[L" + DICTIONARY + ";L" + ELEMENT + ";)I";
+    private static final String SWITCH_DESCRIPTOR = "(L" + SCHEMA + ";[L" + DICTIONARY + ";L" + ELEMENT + ";I)I";
+
+    private static final AtomicLong CLASSES = new AtomicLong();
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD_3 = 0x1d;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int AALOAD = 0x32;
+    private static final int DCMPG = 0x98;
+    private static final int IFGT = 0x9d;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int GOTO = 0xa7;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    /**
+     *
+     * Implemented by the generated classes
+     */
+    interface NodeLookup {
+
+        /**
+         *
+         * @param schema the schema of the learned type
+         * @param dictionaries the dictionaries of the tree, indexed by attribute
+         * @param element the element to query for
+         * @return the number of the leaf reached by the element, or of the inner node where the lookup stopped
+         */
+        int node (ElementSchema schema, Dictionary[] dictionaries, Element element);
+    }
+
+    private final CompiledDecisionTree<?> tree;
+    private final int[] attributes;
+    private final double[] thresholds;
+
+    /*
+     * per inner node, the increasing codes of the branches with a child and the child of each of them
+     */
+    private final int[][] branchCodes;
+    private final int[][] branchChildren;
+
+    private final String className;
+    private final ConstantPool pool = new ConstantPool();
+
+    /*
+     * the node of every generated static method, in method order
+     */
+    private final List<Integer> methodNodes = new ArrayList<>();
+    private final Map<Integer, Integer> methodOfNode = new HashMap<>();
+
+    /*
+     * the node and the [low, high) range of branches of every generated switch method, in method order
+     */
+    private final List<int[]> switchRanges = new ArrayList<>();
+
+    private TreeClassGenerator (final CompiledDecisionTree<?> tree) {
+        this.tree = tree;
+        this.attributes = tree.attributes();
+        this.thresholds = tree.thresholds();
+        this.branchCodes = new int[attributes.length][];
+        this.branchChildren = new int[attributes.length][];
+        this.className = PACKAGE + "/GeneratedTree" + CLASSES.incrementAndGet();
+
+        int[] children = tree.children();
+
+        for (int node = 0; node < attributes.length; node++) {
+
+            if (attributes[node] < 0) {
+                continue;
+            }
+
+            int offset = tree.childOffsets()[node];
+            int count = tree.childCounts()[node];
+
+            if (count < 0) {
+                branchCodes[node] = Arrays.copyOfRange(children, offset, offset - count);
+                branchChildren[node] = Arrays.copyOfRange(children, offset - count, offset - 2 * count);
+                continue;
+            }
+
+            int[] codes = new int[count];
+            int[] nodeChildren = new int[count];
+            int size = 0;
+
+            for (int code = 0; code < count; code++) {
+
+                if (children[offset + code] >= 0) {
+                    codes[size] = code;
+                    nodeChildren[size++] = children[offset + code];
+                }
+            }
+
+            branchCodes[node] = Arrays.copyOf(codes, size);
+            branchChildren[node] = Arrays.copyOf(nodeChildren, size);
+        }
+    }
+
+    /**
+     *
+     * Generate and load the class of a tree
+     *
+     * @param tree the compiled tree
+     * @return the lookup running the generated code, null if the tree does not fit in the limits of a class file
+     */
+    static NodeLookup generate (final CompiledDecisionTree<?> tree) {
+
+        byte[] bytes;
+
+        try {
+            bytes = new TreeClassGenerator(tree).classFile();
+        } catch (TooLargeException e) {
+            return null;
+        }
+
+        try {
+            Class<?> type = define(bytes);
+
+            return (NodeLookup) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Failed to load the generated tree", e);
+        }
+    }
+
+    /**
+     *
+     * Define the class as a hidden class if the runtime has them, through reflection as the library targets Java 9
+     */
+    private static Class<?> define (final byte[] bytes) throws ReflectiveOperationException {
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Class<?> optionType;
+
+        try {
+            optionType = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+        } catch (ClassNotFoundException e) {
+            return lookup.defineClass(bytes);
+        }
+
+        Method defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, Array.newInstance(optionType, 0).getClass());
+
+        return ((MethodHandles.Lookup) defineHiddenClass.invoke(lookup, bytes, true, Array.newInstance(optionType, 0))).lookupClass();
+    }
+
+    private byte[] classFile () {
+
+        int thisClass = pool.type(className);
+        int superClass = pool.type("java/lang/Object");
+        int lookupInterface = pool.type(LOOKUP);
+
+        List<byte[]> methods = new ArrayList<>();
+
+        methods.add(constructor(superClass));
+        methods.add(nodeMethod(thisClass));
+
+        methodNode(0);
+
+        /*
+         * the tree methods and the switch methods create each other on first use
+         */
+        int treeMethods = 0;
+        int switchMethods = 0;
+
+        while (treeMethods < methodNodes.size() || switchMethods < switchRanges.size()) {
+
+            if (treeMethods < methodNodes.size()) {
+                methods.add(treeMethod(thisClass, treeMethods++));
+            } else {
+                methods.add(switchMethod(thisClass, switchMethods++));
+            }
+        }
+
+        if (methods.size() > CLASS_FILE_LIMIT || pool.next > CLASS_FILE_LIMIT) {
+            throw new TooLargeException();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(53);
+            pool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(lookupInterface);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+
+            for (byte[] method: methods) {
+                out.write(method);
+            }
+
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private byte[] constructor (final int superClass) {
+
+        Code code = new Code();
+
+        code.op(ALOAD_0);
+        code.op(INVOKESPECIAL);
+        code.u2(pool.method(superClass, "<init>", "()V"));
+        code.op(RETURN);
+
+        return method(ACC_PUBLIC, "<init>", "()V", code, 1, 1);
+    }
+
+    /**
+     *
+     * The interface method, calling the method of the root
+     */
+    private byte[] nodeMethod (final int thisClass) {
+
+        Code code = new Code();
+
+        code.op(ALOAD_0 + 1);
+        code.op(ALOAD_0 + 2);
+        code.op(ALOAD_0 + 3);
+        code.op(INVOKESTATIC);
+        code.u2(pool.method(thisClass, methodName(0), NODE_DESCRIPTOR));
+        code.op(IRETURN);
+
+        return method(ACC_PUBLIC, "node", NODE_DESCRIPTOR, code, 3, 4);
+    }
+
+    /**
+     *
+     * @return the index of the method growing the sub tree of a node, created on first use
+     */
+    private int methodNode (final int node) {
+
+        Integer method = methodOfNode.get(node);
+
+        if (method == null) {
+            method = methodNodes.size();
+            methodNodes.add(node);
+            methodOfNode.put(node, method);
+        }
+
+        return method;
+    }
+
+    private static String methodName (final int method) {
+        return "tree" + method;
+    }
+
+    /**
+     *
+     * @return the index of a new switch method, dispatching a range of branches of a nominal node
+     */
+    private int switchMethod (final int node, final int low, final int high) {
+        switchRanges.add(new int[] {node, low, high});
+        return switchRanges.size() - 1;
+    }
+
+    private static String switchName (final int method) {
+        return "branch" + method;
+    }
+
+    /**
+     *
+     * @return true if the branches of a nominal node go to a switch method, their switch and their leaves do not fit in the budget
+     */
+    private boolean isWide (final int node) {
+        return !tree.schema().isNumeric(attributes[node]) && 32 + 12 * branchCodes[node].length > METHOD_BUDGET;
+    }
+
+    /**
+     *
+     * Generate the static method of a sub tree, locals: 0 the schema, 1 the dictionaries, 2 the element
+     */
+    private byte[] treeMethod (final int thisClass, final int method) {
+
+        Code code = new Code();
+        int root = methodNodes.get(method);
+
+        /*
+         * the nodes inlined in this method and their labels, emitted breadth first
+         */
+        Map<Integer, Label> inlined = new HashMap<>();
+        Map<Integer, Label> calls = new HashMap<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        int planned = size(root);
+
+        inlined.put(root, new Label());
+        pending.add(root);
+
+        while (!pending.isEmpty()) {
+
+            int node = pending.poll();
+            int attribute = attributes[node];
+
+            code.bind(inlined.get(node));
+
+            if (attribute < 0) {
+                pushInt(code, node);
+                code.op(IRETURN);
+                continue;
+            }
+
+            if (isWide(node)) {
+                code.op(ALOAD_0);
+                code.op(ALOAD_0 + 1);
+                code.op(ALOAD_0 + 2);
+                pushCode(code, attribute);
+                code.op(INVOKESTATIC);
+                code.u2(pool.method(thisClass, switchName(switchMethod(node, 0, branchCodes[node].length)), SWITCH_DESCRIPTOR));
+                code.op(IRETURN);
+                continue;
+            }
+
+            Label stop = new Label();
+            Label[] targets = new Label[branchCodes[node].length];
+
+            for (int branch = 0; branch < targets.length; branch++) {
+
+                int child = branchChildren[node][branch];
+
+                if (inlined.containsKey(child)) {
+                    targets[branch] = inlined.get(child);
+                } else if (attributes[child] < 0 || (!methodOfNode.containsKey(child) && planned + size(child) <= METHOD_BUDGET)) {
+                    planned += size(child);
+                    targets[branch] = new Label();
+                    inlined.put(child, targets[branch]);
+                    pending.add(child);
+                } else {
+                    targets[branch] = calls.computeIfAbsent(child, (c) -> new Label());
+                }
+            }
+
+            if (tree.schema().isNumeric(attribute)) {
+
+                Label lower = stop;
+                Label upper = stop;
+
+                for (int branch = 0; branch < targets.length; branch++) {
+
+                    if (branchCodes[node][branch] == 0) {
+                        lower = targets[branch];
+                    } else {
+                        upper = targets[branch];
+                    }
+                }
+
+                code.op(ALOAD_0);
+                pushInt(code, attribute);
+                code.op(ALOAD_0 + 2);
+                code.op(INVOKEVIRTUAL);
+                code.u2(pool.method(pool.type(SCHEMA), "numericValue", "(IL" + ELEMENT + ";)D"));
+                code.op(LDC2_W);
+                code.u2(pool.number(thresholds[node]));
+
+                /*
+                 * NaN compares greater, it goes to the upper branch like in the compiled tree
+                 */
+                code.op(DCMPG);
+                code.jump(IFGT, upper);
+                code.jump(GOTO, lower);
+            } else {
+
+                pushCode(code, attribute);
+                code.switchOn(branchCodes[node], targets, stop);
+            }
+
+            if (stop.used) {
+                code.bind(stop);
+                pushInt(code, node);
+                code.op(IRETURN);
+            }
+        }
+
+        for (Map.Entry<Integer, Label> call: calls.entrySet()) {
+            code.bind(call.getValue());
+            callTree(code, thisClass, call.getKey());
+        }
+
+        return method(ACC_PRIVATE | ACC_STATIC, methodName(method), NODE_DESCRIPTOR, code, 7, 3);
+    }
+
+    /**
+     *
+     * Generate a switch method, dispatching a range of branches of a wide nominal node to their children.
+     * Locals: 0 the schema, 1 the dictionaries, 2 the element, 3 the code of the value
+     */
+    private byte[] switchMethod (final int thisClass, final int method) {
+
+        Code code = new Code();
+        int[] range = switchRanges.get(method);
+        int node = range[0];
+        int low = range[1];
+        int high = range[2];
+
+        if (high - low > SWITCH_CHUNK) {
+
+            /*
+             * halve the range, the codes out of the range of the node end in the default of a switch
+             */
+            int middle = (low + high) >>> 1;
+            Label upper = new Label();
+
+            code.op(ILOAD_3);
+            pushInt(code, branchCodes[node][middle]);
+            code.jump(IF_ICMPGE, upper);
+            callSwitch(code, thisClass, switchMethod(node, low, middle));
+            code.bind(upper);
+            callSwitch(code, thisClass, switchMethod(node, middle, high));
+
+            return method(ACC_PRIVATE | ACC_STATIC, switchName(method), SWITCH_DESCRIPTOR, code, 4, 4);
+        }
+
+        Label stop = new Label();
+        Label[] targets = new Label[high - low];
+
+        /*
+         * the codes folded in the same bin share their child, and its code
+         */
+        Map<Integer, Label> leaves = new HashMap<>();
+        Map<Integer, Label> calls = new HashMap<>();
+
+        for (int branch = low; branch < high; branch++) {
+
+            int child = branchChildren[node][branch];
+
+            if (attributes[child] < 0) {
+                targets[branch - low] = leaves.computeIfAbsent(child, (c) -> new Label());
+            } else {
+                targets[branch - low] = calls.computeIfAbsent(child, (c) -> new Label());
+            }
+        }
+
+        code.op(ILOAD_3);
+        code.switchOn(Arrays.copyOfRange(branchCodes[node], low, high), targets, stop);
+
+        for (Map.Entry<Integer, Label> leaf: leaves.entrySet()) {
+            code.bind(leaf.getValue());
+            pushInt(code, leaf.getKey());
+            code.op(IRETURN);
+        }
+
+        for (Map.Entry<Integer, Label> call: calls.entrySet()) {
+            code.bind(call.getValue());
+            callTree(code, thisClass, call.getKey());
+        }
+
+        if (stop.used) {
+            code.bind(stop);
+            pushInt(code, node);
+            code.op(IRETURN);
+        }
+
+        return method(ACC_PRIVATE | ACC_STATIC, switchName(method), SWITCH_DESCRIPTOR, code, 3, 4);
+    }
+
+    /**
+     *
+     * Return the result of the tree method of a node
+     */
+    private void callTree (final Code code, final int thisClass, final int node) {
+        code.op(ALOAD_0);
+        code.op(ALOAD_0 + 1);
+        code.op(ALOAD_0 + 2);
+        code.op(INVOKESTATIC);
+        code.u2(pool.method(thisClass, methodName(methodNode(node)), NODE_DESCRIPTOR));
+        code.op(IRETURN);
+    }
+
+    /**
+     *
+     * Return the result of a switch method, for the code of the current one
+     */
+    private void callSwitch (final Code code, final int thisClass, final int method) {
+        code.op(ALOAD_0);
+        code.op(ALOAD_0 + 1);
+        code.op(ALOAD_0 + 2);
+        code.op(ILOAD_3);
+        code.op(INVOKESTATIC);
+        code.u2(pool.method(thisClass, switchName(method), SWITCH_DESCRIPTOR));
+        code.op(IRETURN);
+    }
+
+    /**
+     *
+     * Push the dictionary code of the value of a nominal attribute
+     */
+    private void pushCode (final Code code, final int attribute) {
+        code.op(ALOAD_0 + 1);
+        pushInt(code, attribute);
+        code.op(AALOAD);
+        code.op(ALOAD_0);
+        pushInt(code, attribute);
+        code.op(ALOAD_0 + 2);
+        code.op(INVOKEVIRTUAL);
+        code.u2(pool.method(pool.type(SCHEMA), "value", "(IL" + ELEMENT + ";)Ljava/lang/String;"));
+        code.op(INVOKEVIRTUAL);
+        code.u2(pool.method(pool.type(DICTIONARY), "code", "(Ljava/lang/String;)I"));
+    }
+
+    /**
+     *
+     * @return the estimated bytes of code of a node
+     */
+    private int size (final int node) {
+
+        if (attributes[node] < 0) {
+            return 4;
+        }
+
+        if (tree.schema().isNumeric(attributes[node])) {
+            return 24;
+        }
+
+        return isWide(node) ? 24 : 32 + 8 * branchCodes[node].length;
+    }
+
+    private void pushInt (final Code code, final int value) {
+
+        if (value >= -1 && value <= 5) {
+            code.op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.op(BIPUSH);
+            code.u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.op(SIPUSH);
+            code.u2(value);
+        } else {
+            code.op(LDC_W);
+            code.u2(pool.number(value));
+        }
+    }
+
+    private byte[] method (final int access, final String name, final String descriptor, final Code code, final int maxStack, final int maxLocals) {
+
+        byte[] bytecode = code.resolve();
+        byte[] frames = code.frames();
+
+        if (bytecode.length > CLASS_FILE_LIMIT) {
+            throw new TooLargeException();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+
+            out.writeShort(access);
+            out.writeShort(pool.utf8(name));
+            out.writeShort(pool.utf8(descriptor));
+            out.writeShort(1);
+
+            out.writeShort(pool.utf8("Code"));
+            out.writeInt(12 + bytecode.length + ((frames == null) ? 0 : 6 + frames.length));
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(0);
+
+            if (frames == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(pool.utf8("StackMapTable"));
+                out.writeInt(frames.length);
+                out.write(frames);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     *
+     * A branch target, bound to an offset of the code
+     */
+    private static final class Label {
+
+        private int offset = -1;
+        private boolean used;
+    }
+
+    /**
+     *
+     * The code of a method, the jumps to the labels are patched once all of them are bound
+     */
+    private static final class Code {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /*
+         * per jump: the offset of the instruction, the offset of the operand, its width, and the label
+         */
+        private final List<int[]> jumps = new ArrayList<>();
+        private final List<Label> jumpLabels = new ArrayList<>();
+        private final List<Label> bound = new ArrayList<>();
+
+        void op (final int opcode) {
+            bytes.write(opcode);
+        }
+
+        void u1 (final int value) {
+            bytes.write(value);
+        }
+
+        void u2 (final int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+        }
+
+        void u4 (final int value) {
+            u2(value >>> 16);
+            u2(value & 0xFFFF);
+        }
+
+        void bind (final Label label) {
+            label.offset = bytes.size();
+            bound.add(label);
+        }
+
+        void jump (final int opcode, final Label label) {
+
+            int at = bytes.size();
+
+            op(opcode);
+            reference(at, 2, label);
+            u2(0);
+        }
+
+        /**
+         *
+         * Switch on the int on the stack, a tableswitch if the codes are dense enough, a lookupswitch otherwise
+         *
+         * @param codes the increasing codes of the cases
+         * @param targets the target of every case
+         * @param otherwise the target of the other codes
+         */
+        void switchOn (final int[] codes, final Label[] targets, final Label otherwise) {
+
+            int count = codes.length;
+            int at = bytes.size();
+            boolean table = count > 0 && codes[count - 1] - codes[0] + 1 <= 2 * count + 4;
+
+            op(table ? TABLESWITCH : LOOKUPSWITCH);
+
+            while (bytes.size() % 4 != 0) {
+                u1(0);
+            }
+
+            reference(at, 4, otherwise);
+            u4(0);
+
+            if (table) {
+
+                u4(codes[0]);
+                u4(codes[count - 1]);
+
+                for (int code = codes[0], i = 0; code <= codes[count - 1]; code++) {
+                    reference(at, 4, (codes[i] == code) ? targets[i++] : otherwise);
+                    u4(0);
+                }
+
+                return;
+            }
+
+            u4(count);
+
+            for (int i = 0; i < count; i++) {
+                u4(codes[i]);
+                reference(at, 4, targets[i]);
+                u4(0);
+            }
+        }
+
+        private void reference (final int instruction, final int width, final Label label) {
+            label.used = true;
+            jumps.add(new int[] {instruction, bytes.size(), width});
+            jumpLabels.add(label);
+        }
+
+        byte[] resolve () {
+
+            byte[] code = bytes.toByteArray();
+
+            for (int j = 0; j < jumps.size(); j++) {
+
+                int[] jump = jumps.get(j);
+                int offset = jumpLabels.get(j).offset - jump[0];
+
+                if (jump[2] == 2 && (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)) {
+                    throw new TooLargeException();
+                }
+
+                for (int b = 0; b < jump[2]; b++) {
+                    code[jump[1] + b] = (byte) (offset >>> (8 * (jump[2] - 1 - b)));
+                }
+            }
+
+            return code;
+        }
+
+        /**
+         *
+         * @return the entries of the StackMapTable, a same frame at every bound label, null if there are none
+         */
+        byte[] frames () {
+
+            int[] offsets = bound.stream().mapToInt((label) -> label.offset).filter((offset) -> offset > 0).distinct().sorted().toArray();
+
+            if (offsets.length == 0) {
+                return null;
+            }
+
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+
+            frames.write(offsets.length >>> 8);
+            frames.write(offsets.length);
+
+            int previous = -1;
+
+            for (int offset: offsets) {
+
+                int delta = offset - previous - 1;
+
+                if (delta < 64) {
+                    frames.write(delta);
+                } else {
+                    frames.write(251);
+                    frames.write(delta >>> 8);
+                    frames.write(delta);
+                }
+
+                previous = offset;
+            }
+
+            return frames.toByteArray();
+        }
+    }
+
+    /**
+     *
+     * Thrown when the class would break a limit of the class file format
+     */
+    private static final class TooLargeException extends RuntimeException {
+
+        TooLargeException () {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     *
+     * The constant pool of the class, the entries are shared
+     */
+    private static final class ConstantPool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int next = 1;
+
+        int utf8 (final String value) {
+            return entry("U" + value, 1, (o) -> { o.writeByte(1); o.writeUTF(value); });
+        }
+
+        int type (final String name) {
+
+            int utf8 = utf8(name);
+
+            return entry("C" + name, 1, (o) -> { o.writeByte(7); o.writeShort(utf8); });
+        }
+
+        int number (final int value) {
+            return entry("I" + value, 1, (o) -> { o.writeByte(3); o.writeInt(value); });
+        }
+
+        int number (final double value) {
+            return entry("D" + Double.doubleToRawLongBits(value), 2, (o) -> { o.writeByte(6); o.writeDouble(value); });
+        }
+
+        int method (final int owner, final String name, final String descriptor) {
+
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + descriptor, 1, (o) -> { o.writeByte(12); o.writeShort(nameIndex); o.writeShort(descriptorIndex); });
+
+            return entry("M" + owner + '.' + name + descriptor, 1, (o) -> { o.writeByte(10); o.writeShort(owner); o.writeShort(nameAndType); });
+        }
+
+        private int entry (final String key, final int slots, final Writer writer) {
+
+            Integer index = entries.get(key);
+
+            if (index != null) {
+                return index;
+            }
+
+            try {
+                writer.write(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            index = next;
+            next += slots;
+            entries.put(key, index);
+
+            return index;
+        }
+
+        void writeTo (final DataOutputStream target) throws IOException {
+            out.flush();
+            target.writeShort(next);
+            target.write(bytes.toByteArray());
+        }
+
+        private interface Writer {
+            void write (DataOutputStream out) throws IOException;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ro.comanitza.simpletree;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ *
+ * Annotation to mark an {@link Element} implementation for which a {@link TreeSchema} is generated at compile time
+ *
+ * The processor ({@link ro.comanitza.simpletree.processor.TreeElementProcessor}, found by javac on the class path) writes a
+ * {@code <Type>_TreeSchema} class next to the element, reading the values with direct getter calls, and registers it as a service.
+ * The trees then use it instead of resolving the getters by reflection, which also suits ahead of time compilers like GraalVM native-image.
+ *
+ * @author comanitza
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.SOURCE)
+public @interface TreeElement {
+}
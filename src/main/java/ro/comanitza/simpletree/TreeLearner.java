@@ -0,0 +1,993 @@
+package ro.comanitza.simpletree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ *
+ * Grows a decision tree from a {@link Dataset}
+ *
+ * The learner never copies elements, every node works on a range of a single row ids array.
+ * When a node is split, its range is partitioned in place (counting sort by branch) in one sub range per branch,
+ * so the sub trees work on disjoint ranges of the same array.
+ *
+ * Nominal attributes are split in one branch per value present in the rows of the node, numeric attributes in two branches around a threshold.
+ * For every numeric attribute the learner keeps a copy of the presorted row ids of the {@link Dataset}, partitioned (stably) together
+ * with the rows, so the rows of every node are always available sorted by value and the best threshold is found with a single scan.
+ *
+ * In parallel mode the sub trees are grown as fork/join tasks and the candidate attributes of a node are scored concurrently.
+ * This is safe because the tasks only touch their own range of the shared arrays.
+ * Nodes smaller than {@link LearnerSettings#sequentialThreshold} are grown sequentially.
+ *
+ * A node becomes a leaf predicting its majority class when it is as deep as {@link LearnerSettings#maxDepth}, when it has too few rows
+ * for two branches of {@link LearnerSettings#minSamplesLeaf} rows, or when its best split does not decrease the impurity by
+ * {@link LearnerSettings#minImpurityDecrease}. Splits leaving less than minSamplesLeaf rows in a branch are not scored.
+ *
+ * For ensembles the learner can also grow a tree from a sample of the rows, where a row may appear several times (bootstrap),
+ * and score at every node only a random subset of {@link LearnerSettings#attributesPerSplit} candidates.
+ *
+ * For huge datasets a node with more than {@link LearnerSettings#rowsPerSplit} rows scores its splits on a random sample of that many rows,
+ * drawn with replacement from its range. The sample is a set of sorted positions in the range, so it is read in value order from every presorted attribute order,
+ * and the cost of scoring a node does not depend on its rows. The chosen split still partitions all the rows, and the smaller nodes are scored exactly.
+ * A single tree draws its samples and subsets from {@link LearnerSettings#random(int, int)}, so they do not depend on the scheduling of the parallel mode.
+ *
+ * The nodes to grow are kept in an explicit work queue rather than on the call stack, so the depth of the tree is bounded only by the heap.
+ * The tree is grown depth first, or best first when {@link LearnerSettings#maxLeaves} is set: the open node with the biggest impurity decrease
+ * is split first, and the growth stops when the tree has that many leaves, so the most valuable splits are the ones kept.
+ *
+ * @author comanitza
+ */
+final class TreeLearner {
+
+    /*
+     * the biggest impurity decrease first, then the first queued
+     */
+    private static final Comparator<Open> BEST_FIRST = Comparator.comparingDouble(Open::decrease).reversed().thenComparingLong((open) -> open.sequence);
+
+    private final Dataset data;
+    private final LearnerSettings settings;
+    private final int[] labels;
+
+    /*
+     * the row ids, each node owns a [from, to) range of it
+     */
+    private final int[] rows;
+
+    /*
+     * per numeric attribute, the row ids with every node range sorted by the attribute value
+     */
+    private final int[][] orders;
+
+    /*
+     * the branch of every row of a node being split, indexed by row id
+     */
+    private final int[] branches;
+
+    /*
+     * scratch space for the partitioning, a node uses only its own [from, to) range
+     */
+    private final int[] buffer;
+
+    /*
+     * the source of the random draws of an ensemble tree, used sequentially, null to draw per node from the settings
+     */
+    private final SplittableRandom random;
+
+    TreeLearner (final Dataset data, final LearnerSettings settings) {
+        this(data, settings, null, null);
+    }
+
+    /**
+     *
+     * @param data the dataset
+     * @param settings the settings
+     * @param sample the row ids to learn from, possibly repeated, or null for all the rows
+     * @param random the source of the random candidates subsets and row samples, or null to draw them per node from the settings.
+     *               It is used sequentially so the learning must not be parallel.
+     */
+    TreeLearner (final Dataset data, final LearnerSettings settings, final int[] sample, final SplittableRandom random) {
+        this.data = data;
+        this.settings = settings;
+        this.labels = data.labels();
+        this.rows = (sample != null) ? sample.clone() : identity(data.rows());
+        this.orders = new int[data.attributes()][];
+        this.branches = new int[data.rows()];
+        this.buffer = new int[rows.length];
+        this.random = random;
+
+        int[] multiplicities = (sample != null) ? multiplicities(sample, data.rows()) : null;
+
+        for (int a = 0; a < orders.length; a++) {
+
+            if (data.isNumeric(a)) {
+                orders[a] = (multiplicities != null) ? sortedSample(data.sorted(a), multiplicities, rows.length) : data.sorted(a).clone();
+            }
+        }
+    }
+
+    /**
+     *
+     * Grow the tree
+     *
+     * @return the root node
+     */
+    Node grow () {
+
+        Node root = new Node();
+        Open first = new Open(root, 0, rows.length, identity(data.attributes()), 0);
+
+        ForkJoinTask<?> task = (settings.maxLeaves > 0) ? ForkJoinTask.adapt(() -> growBestFirst(first, true)) : new GrowTask(null, first);
+
+        if (settings.pool != null) {
+            settings.pool.invoke(task);
+        } else if (settings.parallelism > 1) {
+
+            ForkJoinPool pool = new ForkJoinPool(settings.parallelism);
+
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        } else if (settings.maxLeaves > 0) {
+            growBestFirst(first, false);
+        } else {
+            grow(first, newTable());
+        }
+
+        return root;
+    }
+
+    /**
+     *
+     * Grow sequentially the sub tree of a node, depth first from an explicit stack so the call stack does not grow with the depth of the tree
+     *
+     * @param first the node to grow, not scored yet
+     * @param table the count table to use for scoring
+     */
+    private void grow (final Open first, final ContingencyTable table) {
+
+        Deque<Open> pending = new ArrayDeque<>();
+        pending.push(first);
+
+        while (!pending.isEmpty()) {
+
+            Open open = pending.pop();
+
+            if (!score(open, table, false)) {
+                continue;
+            }
+
+            Open[] children = split(open, Integer.MAX_VALUE);
+
+            /*
+             * pushed in reverse so the first branch is grown first, as a recursive descent would
+             */
+            for (int branch = children.length - 1; branch >= 0; branch--) {
+
+                if (children[branch] != null) {
+                    pending.push(children[branch]);
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * Grow the tree best first: the open nodes are split by decreasing impurity decrease (the score of their best split weighted by their rows)
+     * until the tree has {@link LearnerSettings#maxLeaves} leaves, the nodes still open then stay leaves
+     *
+     * @param first the root, not scored yet
+     * @param parallel true to score the candidates of the big nodes concurrently, the caller must then run in a fork/join pool
+     */
+    private void growBestFirst (final Open first, final boolean parallel) {
+
+        ContingencyTable table = newTable();
+        PriorityQueue<Open> queue = new PriorityQueue<>(BEST_FIRST);
+        long sequence = 0;
+        int leaves = 1;
+
+        if (score(first, table, parallel)) {
+            queue.add(first);
+        }
+
+        while (!queue.isEmpty()) {
+
+            Open[] children = split(queue.poll(), settings.maxLeaves - leaves + 1);
+
+            if (children == null) {
+                continue;
+            }
+
+            leaves--;
+
+            for (Open child: children) {
+
+                if (child != null) {
+
+                    leaves++;
+
+                    if (score(child, table, parallel)) {
+                        child.sequence = ++sequence;
+                        queue.add(child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * Count and score a node, the node stays a leaf predicting its majority class unless a split is found
+     *
+     * @param open the node
+     * @param table the count table to use for scoring
+     * @param parallel true to score the candidates concurrently if the node is big enough
+     * @return true if the node has a split good enough, kept in the open node
+     */
+    private boolean score (final Open open, final ContingencyTable table, final boolean parallel) {
+
+        int from = open.from;
+        int to = open.to;
+        int[] candidates = open.candidates;
+        int[] classCounts = classCounts(from, to);
+
+        open.node.setCounts(classCounts);
+
+        if (isPure(classCounts) || settings.stops(to - from, open.depth)) {
+            settings.listener.node(open.depth, to - from, 0, 0, 0);
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean concurrent = parallel && to - from >= settings.sequentialThreshold;
+
+        /*
+         * if not a pure class, continue splitting on the field with the best info gain
+         */
+        SplittableRandom nodeRandom = random(from, open.depth);
+        int[] positions = sample(from, to, nodeRandom);
+        int[] scored = subset(candidates, nodeRandom);
+        int evaluated = scored.length;
+
+        InformationGainPair best = score(from, to, scored, positions, table, concurrent);
+
+        /*
+         * when none of the random subset can split the sampled rows, all the candidates are tried on all the rows
+         */
+        if (best == null && (scored != candidates || positions != null)) {
+            evaluated += candidates.length;
+            best = score(from, to, candidates, null, table, concurrent);
+        }
+
+        open.evaluated = evaluated;
+        open.scoreNanos = System.nanoTime() - start;
+
+        /*
+         * a node that can not be split, or not enough, predicts its majority class
+         */
+        if (best == null || !settings.decreases(best, to - from, rows.length)) {
+            settings.listener.node(open.depth, to - from, evaluated, open.scoreNanos, 0);
+            return false;
+        }
+
+        open.best = best;
+
+        return true;
+    }
+
+    /**
+     *
+     * Score the attributes, concurrently or not. The best is elected in attributes order so the result is the same both ways
+     */
+    private InformationGainPair score (final int from, final int to, final int[] attributes, final int[] positions, final ContingencyTable table, final boolean concurrent) {
+
+        InformationGainPair best = null;
+
+        if (!concurrent) {
+
+            ContingencyTable counts = (table != null) ? table : newTable();
+
+            for (int attribute: attributes) {
+                best = better(best, calculateInformationGain(from, to, attribute, positions, counts));
+            }
+
+            return best;
+        }
+
+        List<ScoreTask> scores = new ArrayList<>(attributes.length);
+
+        for (int attribute: attributes) {
+            scores.add(new ScoreTask(from, to, attribute, positions));
+        }
+
+        ForkJoinTask.invokeAll(scores);
+
+        for (ScoreTask score: scores) {
+            best = better(best, score.join());
+        }
+
+        return best;
+    }
+
+    /**
+     *
+     * Split a scored node: partition its rows and open one child per branch with rows. The children of a nominal split are built
+     * from the codes present in the rows of the node, never from the whole dictionary of the attribute
+     *
+     * @param open the scored node
+     * @param budget the maximum number of children, the node stays a leaf if its split has more
+     * @return the children to grow, null for the empty branches, or null if the node stays a leaf
+     */
+    private Open[] split (final Open open, final int budget) {
+
+        int from = open.from;
+        int to = open.to;
+        InformationGainPair best = open.best;
+
+        if (budget < 2) {
+            settings.listener.node(open.depth, to - from, open.evaluated, open.scoreNanos, 0);
+            return null;
+        }
+
+        long start = System.nanoTime();
+        int attribute = best.getAttribute();
+        int[] codes = data.isNumeric(attribute) ? null : presentCodes(from, to, data.column(attribute), data.dictionary(attribute).size());
+        int[] bounds = partition(from, to, best, codes);
+        int count = 0;
+
+        for (int branch = 0; branch < bounds.length - 1; branch++) {
+
+            if (bounds[branch] < bounds[branch + 1]) {
+                count++;
+            }
+        }
+
+        if (count > budget) {
+            settings.listener.node(open.depth, to - from, open.evaluated, open.scoreNanos, System.nanoTime() - start);
+            return null;
+        }
+
+        int[] remaining = remaining(open.candidates, attribute);
+        Node[] children = new Node[bounds.length - 1];
+        Open[] opened = new Open[children.length];
+
+        for (int branch = 0; branch < children.length; branch++) {
+
+            if (bounds[branch] < bounds[branch + 1]) {
+                children[branch] = new Node();
+                opened[branch] = new Open(children[branch], bounds[branch], bounds[branch + 1], remaining, open.depth + 1);
+            }
+        }
+
+        open.node.setAttribute(attribute);
+        open.node.setThreshold(best.getThreshold());
+
+        if (codes == null) {
+            open.node.setChildren(children);
+        } else {
+            open.node.setChildren(codes, children, data.dictionary(attribute).size());
+        }
+
+        settings.listener.node(open.depth, to - from, open.evaluated, open.scoreNanos, System.nanoTime() - start);
+
+        return opened;
+    }
+
+    /**
+     *
+     * A node to grow, its range of rows and, once scored, its best split
+     */
+    private static final class Open {
+
+        private final Node node;
+        private final int from;
+        private final int to;
+        private final int[] candidates;
+        private final int depth;
+
+        private InformationGainPair best;
+        private int evaluated;
+        private long scoreNanos;
+
+        /*
+         * the order the node was queued in, for the ties of the best first growth
+         */
+        private long sequence;
+
+        Open (final Node node, final int from, final int to, final int[] candidates, final int depth) {
+            this.node = node;
+            this.from = from;
+            this.to = to;
+            this.candidates = candidates;
+            this.depth = depth;
+        }
+
+        /**
+         *
+         * @return the impurity decrease of the split, its score weighted by the rows of the node
+         */
+        double decrease () {
+            return best.getInformationGain() * (to - from);
+        }
+    }
+
+    /**
+     *
+     * Task growing the sub tree of a node. The task forks one task per child and completes when all of them did,
+     * no task waits for another so the call stack stays shallow whatever the depth of the tree
+     */
+    private final class GrowTask extends CountedCompleter<Void> {
+
+        private final Open open;
+
+        GrowTask (final CountedCompleter<?> parent, final Open open) {
+            super(parent);
+            this.open = open;
+        }
+
+        @Override
+        public void compute () {
+
+            if (open.to - open.from < settings.sequentialThreshold) {
+                grow(open, newTable());
+            } else if (score(open, null, true)) {
+
+                for (Open child: split(open, Integer.MAX_VALUE)) {
+
+                    if (child != null) {
+                        addToPendingCount(1);
+                        new GrowTask(this, child).fork();
+                    }
+                }
+            }
+
+            tryComplete();
+        }
+    }
+
+    /**
+     *
+     * Task scoring one candidate attribute of a node
+     */
+    private final class ScoreTask extends RecursiveTask<InformationGainPair> {
+
+        private final int from;
+        private final int to;
+        private final int attribute;
+        private final int[] positions;
+
+        ScoreTask (final int from, final int to, final int attribute, final int[] positions) {
+            this.from = from;
+            this.to = to;
+            this.attribute = attribute;
+            this.positions = positions;
+        }
+
+        @Override
+        protected InformationGainPair compute () {
+            return calculateInformationGain(from, to, attribute, positions, newTable());
+        }
+    }
+
+    /**
+     *
+     * Calculate the information gain of splitting a range of rows on an attribute
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param attribute the attribute to evaluate
+     * @param positions the sorted positions of the sampled rows in the range, null to score all the rows
+     * @param table the table to use
+     * @return the information gain, null if the attribute can not split the rows
+     */
+    private InformationGainPair calculateInformationGain (final int from, final int to, final int attribute, final int[] positions, final ContingencyTable table) {
+
+        if (data.isNumeric(attribute)) {
+            return calculateThresholdInformationGain(from, to, attribute, positions, table);
+        }
+
+        /*
+         * the value x class count table is filled with a single pass over the rows
+         */
+        int[] column = data.column(attribute);
+        int count = (positions == null) ? to - from : positions.length;
+        int values = data.dictionary(attribute).size();
+
+        if (values > count) {
+            countSparse(from, count, column, positions, table);
+        } else {
+
+            table.reset(values);
+
+            for (int j = 0; j < count; j++) {
+                int row = rows[(positions == null) ? from + j : from + positions[j]];
+                table.add(column[row], labels[row]);
+            }
+        }
+
+        if (!hasMinimumRows(table, minimum(from, to, count))) {
+            return null;
+        }
+
+        return new InformationGainPair(attribute, settings.criterion.score(table));
+    }
+
+    /**
+     *
+     * Fill the value x class count table of a nominal attribute with more values than rows, with one branch per value present in the rows
+     *
+     * The criteria ignore the empty branches, so the scores are the same as with one branch per value of the dictionary,
+     * but the cost depends on the rows of the node and not on the size of the dictionary
+     *
+     * @param from the start of the range, inclusive
+     * @param count the number of rows to count
+     * @param column the codes of the attribute, indexed by row id
+     * @param positions the sorted positions of the sampled rows in the range, null to count all the rows
+     * @param table the table to fill
+     */
+    private void countSparse (final int from, final int count, final int[] column, final int[] positions, final ContingencyTable table) {
+
+        int[] codes = new int[count];
+
+        for (int j = 0; j < count; j++) {
+            codes[j] = column[rows[(positions == null) ? from + j : from + positions[j]]];
+        }
+
+        int distinct = distinct(codes, count);
+
+        table.reset(distinct);
+
+        for (int j = 0; j < count; j++) {
+            int row = rows[(positions == null) ? from + j : from + positions[j]];
+            table.add(Arrays.binarySearch(codes, 0, distinct, column[row]), labels[row]);
+        }
+    }
+
+    /**
+     *
+     * Find the best threshold of a numeric attribute for a range of rows
+     *
+     * The rows are scanned in value order, moving them one by one from the upper branch to the lower one,
+     * so the class counts of both branches are always known and every boundary between two distinct values is scored in O(classes)
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param attribute the numeric attribute to evaluate
+     * @param positions the sorted positions of the sampled rows in the range, null to score all the rows
+     * @param table the table to use
+     * @return the information gain of the best threshold, null if all the values are the same
+     */
+    private InformationGainPair calculateThresholdInformationGain (final int from, final int to, final int attribute, final int[] positions, final ContingencyTable table) {
+
+        int[] order = orders[attribute];
+        double[] values = data.values(attribute);
+        int count = (positions == null) ? to - from : positions.length;
+
+        table.reset(2);
+
+        for (int j = 0; j < count; j++) {
+            table.add(1, labels[order[(positions == null) ? from + j : from + positions[j]]]);
+        }
+
+        InformationGainPair best = null;
+        SplitCriterion criterion = settings.criterion;
+        int minimum = minimum(from, to, count);
+
+        for (int j = 0; j < count - 1; j++) {
+
+            int row = order[(positions == null) ? from + j : from + positions[j]];
+            double value = values[row];
+            double next = values[order[(positions == null) ? from + j + 1 : from + positions[j + 1]]];
+
+            table.move(labels[row], 1, 0);
+
+            /*
+             * false for equal values and for NaN, which are sorted last and always go to the upper branch
+             */
+            if (value < next && j + 1 >= minimum && count - j - 1 >= minimum) {
+
+                double infoGain = criterion.score(table);
+
+                if (best == null || infoGain > best.getInformationGain()) {
+                    best = new InformationGainPair(attribute, infoGain, midpoint(value, next));
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     *
+     * @return the candidate with the best info gain, the current one on ties
+     */
+    static InformationGainPair better (final InformationGainPair current, final InformationGainPair candidate) {
+
+        if (candidate == null) {
+            return current;
+        }
+
+        return (current == null || candidate.getInformationGain() > current.getInformationGain()) ? candidate : current;
+    }
+
+    /**
+     *
+     * @return true if every branch of the table with rows has at least the minimum number of rows
+     */
+    static boolean hasMinimumRows (final ContingencyTable table, final int minimum) {
+
+        for (int branch = 0; branch < table.branches(); branch++) {
+
+            int total = table.branchTotal(branch);
+
+            if (total != 0 && total < minimum) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     *
+     * @return the minimum rows of a branch of a scored split, scaled down to the sample if the rows are sampled
+     */
+    private int minimum (final int from, final int to, final int count) {
+        return (count == to - from) ? settings.minSamplesLeaf : (int) Math.ceil((double) settings.minSamplesLeaf * count / (to - from));
+    }
+
+    private int[] classCounts (final int from, final int to) {
+
+        int[] classCounts = new int[data.classes().size()];
+
+        for (int i = from; i < to; i++) {
+            classCounts[labels[rows[i]]]++;
+        }
+
+        return classCounts;
+    }
+
+    /**
+     *
+     * @return true if the rows are all of the same class
+     */
+    static boolean isPure (final int[] classCounts) {
+
+        int classes = 0;
+
+        for (int count: classCounts) {
+
+            if (count > 0) {
+                classes++;
+            }
+        }
+
+        return classes <= 1;
+    }
+
+    /**
+     *
+     * @return a leaf predicting the majority class of the rows
+     */
+    static Node leaf (final int[] classCounts) {
+
+        Node leaf = new Node();
+        leaf.setCounts(classCounts);
+
+        return leaf;
+    }
+
+    /**
+     *
+     * Sort and remove the duplicates of the first codes of an array, in place
+     *
+     * @return the number of distinct codes, at the start of the array
+     */
+    private static int distinct (final int[] codes, final int count) {
+
+        Arrays.sort(codes, 0, count);
+
+        int distinct = 0;
+
+        for (int j = 0; j < count; j++) {
+
+            if (distinct == 0 || codes[j] != codes[distinct - 1]) {
+                codes[distinct++] = codes[j];
+            }
+        }
+
+        return distinct;
+    }
+
+    /**
+     *
+     * The codes of a nominal attribute present in a range of rows, found by sorting the codes of the rows when the dictionary is bigger than the range
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param column the codes of the attribute, indexed by row id
+     * @param values the size of the dictionary of the attribute
+     * @return the sorted distinct codes
+     */
+    private int[] presentCodes (final int from, final int to, final int[] column, final int values) {
+
+        if (values > to - from) {
+
+            int[] codes = new int[to - from];
+
+            for (int i = from; i < to; i++) {
+                codes[i - from] = column[rows[i]];
+            }
+
+            return Arrays.copyOf(codes, distinct(codes, codes.length));
+        }
+
+        boolean[] present = new boolean[values];
+        int distinct = 0;
+
+        for (int i = from; i < to; i++) {
+
+            int code = column[rows[i]];
+
+            if (!present[code]) {
+                present[code] = true;
+                distinct++;
+            }
+        }
+
+        int[] codes = new int[distinct];
+
+        for (int code = 0, i = 0; i < distinct; code++) {
+
+            if (present[code]) {
+                codes[i++] = code;
+            }
+        }
+
+        return codes;
+    }
+
+    /**
+     *
+     * Partition in place a range of rows, and the same range of all the sorted orders, by the branches of the provided split
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param split the split to partition by
+     * @param codes the sorted codes present in the range for a nominal split, one branch per code, null for a numeric split
+     * @return the bounds of the partitions, partition of branch b is [bounds[b], bounds[b + 1])
+     */
+    private int[] partition (final int from, final int to, final InformationGainPair split, final int[] codes) {
+
+        int attribute = split.getAttribute();
+        int branchCount;
+
+        if (data.isNumeric(attribute)) {
+
+            double[] values = data.values(attribute);
+            double threshold = split.getThreshold();
+
+            for (int i = from; i < to; i++) {
+                int row = rows[i];
+                branches[row] = (values[row] <= threshold) ? 0 : 1;
+            }
+
+            branchCount = 2;
+        } else {
+
+            int[] column = data.column(attribute);
+            boolean dense = codes.length == data.dictionary(attribute).size();
+
+            for (int i = from; i < to; i++) {
+                int row = rows[i];
+                branches[row] = dense ? column[row] : Arrays.binarySearch(codes, column[row]);
+            }
+
+            branchCount = codes.length;
+        }
+
+        int[] bounds = partition(rows, from, to, branchCount, branches, buffer);
+
+        for (int[] order: orders) {
+
+            if (order != null) {
+                partition(order, from, to, branchCount, branches, buffer);
+            }
+        }
+
+        return bounds;
+    }
+
+    /**
+     *
+     * Stable partition in place of a range of row ids by their branch (counting sort through the buffer)
+     *
+     * @param ids the row ids
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param branchCount the number of branches
+     * @param branches the branch of every row, indexed by row id
+     * @param buffer the scratch space, at least as long as the ids
+     * @return the bounds of the partitions
+     */
+    static int[] partition (final int[] ids, final int from, final int to, final int branchCount, final int[] branches, final int[] buffer) {
+
+        int[] bounds = new int[branchCount + 1];
+
+        for (int i = from; i < to; i++) {
+            bounds[branches[ids[i]] + 1]++;
+        }
+
+        bounds[0] = from;
+
+        for (int branch = 1; branch < bounds.length; branch++) {
+            bounds[branch] += bounds[branch - 1];
+        }
+
+        int[] next = Arrays.copyOf(bounds, branchCount);
+
+        for (int i = from; i < to; i++) {
+            buffer[next[branches[ids[i]]]++] = ids[i];
+        }
+
+        System.arraycopy(buffer, from, ids, from, to - from);
+
+        return bounds;
+    }
+
+    private ContingencyTable newTable () {
+        return new ContingencyTable(0, data.classes().size());
+    }
+
+    /**
+     *
+     * @return the source of the random draws of a node, null if nothing is sampled
+     */
+    private SplittableRandom random (final int from, final int depth) {
+        return (random != null) ? random : settings.random(from, depth);
+    }
+
+    /**
+     *
+     * @return the sorted positions in the range of rowsPerSplit rows drawn with replacement, or null if all the rows must be scored
+     */
+    private int[] sample (final int from, final int to, final SplittableRandom random) {
+
+        int size = settings.rowsPerSplit;
+
+        if (random == null || size <= 0 || to - from <= size) {
+            return null;
+        }
+
+        int[] positions = new int[size];
+
+        for (int j = 0; j < size; j++) {
+            positions[j] = random.nextInt(to - from);
+        }
+
+        Arrays.sort(positions);
+
+        return positions;
+    }
+
+    /**
+     *
+     * @return a random subset of attributesPerSplit candidates, in attribute order, or the candidates themselves if all must be scored
+     */
+    static int[] subset (final int[] candidates, final int size, final SplittableRandom random) {
+
+        if (random == null || size <= 0 || size >= candidates.length) {
+            return candidates;
+        }
+
+        int[] shuffled = candidates.clone();
+
+        for (int i = 0; i < size; i++) {
+
+            int j = i + random.nextInt(shuffled.length - i);
+            int swap = shuffled[i];
+
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+
+        int[] subset = Arrays.copyOf(shuffled, size);
+        Arrays.sort(subset);
+
+        return subset;
+    }
+
+    private int[] subset (final int[] candidates, final SplittableRandom random) {
+        return subset(candidates, settings.attributesPerSplit, random);
+    }
+
+    /**
+     *
+     * @return how many times every row id appears in the sample
+     */
+    private static int[] multiplicities (final int[] sample, final int rows) {
+
+        int[] multiplicities = new int[rows];
+
+        for (int row: sample) {
+            multiplicities[row]++;
+        }
+
+        return multiplicities;
+    }
+
+    /**
+     *
+     * Sort a sample without sorting again, by walking the presorted row ids and repeating every row as many times as it is sampled
+     */
+    private static int[] sortedSample (final int[] sorted, final int[] multiplicities, final int size) {
+
+        int[] order = new int[size];
+        int j = 0;
+
+        for (int row: sorted) {
+
+            for (int m = multiplicities[row]; m > 0; m--) {
+                order[j++] = row;
+            }
+        }
+
+        return order;
+    }
+
+    /**
+     *
+     * A nominal attribute can be used only once on a path, a numeric one can be split again on another threshold
+     */
+    private int[] remaining (final int[] candidates, final int attribute) {
+        return data.isNumeric(attribute) ? candidates : without(candidates, attribute);
+    }
+
+    /**
+     *
+     * @return the middle of two distinct values, lower than the upper one
+     */
+    static double midpoint (final double lower, final double upper) {
+
+        double middle = lower + (upper - lower) / 2;
+
+        return (middle < upper) ? middle : lower;
+    }
+
+    static int[] without (final int[] values, final int value) {
+
+        int[] result = new int[values.length - 1];
+        int j = 0;
+
+        for (int v: values) {
+
+            if (v != value) {
+                result[j++] = v;
+            }
+        }
+
+        return result;
+    }
+
+    static int[] identity (final int size) {
+
+        int[] result = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            result[i] = i;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+package ro.comanitza.simpletree;
+
+/**
+ *
+ * Immutable snapshot of a learned tree: its nodes, the symbol tables needed to encode the queried elements and the compiled form
+ *
+ * A {@link DecisionTreeImpl} publishes a new snapshot through a volatile reference at the end of every learning,
+ * so the scoring threads always see a whole model, either the old or the new one, and never need a lock.
+ * Nothing reachable from a snapshot is modified after it is published.
+ *
+ * @author comanitza
+ */
+final class TreeModel<T extends Element> {
+
+    private final ElementSchema schema;
+    private final Node root;
+    private final Dictionary[] dictionaries;
+    private final Dictionary classes;
+
+    /*
+     * the compiled form, built on the first batch. Threads racing on it may both build it, the compiled tree is immutable
+     * (all its fields are final) so it is safely published even through this plain field
+     */
+    private CompiledDecisionTree<T> compiled;
+
+    TreeModel (final ElementSchema schema, final Node root, final Dictionary[] dictionaries, final Dictionary classes) {
+        this.schema = schema;
+        this.root = root;
+        this.dictionaries = dictionaries;
+        this.classes = classes;
+    }
+
+    ElementSchema schema () {
+        return schema;
+    }
+
+    Node root () {
+        return root;
+    }
+
+    Dictionary[] dictionaries () {
+        return dictionaries;
+    }
+
+    Dictionary classes () {
+        return classes;
+    }
+
+    /**
+     *
+     * @return the compiled form of the tree, built once
+     */
+    CompiledDecisionTree<T> compiled () {
+
+        CompiledDecisionTree<T> result = compiled;
+
+        if (result == null) {
+            result = CompiledDecisionTree.compile(schema, root, dictionaries, classes);
+            compiled = result;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package ro.comanitza.simpletree;
+
+/**
+ *
+ * Accessors of an {@link Element} implementation, generated at compile time for the types annotated with {@link TreeElement}
+ *
+ * Implementations are found with {@link java.util.ServiceLoader} the first time their type is learned or scored. They must follow the rules
+ * of the reflective schema: the attributes are the instance fields in declaration order, the first field annotated with {@link ClassField}
+ * is the class field, primitive number fields are numeric and read as {@code double}, the others are read as {@link String}.
+ *
+ * @param <T> the element type
+ *
+ * @author comanitza
+ */
+public interface TreeSchema<T extends Element> {
+
+    /**
+     *
+     * @return the element type
+     */
+    Class<T> type ();
+
+    /**
+     *
+     * @return the attribute names, in attribute index order
+     */
+    String[] attributeNames ();
+
+    /**
+     *
+     * @param attribute the attribute index
+     * @return true if the attribute is numeric, false if it's nominal
+     */
+    boolean isNumeric (int attribute);
+
+    /**
+     *
+     * @return the name of the class field, null if there is none
+     */
+    String classFieldName ();
+
+    /**
+     *
+     * @param attribute the attribute index
+     * @param element the element to read from
+     * @return the attribute value as a string
+     */
+    String value (int attribute, T element);
+
+    /**
+     *
+     * @param attribute the index of a numeric attribute
+     * @param element the element to read from
+     * @return the attribute value
+     */
+    double numericValue (int attribute, T element);
+
+    /**
+     *
+     * @param element the element to read from
+     * @return the class field value
+     */
+    String classValue (T element);
+
+    /**
+     *
+     * Read all the attributes of an element at once, the encoding helper of the learners
+     *
+     * @param element the element to read from
+     * @param values where to write the values of the nominal attributes, indexed by attribute
+     * @param numbers where to write the values of the numeric attributes, indexed by attribute
+     */
+    void read (T element, String[] values, double[] numbers);
+}
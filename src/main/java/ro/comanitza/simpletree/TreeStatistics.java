@@ -0,0 +1,164 @@
+package ro.comanitza.simpletree;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ *
+ * The shape and the cost of a learned tree, reported to {@link TrainingListener#learned(TreeStatistics)}
+ *
+ * @author comanitza
+ */
+public final class TreeStatistics {
+
+    private final int nodes;
+    private final int leaves;
+    private final int[] leavesPerDepth;
+    private final int rows;
+    private final long learnNanos;
+    private final long allocatedBytes;
+
+    private TreeStatistics (final int nodes, final int leaves, final int[] leavesPerDepth, final int rows, final long learnNanos, final long allocatedBytes) {
+        this.nodes = nodes;
+        this.leaves = leaves;
+        this.leavesPerDepth = leavesPerDepth;
+        this.rows = rows;
+        this.learnNanos = learnNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     *
+     * Walk a learned tree
+     *
+     * @param root the root of the tree
+     * @param learnNanos the time spent learning
+     * @param allocatedBytes the bytes allocated while learning, -1 if unknown
+     * @return the statistics of the tree
+     */
+    static TreeStatistics of (final Node root, final long learnNanos, final long allocatedBytes) {
+
+        int nodes = 0;
+        int leaves = 0;
+        int[] leavesPerDepth = new int[1];
+
+        Deque<Node> pending = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+
+        /*
+         * the codes folded in the same histogram bin share their child, every node is counted once
+         */
+        Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        pending.push(root);
+        depths.push(0);
+
+        while (!pending.isEmpty()) {
+
+            Node node = pending.pop();
+            int depth = depths.pop();
+
+            nodes++;
+
+            if (node.isLeaf()) {
+
+                if (depth >= leavesPerDepth.length) {
+                    leavesPerDepth = Arrays.copyOf(leavesPerDepth, depth + 1);
+                }
+
+                leaves++;
+                leavesPerDepth[depth]++;
+                continue;
+            }
+
+            for (Node child: node.getChildren()) {
+
+                if (child != null && visited.add(child)) {
+                    pending.push(child);
+                    depths.push(depth + 1);
+                }
+            }
+        }
+
+        return new TreeStatistics(nodes, leaves, leavesPerDepth, root.getRows(), learnNanos, allocatedBytes);
+    }
+
+    /**
+     *
+     * @return the bytes allocated so far by the current thread, -1 if the JVM does not measure it
+     */
+    static long allocatedBytes () {
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled()) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return -1;
+    }
+
+    /**
+     *
+     * @return the number of nodes, the leaves included
+     */
+    public int getNodes () {
+        return nodes;
+    }
+
+    public int getLeaves () {
+        return leaves;
+    }
+
+    /**
+     *
+     * @return the depth of the deepest leaf, 0 for a tree made only of its root
+     */
+    public int getDepth () {
+        return leavesPerDepth.length - 1;
+    }
+
+    /**
+     *
+     * @return the depth histogram, the number of leaves at every depth
+     */
+    public int[] getLeavesPerDepth () {
+        return leavesPerDepth.clone();
+    }
+
+    /**
+     *
+     * @return the rows the tree was learned from
+     */
+    public int getRows () {
+        return rows;
+    }
+
+    /**
+     *
+     * @return the time spent learning, the encoding of the elements and the pruning included
+     */
+    public long getLearnNanos () {
+        return learnNanos;
+    }
+
+    /**
+     *
+     * @return the bytes allocated by the thread that learned the tree, the other threads of a parallel learning excluded, -1 if unknown
+     */
+    public long getAllocatedBytes () {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString () {
+        return "TreeStatistics{nodes=" + nodes + ", leaves=" + leaves + ", depth=" + getDepth() + ", leavesPerDepth=" + Arrays.toString(leavesPerDepth)
+                + ", rows=" + rows + ", learnNanos=" + learnNanos + ", allocatedBytes=" + allocatedBytes + '}';
+    }
+}
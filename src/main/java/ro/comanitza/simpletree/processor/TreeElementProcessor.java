@@ -0,0 +1,392 @@
+package ro.comanitza.simpletree.processor;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ *
+ * Annotation processor generating a {@code ro.comanitza.simpletree.TreeSchema} for every type annotated with {@code ro.comanitza.simpletree.TreeElement}
+ *
+ * The generated {@code <Type>_TreeSchema} class sits in the package of the element and follows the rules of the reflective schema:
+ * the attributes are the instance fields in declaration order, the first field annotated with {@code ClassField} is the class field
+ * and the following ones are ignored, primitive number fields are numeric, every field is read through its {@code get<Field>} getter.
+ * A missing getter is a compile error instead of a failure of the first learning.
+ *
+ * The generated classes are registered in {@code META-INF/services}, where the trees look for them.
+ *
+ * @author comanitza
+ */
+@SupportedAnnotationTypes(TreeElementProcessor.TREE_ELEMENT)
+public class TreeElementProcessor extends AbstractProcessor {
+
+    static final String TREE_ELEMENT = "ro.comanitza.simpletree.TreeElement";
+
+    private static final String ELEMENT = "ro.comanitza.simpletree.Element";
+    private static final String CLASS_FIELD = "ro.comanitza.simpletree.ClassField";
+    private static final String TREE_SCHEMA = "ro.comanitza.simpletree.TreeSchema";
+    private static final String SERVICES = "META-INF/services/" + TREE_SCHEMA;
+
+    /*
+     * the schemas generated in all the rounds, registered at the end of the processing
+     */
+    private final Set<String> generated = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion () {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process (final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+
+        if (round.processingOver()) {
+
+            if (!generated.isEmpty()) {
+                register();
+            }
+
+            return false;
+        }
+
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(TREE_ELEMENT);
+
+        if (annotation == null) {
+            return false;
+        }
+
+        for (TypeElement type: ElementFilter.typesIn(round.getElementsAnnotatedWith(annotation))) {
+
+            try {
+                generate(type);
+            } catch (IOException e) {
+                error(type, "Could not write the tree schema of " + type + ": " + e.getMessage());
+            }
+        }
+
+        return true;
+    }
+
+    private void generate (final TypeElement type) throws IOException {
+
+        if (!isValid(type)) {
+            return;
+        }
+
+        List<String> names = new ArrayList<>();
+        List<String> getters = new ArrayList<>();
+        List<TypeMirror> types = new ArrayList<>();
+        String classField = null;
+        String classGetter = null;
+        TypeMirror classType = null;
+
+        for (VariableElement field: ElementFilter.fieldsIn(type.getEnclosedElements())) {
+
+            if (field.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+
+            String getter = getter(type, field);
+
+            if (getter == null) {
+                return;
+            }
+
+            if (isAnnotated(field, CLASS_FIELD)) {
+
+                if (classField == null) {
+                    classField = field.getSimpleName().toString();
+                    classGetter = getter;
+                    classType = field.asType();
+                }
+
+                continue;
+            }
+
+            names.add(field.getSimpleName().toString());
+            getters.add(getter);
+            types.add(field.asType());
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String simpleName = schemaName(type);
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        String elementName = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter())) {
+
+            if (!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+
+            out.println("/**");
+            out.println(" *");
+            out.println(" * Generated {@link " + TREE_SCHEMA + "} of {@link " + elementName + "}, do not edit");
+            out.println(" */");
+            out.println("@javax.annotation.processing.Generated(\"" + TreeElementProcessor.class.getName() + "\")");
+            out.println("public final class " + simpleName + " implements " + TREE_SCHEMA + "<" + elementName + "> {");
+            out.println();
+            out.println("    private static final String[] ATTRIBUTE_NAMES = {" + join(names) + "};");
+            out.println();
+            out.println("    @Override");
+            out.println("    public Class<" + elementName + "> type () {");
+            out.println("        return " + elementName + ".class;");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String[] attributeNames () {");
+            out.println("        return ATTRIBUTE_NAMES.clone();");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public boolean isNumeric (final int attribute) {");
+            out.println("        switch (attribute) {");
+
+            for (int a = 0; a < names.size(); a++) {
+
+                if (isNumeric(types.get(a))) {
+                    out.println("            case " + a + ":");
+                    out.println("                return true;");
+                }
+            }
+
+            out.println("            default:");
+            out.println("                return false;");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String classFieldName () {");
+            out.println("        return " + ((classField == null) ? "null" : "\"" + classField + "\"") + ";");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String value (final int attribute, final " + elementName + " element) {");
+            out.println("        switch (attribute) {");
+
+            for (int a = 0; a < names.size(); a++) {
+                out.println("            case " + a + ":");
+                out.println("                return " + asString(getters.get(a), types.get(a)) + ";");
+            }
+
+            out.println("            default:");
+            out.println("                throw new IndexOutOfBoundsException(\"No attribute \" + attribute + \" in " + elementName + "\");");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public double numericValue (final int attribute, final " + elementName + " element) {");
+            out.println("        switch (attribute) {");
+
+            for (int a = 0; a < names.size(); a++) {
+
+                if (isNumeric(types.get(a))) {
+                    out.println("            case " + a + ":");
+                    out.println("                return element." + getters.get(a) + "();");
+                }
+            }
+
+            out.println("            default:");
+            out.println("                throw new IllegalArgumentException(\"Attribute \" + attribute + \" of " + elementName + " is not numeric\");");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String classValue (final " + elementName + " element) {");
+
+            if (classField == null) {
+                out.println("        throw new RuntimeException(\"Provided class " + elementName + " is missing class field.\");");
+            } else {
+                out.println("        return " + asString(classGetter, classType) + ";");
+            }
+
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public void read (final " + elementName + " element, final String[] values, final double[] numbers) {");
+
+            for (int a = 0; a < names.size(); a++) {
+
+                if (isNumeric(types.get(a))) {
+                    out.println("        numbers[" + a + "] = element." + getters.get(a) + "();");
+                } else {
+                    out.println("        values[" + a + "] = " + asString(getters.get(a), types.get(a)) + ";");
+                }
+            }
+
+            out.println("    }");
+            out.println("}");
+        }
+
+        generated.add(qualifiedName);
+    }
+
+    /**
+     *
+     * @return true if a schema can be generated for the type, otherwise the reason is reported as an error
+     */
+    private boolean isValid (final TypeElement type) {
+
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(ELEMENT);
+
+        if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(type, "@TreeElement must annotate a concrete class");
+            return false;
+        }
+
+        if (element == null || !processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type.asType()), element.asType())) {
+            error(type, "@TreeElement class " + type + " must implement " + ELEMENT);
+            return false;
+        }
+
+        if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+            error(type, "@TreeElement class " + type + " must be a top level or a static nested class");
+            return false;
+        }
+
+        for (Element enclosing = type; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+                error(type, "@TreeElement class " + type + " must not be private");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     *
+     * @return the name of the no argument getter of the field, with the type of the field, null if there is none (reported as an error)
+     */
+    private String getter (final TypeElement type, final VariableElement field) {
+
+        String fieldName = field.getSimpleName().toString();
+        String name = "get" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
+
+        for (ExecutableElement method: ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().isEmpty() && !method.getModifiers().contains(Modifier.STATIC)
+                    && !method.getModifiers().contains(Modifier.PRIVATE) && processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+                return name;
+            }
+        }
+
+        error(field, "Field " + fieldName + " of " + type + " has no getter " + name + "() returning " + field.asType());
+
+        return null;
+    }
+
+    private static boolean isAnnotated (final Element element, final String annotation) {
+
+        for (AnnotationMirror mirror: element.getAnnotationMirrors()) {
+
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     *
+     * @return true for the primitive numbers, like the reflective schema
+     */
+    private static boolean isNumeric (final TypeMirror type) {
+        return type.getKind().isPrimitive() && type.getKind() != TypeKind.BOOLEAN && type.getKind() != TypeKind.CHAR;
+    }
+
+    /**
+     *
+     * @return the expression reading a field as a string, non string fields through {@link String#valueOf(Object)} like the reflective schema
+     */
+    private static String asString (final String getter, final TypeMirror type) {
+
+        if (type.toString().equals("java.lang.String")) {
+            return "element." + getter + "()";
+        }
+
+        return "String.valueOf(" + (type.getKind().isPrimitive() ? "" : "(Object) ") + "element." + getter + "())";
+    }
+
+    /**
+     *
+     * @return the simple name of the schema, the names of the enclosing classes joined with underscores
+     */
+    private static String schemaName (final TypeElement type) {
+
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+
+        for (Element enclosing = type.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            name.insert(0, enclosing.getSimpleName() + "_");
+        }
+
+        return name.append("_TreeSchema").toString();
+    }
+
+    private static String join (final List<String> names) {
+
+        StringJoiner joiner = new StringJoiner(", ");
+
+        for (String name: names) {
+            joiner.add("\"" + name + "\"");
+        }
+
+        return joiner.toString();
+    }
+
+    /**
+     *
+     * Write the service registration, keeping the schemas registered by a previous compilation of the same output
+     */
+    private void register () {
+
+        Set<String> providers = new TreeSet<>(generated);
+        Filer filer = processingEnv.getFiler();
+
+        try {
+            FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", SERVICES);
+
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+
+                String line;
+
+                while ((line = in.readLine()) != null) {
+
+                    if (!line.trim().isEmpty()) {
+                        providers.add(line.trim());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            /*
+             * no previous registration
+             */
+        }
+
+        try (Writer out = new OutputStreamWriter(filer.createResource(StandardLocation.CLASS_OUTPUT, "", SERVICES).openOutputStream(), StandardCharsets.UTF_8)) {
+
+            for (String provider: providers) {
+                out.write(provider);
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not register the tree schemas: " + e.getMessage());
+        }
+    }
+
+    private void error (final Element element, final String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
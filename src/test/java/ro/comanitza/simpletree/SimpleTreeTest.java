@@ -1,12 +1,32 @@
 package ro.comanitza.simpletree;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import javax.management.ObjectName;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -18,6 +38,9 @@ public class SimpleTreeTest {
 
     private final MethodHandles.Lookup lookup = MethodHandles.lookup();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private final List<String> EXPECTED_RESULTS_AS_STRINGS = Arrays.asList(("Transport{gender='Male', hasCar='0', costPerKm='Cheap', income='Low', transportation='null'} -> Bus\n" +
             "Transport{gender='Male', hasCar='1', costPerKm='Cheap', income='Low', transportation='null'} -> Bus\n" +
             "Transport{gender='Male', hasCar='1', costPerKm='Cheap', income='Medium', transportation='null'} -> Bus\n" +
@@ -48,4 +71,994 @@ public class SimpleTreeTest {
             Assert.assertTrue("Expected value not found", EXPECTED_RESULTS_AS_STRINGS.contains(e + " -> " + decider.outcome(e).orElse(null))); });
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSubclassUsage () {
+        List<Trip> trips = TestUtil.generateTrips();
+
+        DecisionTreeImpl<Trip> decider = new DecisionTreeImpl<>();
+        decider.learn(trips);
+
+        /*
+         * a subclass with fields of its own is scored with the attributes of the learned class
+         */
+        for (Trip trip: TestUtil.tripQueries()) {
+
+            Trip tagged = new TaggedTrip(trip.getDistance(), trip.getPassengers(), trip.getWeather(), "tag");
+
+            Assert.assertEquals(TestUtil.expectedTransportation(trip), decider.outcome(tagged));
+            Assert.assertEquals(decider.predict(trip), decider.predict(tagged));
+            Assert.assertArrayEquals(decider.probabilities(trip), decider.probabilities(tagged), 0);
+            Assert.assertEquals(decider.top(trip, 2), decider.top(tagged, 2));
+        }
+    }
+
+    @Test
+    public void testHighCardinalityUsage () throws IOException {
+        List<Trip> trips = new ArrayList<>();
+
+        /*
+         * every trip has a weather of its own, the nodes under the distance split score dictionaries much bigger than their rows
+         */
+        for (int i = 0; i < 3000; i++) {
+            String transportation = (i % 3 != 0) ? "car" : (i % 2 == 0) ? "walk" : "bike";
+            trips.add(new Trip(i % 3, 1, "w" + i, transportation));
+        }
+
+        for (DecisionTreeImpl<Trip> decider: Arrays.asList(new DecisionTreeImpl<Trip>(), DecisionTreeImpl.<Trip>builder().parallelism(4).sequentialThreshold(100).build())) {
+
+            decider.learn(trips);
+
+            for (Trip trip: trips) {
+                Assert.assertEquals(Optional.of(trip.getTransportation()), decider.outcome(trip));
+            }
+
+            Assert.assertEquals(Optional.of("car"), decider.outcome(new Trip(1, 1, "unseen", null)));
+        }
+
+        /*
+         * the walked trips share their weathers with car trips and are split on the weathers of a third of the dictionary:
+         * the compacted child table is kept in the arrays, the generated code and the model file
+         */
+        List<Trip> shared = new ArrayList<>();
+
+        for (int i = 0; i < 3000; i++) {
+            String transportation = (i % 3 != 0) ? "car" : ((i / 3) % 2 == 0) ? "walk" : "bike";
+            shared.add(new Trip(i % 3, 1, "w" + (i / 3), transportation));
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            shared.add(new Trip(1 + i % 2, 1, "w" + (1000 + i), "car"));
+        }
+
+        DecisionTreeImpl<Trip> decider = new DecisionTreeImpl<>();
+        decider.learn(shared);
+
+        CompiledDecisionTree<Trip> compiled = decider.compile();
+        CompiledDecisionTree<Trip> generated = compiled.generate();
+
+        Path model = folder.newFile("shared.model").toPath();
+        compiled.writeTo(model);
+        MappedDecisionTree<Trip> mapped = MappedDecisionTree.open(model, Trip.class);
+
+        Assert.assertTrue(Arrays.stream(compiled.childCounts()).anyMatch((count) -> count < 0));
+        Assert.assertTrue(compiled.children().length < 3000);
+        Assert.assertTrue(generated.isGenerated());
+
+        List<Trip> queries = new ArrayList<>(shared);
+        queries.add(new Trip(0, 1, "unseen", null));
+        List<Optional<String>> outcomes = compiled.outcomes(queries);
+
+        for (int i = 0; i < queries.size(); i++) {
+
+            Trip trip = queries.get(i);
+            Optional<String> expected = (i < shared.size()) ? Optional.of(trip.getTransportation()) : decider.outcome(trip);
+
+            Assert.assertEquals(expected, decider.outcome(trip));
+            Assert.assertEquals(expected, compiled.outcome(trip));
+            Assert.assertEquals(expected, outcomes.get(i));
+            Assert.assertEquals(expected, generated.outcome(trip));
+            Assert.assertEquals(expected, mapped.outcome(trip));
+        }
+
+        /*
+         * the weather splits have children for the codes of their rows only, not one slot per value of the dictionary
+         */
+        Node root = new TreeLearner(Dataset.of(trips, ElementSchema.of(Trip.class)), new LearnerSettings()).grow();
+        List<Node> pending = new ArrayList<>(Collections.singletonList(root));
+        int weatherSplits = 0;
+
+        while (!pending.isEmpty()) {
+
+            Node node = pending.remove(pending.size() - 1);
+
+            if (node.isLeaf()) {
+                continue;
+            }
+
+            if (node.branches() == 3000) {
+                weatherSplits++;
+                Assert.assertTrue(node.getChildren().length <= node.getRows());
+            }
+
+            for (Node child: node.getChildren()) {
+                if (child != null) {
+                    pending.add(child);
+                }
+            }
+        }
+
+        Assert.assertTrue(weatherSplits > 0);
+    }
+
+    @Test
+    public void testParallelUsage () throws IOException {
+        DecisionTree<Transport> decider = DecisionTreeImpl.<Transport>builder().parallelism(4).sequentialThreshold(1).build();
+        decider.learn(TestUtil.readFromResource("transport.txt"));
+
+        TestUtil.readFromResource("testTransport.txt").forEach((e) -> {
+            Assert.assertTrue("Expected value not found", EXPECTED_RESULTS_AS_STRINGS.contains(e + " -> " + decider.outcome(e).orElse(null))); });
+    }
+
+    @Test
+    public void testCompiledUsage () throws IOException {
+        DecisionTreeImpl<Transport> decider = new DecisionTreeImpl<>();
+        decider.learn(TestUtil.readFromResource("transport.txt"));
+
+        CompiledDecisionTree<Transport> compiled = decider.compile();
+
+        TestUtil.readFromResource("testTransport.txt").forEach((e) -> {
+            Assert.assertEquals(decider.outcome(e), compiled.outcome(e));
+            Assert.assertTrue("Expected value not found", EXPECTED_RESULTS_AS_STRINGS.contains(e + " -> " + compiled.outcome(e).orElse(null))); });
+    }
+
+    @Test
+    public void testGeneratedUsage () throws IOException {
+        DecisionTreeImpl<Transport> decider = new DecisionTreeImpl<>();
+        decider.learn(TestUtil.readFromResource("transport.txt"));
+
+        CompiledDecisionTree<Transport> generated = decider.compile().generate();
+
+        TestUtil.readFromResource("testTransport.txt").forEach((e) -> {
+            Assert.assertEquals(decider.predict(e), generated.predict(e));
+            Assert.assertTrue("Expected value not found", EXPECTED_RESULTS_AS_STRINGS.contains(e + " -> " + generated.outcome(e).orElse(null))); });
+
+        /*
+         * random labels grow a big tree, cut in several generated methods
+         */
+        Random random = new Random(42);
+        List<Trip> trips = new ArrayList<>();
+
+        for (int i = 0; i < 2000; i++) {
+            trips.add(new Trip(random.nextInt(100) / 4.0, 1 + random.nextInt(5), Arrays.asList("Sun", "Rain", "Snow", "Fog").get(random.nextInt(4)),
+                    Arrays.asList("Walk", "Bus", "Car", "Bike").get(random.nextInt(4))));
+        }
+
+        DecisionTreeImpl<Trip> big = new DecisionTreeImpl<>();
+        big.learn(trips.subList(0, 1500));
+
+        CompiledDecisionTree<Trip> compiled = big.compile();
+        CompiledDecisionTree<Trip> bytecode = compiled.generate();
+
+        Assert.assertTrue(compiled.size() > 100);
+
+        List<Trip> queries = new ArrayList<>(trips);
+        queries.add(new Trip(Double.NaN, 3, "Hail", null));
+        queries.add(new Trip(7.5, 2, null, null));
+
+        for (Trip trip: queries) {
+            Assert.assertEquals(compiled.outcomeId(trip), bytecode.outcomeId(trip));
+            Assert.assertArrayEquals(compiled.probabilities(trip), bytecode.probabilities(trip), 0);
+        }
+    }
+
+    @Test
+    public void testGeneratedFanoutUsage () {
+
+        for (int values: new int[] {10_000, 100_000}) {
+
+            /*
+             * one split on a weather of many values, the values of every tenth weather are split again on the passengers
+             */
+            List<Trip> trips = new ArrayList<>();
+
+            for (int i = 0; i < values; i++) {
+
+                String transportation = Arrays.asList("Walk", "Bus", "Car").get(i % 3);
+
+                trips.add(new Trip(1, 1, "w" + i, transportation));
+
+                if (i % 10 == 0) {
+                    trips.add(new Trip(1, 2, "w" + i, "Bike"));
+                }
+            }
+
+            DecisionTreeImpl<Trip> decider = new DecisionTreeImpl<>();
+            decider.learn(trips);
+
+            CompiledDecisionTree<Trip> compiled = decider.compile();
+            CompiledDecisionTree<Trip> bytecode = compiled.generate();
+
+            /*
+             * the switch is cut in switch methods, a tree with too many constants for a class keeps walking the arrays
+             */
+            Assert.assertEquals(values < 50_000, bytecode.isGenerated());
+
+            List<Trip> queries = new ArrayList<>(trips);
+            queries.add(new Trip(1, 1, "unseen", null));
+            queries.add(new Trip(1, 1, null, null));
+
+            for (Trip trip: queries) {
+                Assert.assertEquals(compiled.outcomeId(trip), bytecode.outcomeId(trip));
+            }
+
+            Assert.assertEquals(Optional.of("Bike"), bytecode.outcome(new Trip(1, 2, "w" + (values - 10), null)));
+        }
+    }
+
+    @Test
+    public void testBatchUsage () throws IOException {
+        DecisionTreeImpl<Transport> decider = new DecisionTreeImpl<>();
+        decider.learn(TestUtil.readFromResource("transport.txt"));
+
+        List<Transport> elements = TestUtil.readFromResource("testTransport.txt");
+        List<Optional<String>> outcomes = decider.outcomes(elements);
+
+        Assert.assertEquals(elements.size(), outcomes.size());
+
+        for (int i = 0; i < elements.size(); i++) {
+            Assert.assertEquals(decider.outcome(elements.get(i)), outcomes.get(i));
+        }
+    }
+
+    @Test
+    public void testMappedUsage () throws IOException {
+        DecisionTreeImpl<Transport> decider = new DecisionTreeImpl<>();
+        decider.learn(TestUtil.readFromResource("transport.txt"));
+
+        Path model = folder.newFile("transport.model").toPath();
+        decider.compile().writeTo(model);
+
+        MappedDecisionTree<Transport> mapped = MappedDecisionTree.open(model, Transport.class);
+
+        TestUtil.readFromResource("testTransport.txt").forEach((e) -> Assert.assertEquals(decider.outcome(e), mapped.outcome(e)));
+
+        /*
+         * truncated or corrupt files fail to open
+         */
+        byte[] bytes = Files.readAllBytes(model);
+        IntBuffer ints = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        int root = ints.get(ModelFormat.H_NODE_TABLE);
+        int child = ints.get(ModelFormat.H_CHILD_TABLE) + ints.get(root + 1);
+
+        assertCorrupt(Arrays.copyOf(bytes, bytes.length / 2), 0, 0);
+        assertCorrupt(Arrays.copyOf(bytes, ints.get(ModelFormat.H_STRINGS) * Integer.BYTES), 0, 0);
+        assertCorrupt(bytes, ModelFormat.H_VERSION, 2);
+        assertCorrupt(bytes, ModelFormat.H_NODES, 1 << 28);
+        assertCorrupt(bytes, root + 1, -1);
+        assertCorrupt(bytes, child, 0);
+        assertCorrupt(bytes, ints.get(ModelFormat.H_CLASS_TABLE) + 1, bytes.length);
+    }
+
+    /**
+     *
+     * Assert that a model file with one int changed does not open
+     */
+    private void assertCorrupt (final byte[] bytes, final int index, final int value) throws IOException {
+
+        byte[] corrupt = bytes.clone();
+
+        if (index > 0) {
+            ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(index * Integer.BYTES, value);
+        }
+
+        Path model = folder.newFile().toPath();
+        Files.write(model, corrupt);
+
+        try {
+            MappedDecisionTree.open(model, Transport.class);
+            Assert.fail("The corrupt model should not open");
+        } catch (IOException expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().startsWith("Corrupt model") || expected.getMessage().startsWith("Unsupported"));
+        }
+    }
+
+    @Test
+    public void testFallbackUsage () throws IOException {
+        DecisionTreeImpl<Trip> decider = new DecisionTreeImpl<>();
+        decider.learn(TestUtil.generateTrips());
+
+        CompiledDecisionTree<Trip> compiled = decider.compile();
+        Path model = folder.newFile("trips.model").toPath();
+        compiled.writeTo(model);
+
+        MappedDecisionTree<Trip> mapped = MappedDecisionTree.open(model, Trip.class);
+
+        Trip known = new Trip(12.25, 4, "Snow", null);
+        Assert.assertEquals(Optional.of(new Prediction("Car", 1.0)), decider.predict(known));
+
+        /*
+         * an unseen and a missing weather stop the lookup at the weather split, which predicts its majority class
+         */
+        List<Trip> unknown = Arrays.asList(new Trip(12.25, 4, "Fog", null), new Trip(7.5, 1, null, null));
+        List<Optional<String>> outcomes = decider.outcomes(unknown);
+
+        for (int i = 0; i < unknown.size(); i++) {
+            Trip trip = unknown.get(i);
+            Prediction prediction = decider.predict(trip).orElseThrow(AssertionError::new);
+
+            Assert.assertTrue(prediction.getConfidence() > 0 && prediction.getConfidence() < 1);
+            Assert.assertEquals(Optional.of(prediction.getLabel()), decider.outcome(trip));
+            Assert.assertEquals(Optional.of(prediction), compiled.predict(trip));
+            Assert.assertEquals(Optional.of(prediction), mapped.predict(trip));
+            Assert.assertEquals(decider.outcome(trip), outcomes.get(i));
+        }
+
+        RandomForest<Trip> forest = RandomForest.<Trip>builder().trees(10).seed(1).build();
+        forest.learn(TestUtil.generateTrips());
+
+        Prediction vote = forest.predict(unknown.get(0)).orElseThrow(AssertionError::new);
+        Assert.assertEquals(Optional.of(vote.getLabel()), forest.outcome(unknown.get(0)));
+        Assert.assertTrue(vote.getConfidence() > 0 && vote.getConfidence() <= 1);
+    }
+
+    @Test
+    public void testProbabilityUsage () throws IOException {
+        DecisionTreeImpl<Trip> decider = DecisionTreeImpl.<Trip>builder().maxDepth(2).build();
+        decider.learn(TestUtil.generateTrips());
+
+        CompiledDecisionTree<Trip> compiled = decider.compile();
+        Path model = folder.newFile("probabilities.model").toPath();
+        compiled.writeTo(model);
+
+        MappedDecisionTree<Trip> mapped = MappedDecisionTree.open(model, Trip.class);
+        double[] probabilities = new double[compiled.classCount()];
+
+        Assert.assertEquals(decider.classes().size(), compiled.classCount());
+
+        for (Trip trip: Arrays.asList(new Trip(1.5, 3, "Sun", null), new Trip(2.7, 1, "Rain", null), new Trip(12.25, 4, "Snow", null), new Trip(7.5, 2, "Fog", null))) {
+            Assert.assertTrue(decider.probabilities(trip, probabilities));
+            Assert.assertEquals(1, Arrays.stream(probabilities).sum(), 1e-9);
+            Assert.assertArrayEquals(probabilities, compiled.probabilities(trip), 0);
+            Assert.assertArrayEquals(probabilities, mapped.probabilities(trip), 0);
+
+            List<Prediction> top = decider.top(trip, 2);
+
+            Assert.assertFalse(top.isEmpty());
+            Assert.assertEquals(decider.predict(trip), Optional.of(top.get(0)));
+            Assert.assertEquals(top, compiled.top(trip, 2));
+            Assert.assertEquals(top, mapped.top(trip, 2));
+
+            for (int i = 0; i < top.size(); i++) {
+                Assert.assertEquals(probabilities[decider.classes().indexOf(top.get(i).getLabel())], top.get(i).getConfidence(), 0);
+                Assert.assertTrue(i == 0 || top.get(i - 1).getConfidence() >= top.get(i).getConfidence());
+            }
+        }
+
+        RandomForest<Trip> forest = RandomForest.<Trip>builder().trees(10).seed(1).build();
+        forest.learn(TestUtil.generateTrips());
+
+        Trip trip = new Trip(7.5, 2, "Sun", null);
+        List<Prediction> votes = forest.top(trip, forest.classes().size());
+
+        Assert.assertEquals(1, Arrays.stream(forest.probabilities(trip)).sum(), 1e-9);
+        Assert.assertEquals(forest.outcome(trip), Optional.of(votes.get(0).getLabel()));
+    }
+
+    @Test
+    public void testNumericUsage () throws IOException {
+        DecisionTreeImpl<Trip> decider = new DecisionTreeImpl<>();
+        decider.learn(TestUtil.generateTrips());
+
+        CompiledDecisionTree<Trip> compiled = decider.compile();
+
+        Path model = folder.newFile("trip.model").toPath();
+        compiled.writeTo(model);
+        MappedDecisionTree<Trip> mapped = MappedDecisionTree.open(model, Trip.class);
+
+        TestUtil.assertLearnsTrips(decider);
+
+        List<Trip> trips = new ArrayList<>(TestUtil.tripQueries());
+        trips.add(new Trip(-3, 1, "Rain", null));
+        List<Optional<String>> outcomes = compiled.outcomes(trips);
+
+        for (int i = 0; i < trips.size(); i++) {
+
+            Trip trip = trips.get(i);
+            Optional<String> expected = TestUtil.expectedTransportation(trip);
+
+            Assert.assertEquals(expected, compiled.outcome(trip));
+            Assert.assertEquals(expected, outcomes.get(i));
+            Assert.assertEquals(expected, mapped.outcome(trip));
+        }
+    }
+
+    @Test
+    public void testGeneratedSchemaUsage () throws Throwable {
+        ElementSchema generated = ElementSchema.of(Trip.class);
+
+        Assert.assertTrue(generated.isGenerated());
+        Assert.assertFalse(ElementSchema.of(Transport.class).isGenerated());
+
+        Assert.assertEquals(3, generated.attributeCount());
+        Assert.assertEquals("weather", generated.attributeName(2));
+        Assert.assertTrue(generated.isNumeric(0) && generated.isNumeric(1) && !generated.isNumeric(2));
+        Assert.assertEquals(Optional.of("transportation"), generated.classFieldName());
+
+        String[] values = new String[generated.attributeCount()];
+        double[] numbers = new double[generated.attributeCount()];
+
+        for (Trip trip: TestUtil.generateTrips()) {
+
+            generated.read(trip, values, numbers);
+
+            Assert.assertEquals(trip.getDistance(), numbers[0], 0);
+            Assert.assertEquals(trip.getPassengers(), numbers[1], 0);
+            Assert.assertEquals(trip.getWeather(), values[2]);
+            Assert.assertEquals(String.valueOf(trip.getPassengers()), generated.value(1, trip));
+            Assert.assertEquals(trip.getTransportation(), generated.classValue(trip));
+        }
+
+        /*
+         * the legacy by name accessors still work, with the getters resolved on first use
+         */
+        DecisionTreeImpl<Trip> decider = new DecisionTreeImpl<>();
+        Assert.assertEquals(Double.valueOf(2.5), decider.getValueFromInstance("distance", Double.class, new Trip(2.5, 1, "Sun", "walk")));
+    }
+
+    @Test
+    public void testListenerUsage () throws Exception {
+        AtomicInteger nodes = new AtomicInteger();
+        AtomicInteger encoded = new AtomicInteger();
+        List<TreeStatistics> learned = Collections.synchronizedList(new ArrayList<>());
+
+        TrainingListener listener = new TrainingListener() {
+
+            @Override
+            public void encoded (final int rows, final int attributes, final long nanos) {
+                encoded.addAndGet(rows);
+            }
+
+            @Override
+            public void node (final int depth, final int rows, final int scored, final long scoreNanos, final long partitionNanos) {
+                nodes.incrementAndGet();
+            }
+
+            @Override
+            public void learned (final TreeStatistics statistics) {
+                learned.add(statistics);
+            }
+        };
+
+        ScoringStatistics statistics = new ScoringStatistics();
+        DecisionTreeImpl<Trip> decider = DecisionTreeImpl.<Trip>builder().parallelism(4).sequentialThreshold(1).listener(listener).scoringStatistics(statistics).build();
+        List<Trip> trips = TestUtil.generateTrips();
+        decider.learn(trips);
+
+        TreeStatistics tree = learned.get(0);
+
+        Assert.assertEquals(trips.size(), encoded.get());
+        Assert.assertEquals(nodes.get(), tree.getNodes());
+        Assert.assertEquals(trips.size(), tree.getRows());
+        Assert.assertEquals(tree.getLeaves(), Arrays.stream(tree.getLeavesPerDepth()).sum());
+        Assert.assertEquals(tree.getDepth() + 1, tree.getLeavesPerDepth().length);
+        Assert.assertTrue(tree.getLeaves() < tree.getNodes());
+
+        /*
+         * in histogram mode the values folded in the same bin share their sub tree, counted once
+         */
+        learned.clear();
+        nodes.set(0);
+
+        List<Trip> folded = new ArrayList<>();
+
+        for (int i = 0; i < 4000; i++) {
+            folded.add(new Trip(i % 7, 1 + i % 3, "w" + (i % 400), ((i % 400) < 200) ? "walk" : "bike"));
+        }
+
+        DecisionTreeImpl<Trip> binned = DecisionTreeImpl.<Trip>builder().maxBins(8).listener(listener).build();
+        binned.learn(folded);
+
+        Assert.assertEquals(nodes.get(), learned.get(0).getNodes());
+        Assert.assertEquals(binned.compile().size(), learned.get(0).getNodes());
+
+        /*
+         * an unseen weather stops the lookup before a leaf, a miss
+         */
+        decider.outcome(new Trip(12.25, 4, "Snow", null));
+        decider.predict(new Trip(12.25, 4, "Fog", null));
+
+        Assert.assertEquals(2, statistics.getOutcomes());
+        Assert.assertEquals(1, statistics.getMisses());
+        Assert.assertEquals(0.5, statistics.getMissRate(), 0);
+        Assert.assertTrue(statistics.getMaxLatencyNanos() > 0);
+
+        ObjectName name = statistics.register("trips");
+
+        try {
+            Assert.assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Outcomes"));
+        } finally {
+            ScoringStatistics.unregister(name);
+        }
+
+        /*
+         * the batches, the probabilities and the top outcomes are counted too
+         */
+        statistics.reset();
+
+        decider.outcomes(Arrays.asList(new Trip(12.25, 4, "Snow", null), new Trip(12.25, 4, "Fog", null), new Trip(2.7, 1, "Hail", null)));
+        decider.probabilities(new Trip(12.25, 4, "Snow", null));
+        decider.top(new Trip(12.25, 4, "Fog", null), 2);
+
+        Assert.assertEquals(5, statistics.getOutcomes());
+        Assert.assertEquals(3, statistics.getMisses());
+
+        RandomForest.<Trip>builder().trees(3).seed(1).listener(listener).build().learn(trips);
+
+        Assert.assertEquals(4, learned.size());
+    }
+
+    @Test
+    public void testCriterionUsage () throws IOException {
+        for (SplitCriterion criterion: Arrays.asList(SplitCriterion.ENTROPY, SplitCriterion.GAIN_RATIO, SplitCriterion.CHI_SQUARE)) {
+
+            DecisionTreeImpl<Trip> exact = DecisionTreeImpl.<Trip>builder().criterion(criterion).build();
+            exact.learn(TestUtil.generateTrips());
+
+            DecisionTreeImpl<Trip> histogram = DecisionTreeImpl.<Trip>builder().criterion(criterion).maxBins(32).build();
+            histogram.learn(TestUtil.generateTrips());
+
+            TestUtil.assertLearnsTrips(exact);
+            TestUtil.assertLearnsTrips(histogram);
+        }
+
+        /*
+         * two perfect splits of the same rows, one on an ID like attribute: the gains are the same, the gain ratio prefers the two branches
+         */
+        ContingencyTable identifiers = new ContingencyTable(4, 2);
+        identifiers.add(0, 0, 5);
+        identifiers.add(1, 0, 5);
+        identifiers.add(2, 1, 5);
+        identifiers.add(3, 1, 5);
+
+        ContingencyTable halves = new ContingencyTable(2, 2);
+        halves.add(0, 0, 10);
+        halves.add(1, 1, 10);
+
+        Assert.assertEquals(SplitCriterion.GINI.score(halves), SplitCriterion.GINI.score(identifiers), 1e-12);
+        Assert.assertEquals(SplitCriterion.ENTROPY.score(halves), SplitCriterion.ENTROPY.score(identifiers), 1e-12);
+        Assert.assertEquals(1.0, SplitCriterion.GAIN_RATIO.score(halves), 1e-12);
+        Assert.assertEquals(0.5, SplitCriterion.GAIN_RATIO.score(identifiers), 1e-12);
+        Assert.assertEquals(20.0, SplitCriterion.CHI_SQUARE.score(halves), 1e-12);
+
+        DecisionTree<Transport> custom = DecisionTreeImpl.<Transport>builder().criterion((counts) -> SplitCriterion.GINI.score(counts)).build();
+        custom.learn(TestUtil.readFromResource("transport.txt"));
+
+        TestUtil.readFromResource("testTransport.txt").forEach((e) -> {
+            Assert.assertTrue("Expected value not found", EXPECTED_RESULTS_AS_STRINGS.contains(e + " -> " + custom.outcome(e).orElse(null))); });
+    }
+
+    @Test
+    public void testHistogramUsage () throws IOException {
+        DecisionTree<Transport> decider = DecisionTreeImpl.<Transport>builder().maxBins(256).build();
+        decider.learn(TestUtil.readFromResource("transport.txt"));
+
+        TestUtil.readFromResource("testTransport.txt").forEach((e) -> {
+            Assert.assertTrue("Expected value not found", EXPECTED_RESULTS_AS_STRINGS.contains(e + " -> " + decider.outcome(e).orElse(null))); });
+
+        DecisionTreeImpl<Trip> sequential = DecisionTreeImpl.<Trip>builder().maxBins(8).build();
+        sequential.learn(TestUtil.generateTrips());
+
+        DecisionTreeImpl<Trip> parallel = DecisionTreeImpl.<Trip>builder().maxBins(8).parallelism(4).sequentialThreshold(1).build();
+        parallel.learn(TestUtil.generateTrips());
+
+        TestUtil.assertLearnsTrips(sequential);
+        TestUtil.assertLearnsTrips(parallel);
+    }
+
+    @Test
+    public void testSamplingUsage () {
+        List<Trip> trips = TestUtil.generateTrips();
+
+        DecisionTreeImpl<Trip> sequential = DecisionTreeImpl.<Trip>builder().rowsPerSplit(100).attributesPerSplit(2).seed(7).build();
+        sequential.learn(trips);
+
+        DecisionTreeImpl<Trip> parallel = DecisionTreeImpl.<Trip>builder().rowsPerSplit(100).attributesPerSplit(2).seed(7).parallelism(4).sequentialThreshold(1).build();
+        parallel.learn(trips);
+
+        DecisionTreeImpl<Trip> histogram = DecisionTreeImpl.<Trip>builder().maxBins(32).attributesPerSplit(2).seed(7).build();
+        histogram.learn(trips);
+
+        TestUtil.assertLearnsTrips(sequential);
+        TestUtil.assertLearnsTrips(histogram);
+
+        /*
+         * the samples depend on the seed and on the nodes only, not on the scheduling
+         */
+        Assert.assertEquals(sequential.outcomes(trips), parallel.outcomes(trips));
+    }
+
+    @Test
+    public void testCompactUsage () throws IOException {
+        Node[] children = new Node[10];
+        children[2] = TreeLearner.leaf(new int[] {3, 0});
+        children[7] = TreeLearner.leaf(new int[] {0, 3});
+
+        Node node = new Node();
+        node.setCounts(new int[] {3, 3});
+        node.setAttribute(0);
+        node.setChildren(children);
+        node.compactChildren();
+
+        Assert.assertEquals(2, node.getChildren().length);
+        Assert.assertEquals(10, node.branches());
+        Assert.assertSame(children[2], node.child(2));
+        Assert.assertSame(children[7], node.child(7));
+        Assert.assertNull(node.child(3));
+        Assert.assertNull(node.child(12));
+
+        /*
+         * the leaves of the same class counts share one array
+         */
+        Dataset data = Dataset.of(TestUtil.generateTrips(), ElementSchema.of(Trip.class));
+        Node root = new TreeLearner(data, new LearnerSettings()).grow();
+
+        Assert.assertTrue(NodeCompactor.compact(root) < TreeStatistics.of(root, 0, -1).getNodes());
+
+        DecisionTreeImpl<Transport> decider = new DecisionTreeImpl<>();
+        decider.learn(TestUtil.readFromResource("transport.txt"));
+
+        CompiledDecisionTree<Transport> compiled = decider.compile();
+
+        TestUtil.readFromResource("testTransport.txt").forEach((e) -> {
+            Assert.assertEquals(decider.outcome(e), compiled.outcome(e));
+            Assert.assertTrue("Expected value not found", EXPECTED_RESULTS_AS_STRINGS.contains(e + " -> " + decider.outcome(e).orElse(null))); });
+    }
+
+    @Test
+    public void testBestFirstUsage () {
+        List<Trip> trips = TestUtil.generateTrips();
+        Dataset data = Dataset.of(trips, ElementSchema.of(Trip.class));
+
+        LearnerSettings settings = new LearnerSettings();
+        settings.maxLeaves = 3;
+
+        Assert.assertEquals(3, TreeStatistics.of(new TreeLearner(data, settings).grow(), 0, -1).getLeaves());
+
+        settings.maxBins = 32;
+
+        Assert.assertTrue(TreeStatistics.of(new HistogramTreeLearner(data, settings).grow(), 0, -1).getLeaves() <= 3);
+
+        /*
+         * a big enough budget grows the same tree as the depth first growth, whatever the parallelism
+         */
+        DecisionTreeImpl<Trip> depthFirst = new DecisionTreeImpl<>();
+        depthFirst.learn(trips);
+
+        DecisionTreeImpl<Trip> bestFirst = DecisionTreeImpl.<Trip>builder().maxLeaves(100_000).build();
+        bestFirst.learn(trips);
+
+        DecisionTreeImpl<Trip> parallel = DecisionTreeImpl.<Trip>builder().maxLeaves(100_000).parallelism(4).sequentialThreshold(16).build();
+        parallel.learn(trips);
+
+        Assert.assertEquals(depthFirst.outcomes(trips), bestFirst.outcomes(trips));
+        Assert.assertEquals(depthFirst.outcomes(trips), parallel.outcomes(trips));
+
+        /*
+         * alternating classes along a numeric field peel one row per split, the tree is as deep as the rows
+         */
+        List<Trip> chain = new ArrayList<>();
+
+        for (int i = 0; i < 400; i++) {
+            chain.add(new Trip(i, 1, "Sun", (i % 2 == 0) ? "walk" : "bike"));
+        }
+
+        List<TreeStatistics> learned = new ArrayList<>();
+
+        TrainingListener listener = new TrainingListener() {
+
+            @Override
+            public void learned (final TreeStatistics statistics) {
+                learned.add(statistics);
+            }
+        };
+
+        DecisionTreeImpl<Trip> deep = DecisionTreeImpl.<Trip>builder().costComplexityAlpha(1e-9).listener(listener).build();
+        deep.learn(chain);
+
+        Assert.assertTrue(learned.get(0).getDepth() > 100);
+        Assert.assertEquals(Optional.of("bike"), deep.outcome(new Trip(199, 1, "Sun", null)));
+
+        DecisionTreeImpl<Trip> deepParallel = DecisionTreeImpl.<Trip>builder().parallelism(4).sequentialThreshold(50).build();
+        deepParallel.learn(chain);
+
+        Assert.assertEquals(deep.outcomes(chain), deepParallel.outcomes(chain));
+
+        /*
+         * a chain far deeper than any call stack is walked, pruned, compacted and compiled without recursion
+         */
+        Node root = TreeLearner.leaf(new int[] {1, 0});
+
+        for (int i = 0; i < 200_000; i++) {
+
+            Node node = new Node();
+            node.setCounts(new int[] {1, i + 1});
+            node.setAttribute(0);
+            node.setThreshold(i + 0.5);
+            node.setChildren(new Node[] {TreeLearner.leaf(new int[] {0, 1}), root});
+            root = node;
+        }
+
+        Dataset chainData = Dataset.of(chain, ElementSchema.of(Trip.class));
+        CompiledDecisionTree<Trip> compiled = CompiledDecisionTree.compile(ElementSchema.of(Trip.class), root, chainData.dictionaries(), chainData.classes());
+
+        Assert.assertEquals(200_000, TreeStatistics.of(root, 0, -1).getDepth());
+        Assert.assertEquals(1, compiled.outcomeId(new Trip(-1, 1, "Sun", null)));
+        Assert.assertEquals(0, compiled.outcomeId(new Trip(1e9, 1, "Sun", null)));
+
+        NodeCompactor.compact(root);
+        CostComplexityPruner.prune(root, 1);
+
+        Assert.assertTrue(root.isLeaf());
+    }
+
+    @Test
+    public void testForestUsage () {
+        List<Trip> trips = TestUtil.generateTrips();
+
+        RandomForest<Trip> forest = RandomForest.<Trip>builder().trees(32).seed(42).parallelism(4).build();
+        forest.learn(trips);
+
+        RandomForest<Trip> sequential = RandomForest.<Trip>builder().trees(32).seed(42).parallelism(1).build();
+        sequential.learn(trips);
+
+        Assert.assertEquals(32, forest.size());
+
+        TestUtil.assertLearnsTrips(forest);
+
+        /*
+         * the same seed gives the same forest whatever the parallelism
+         */
+        Assert.assertEquals(sequential.outcomes(trips), forest.outcomes(trips));
+    }
+
+    @Test
+    public void testBoostingUsage () throws IOException {
+        List<Trip> trips = TestUtil.generateTrips();
+
+        GradientBoostedTrees<Trip> boosted = GradientBoostedTrees.<Trip>builder().rounds(50).learningRate(0.3).maxBins(32).build();
+        boosted.learn(trips);
+
+        Assert.assertEquals(50, boosted.rounds());
+
+        TestUtil.assertLearnsTrips(boosted);
+
+        for (Trip trip: TestUtil.tripQueries()) {
+            Assert.assertEquals(boosted.outcome(trip).get(), boosted.top(trip, 1).get(0).getLabel());
+            Assert.assertEquals(1.0, Arrays.stream(boosted.probabilities(trip)).sum(), 1e-9);
+        }
+
+        /*
+         * with a quarter of the labels shuffled the held out trips stop the learning once the model starts fitting the noise
+         */
+        Random random = new Random(42);
+        List<Trip> noisy = new ArrayList<>();
+        List<String> labels = Arrays.asList("Walk", "Bus", "Car", "Bike");
+
+        for (Trip trip: trips) {
+            String label = (random.nextInt(4) == 0) ? labels.get(random.nextInt(labels.size())) : trip.getTransportation();
+            noisy.add(new Trip(trip.getDistance(), trip.getPassengers(), trip.getWeather(), label));
+        }
+
+        GradientBoostedTrees<Trip> stopped = GradientBoostedTrees.<Trip>builder().rounds(1000).learningRate(0.5).maxBins(32).earlyStopping(5, 0.2).seed(42).build();
+        stopped.learn(noisy);
+
+        Assert.assertTrue(stopped.rounds() < 1000);
+
+        GradientBoostedTrees<Transport> transport = GradientBoostedTrees.<Transport>builder().rounds(20).learningRate(0.5).build();
+        transport.learn(TestUtil.readFromResource("transport.txt"));
+
+        TestUtil.readFromResource("testTransport.txt").forEach((e) -> {
+            Assert.assertTrue("Expected value not found", EXPECTED_RESULTS_AS_STRINGS.contains(e + " -> " + transport.outcome(e).orElse(null))); });
+    }
+
+    @Test
+    public void testStreamingUsage () throws Exception {
+        Path path = Paths.get(getClass().getClassLoader().getResource("transport.txt").toURI());
+
+        DecisionTreeImpl<Transport> decider = new DecisionTreeImpl<>();
+        decider.learn(new CsvRowSource<>(path, (values) -> {
+            Transport t = new Transport();
+            t.setGender(values[0]);
+            t.setHasCar(values[1]);
+            t.setCostPerKm(values[2]);
+            t.setIncome(values[3]);
+            t.setTransportation(values[4]);
+            return t;
+        }));
+
+        TestUtil.readFromResource("testTransport.txt").forEach((e) -> {
+            Assert.assertTrue("Expected value not found", EXPECTED_RESULTS_AS_STRINGS.contains(e + " -> " + decider.outcome(e).orElse(null))); });
+
+        List<Trip> trips = TestUtil.generateTrips();
+
+        DecisionTreeImpl<Trip> streamed = new DecisionTreeImpl<>();
+        streamed.learn(trips::iterator);
+
+        TestUtil.assertLearnsTrips(streamed);
+
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        AtomicInteger failAt = new AtomicInteger(-1);
+
+        class ClosingIterator implements java.util.Iterator<Trip>, AutoCloseable {
+
+            private int row;
+
+            @Override
+            public boolean hasNext () {
+                return row < trips.size();
+            }
+
+            @Override
+            public Trip next () {
+
+                if (opened.get() > 1 && row == failAt.get()) {
+                    throw new IllegalStateException("Failed row " + row);
+                }
+
+                return trips.get(row++);
+            }
+
+            @Override
+            public void close () {
+                closed.incrementAndGet();
+            }
+        }
+
+        RowSource<Trip> closing = () -> {
+            opened.incrementAndGet();
+            return new ClosingIterator();
+        };
+
+        Assert.assertTrue(new DecisionTreeImpl<Trip>().learn(closing));
+        Assert.assertTrue(opened.get() > 1);
+        Assert.assertEquals(opened.get(), closed.get());
+
+        opened.set(0);
+        closed.set(0);
+        failAt.set(10);
+
+        try {
+            new DecisionTreeImpl<Trip>().learn(closing);
+            Assert.fail("The failing pass should be thrown");
+        } catch (IllegalStateException expected) {
+            Assert.assertEquals(2, opened.get());
+            Assert.assertEquals(2, closed.get());
+        }
+
+        CsvRowSource<Transport> csv = new CsvRowSource<>(path, (values) -> new Transport());
+        java.util.Iterator<Transport> abandoned = csv.iterator();
+        Assert.assertTrue(abandoned.hasNext());
+
+        ((AutoCloseable) abandoned).close();
+        Assert.assertFalse(abandoned.hasNext());
+    }
+
+    @Test
+    public void testOnlineUsage () {
+        HoeffdingTree<Trip> tree = HoeffdingTree.<Trip>builder().gracePeriod(100).build();
+        List<Trip> trips = new ArrayList<>(TestUtil.generateTrips());
+        Random random = new Random(1);
+
+        for (int epoch = 0; epoch < 100; epoch++) {
+            Collections.shuffle(trips, random);
+            tree.update(trips);
+        }
+
+        for (Trip trip: Arrays.asList(new Trip(0.5, 3, "Sun", null), new Trip(10, 1, "Rain", null), new Trip(12.25, 4, "Snow", null), new Trip(15, 1, "Sun", null))) {
+            Assert.assertEquals(TestUtil.expectedTransportation(trip), tree.outcome(trip));
+        }
+    }
+
+    @Test
+    public void testConcurrentUsage () throws Exception {
+        DecisionTreeImpl<Trip> decider = new DecisionTreeImpl<>();
+        List<Trip> trips = TestUtil.generateTrips();
+
+        decider.learn(trips);
+
+        ExecutorService scorers = Executors.newFixedThreadPool(4);
+        AtomicBoolean learning = new AtomicBoolean(true);
+        List<Future<?>> results = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            results.add(scorers.submit(() -> {
+                while (learning.get()) {
+                    TestUtil.assertLearnsTrips(decider);
+                }
+            }));
+        }
+
+        try {
+            for (int i = 0; i < 20; i++) {
+                Assert.assertTrue(decider.learn(trips));
+            }
+        } finally {
+            learning.set(false);
+            scorers.shutdown();
+        }
+
+        for (Future<?> result: results) {
+            result.get();
+        }
+
+        Assert.assertTrue(scorers.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPruningUsage () {
+        List<Trip> trips = new ArrayList<>();
+        Random random = new Random(1);
+        String[] transportations = {"Walk", "Bus", "Car", "Bike"};
+
+        /*
+         * 5% of the outcomes changed at random, a fully grown tree learns the noise too
+         */
+        for (Trip trip: TestUtil.generateTrips()) {
+            if (random.nextInt(20) == 0) {
+                trip.setTransportation(transportations[random.nextInt(transportations.length)]);
+            }
+            trips.add(trip);
+        }
+
+        DecisionTreeImpl<Trip> full = new DecisionTreeImpl<>();
+        full.learn(trips);
+        int fullSize = full.compile().labels().length;
+
+        DecisionTreeImpl<Trip> shallow = DecisionTreeImpl.<Trip>builder().maxDepth(1).build();
+        shallow.learn(trips);
+        Assert.assertEquals(1, Arrays.stream(shallow.compile().attributes()).filter((a) -> a >= 0).count());
+
+        for (DecisionTreeImpl<Trip> decider: Arrays.asList(
+                DecisionTreeImpl.<Trip>builder().costComplexityAlpha(0.01).build(),
+                DecisionTreeImpl.<Trip>builder().minSamplesLeaf(10).build(),
+                DecisionTreeImpl.<Trip>builder().minImpurityDecrease(0.01).build(),
+                DecisionTreeImpl.<Trip>builder().maxBins(32).costComplexityAlpha(0.01).build())) {
+
+            decider.learn(trips);
+
+            Assert.assertTrue(decider.compile().labels().length < fullSize);
+
+            TestUtil.assertLearnsTrips(decider);
+
+            for (Trip trip: TestUtil.tripQueries()) {
+                Assert.assertEquals(decider.outcome(trip), decider.compile().outcome(trip));
+            }
+        }
+
+        DecisionTreeImpl<Trip> streamed = DecisionTreeImpl.<Trip>builder().maxDepth(4).costComplexityAlpha(0.01).build();
+        streamed.learn(trips::iterator);
+
+        TestUtil.assertLearnsTrips(streamed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxDepth () {
+        DecisionTreeImpl.<Trip>builder().maxDepth(0);
+    }
+
+    public static class TaggedTrip extends Trip {
+
+        private String tag;
+
+        public TaggedTrip (final double distance, final int passengers, final String weather, final String tag) {
+            super(distance, passengers, weather, null);
+            this.tag = tag;
+        }
+
+        public String getTag () {
+            return tag;
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package ro.comanitza.simpletree;
 
+import org.junit.Assert;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 
 /**
  *
@@ -47,4 +51,68 @@ public class TestUtil {
             transports.add(t);
         }
     }
+
+    /**
+     *
+     * Generate trips where short trips are walked, rainy trips are done by bus, the rest by car for groups and by bike otherwise
+     *
+     * @return the generated trips
+     */
+    public static List<Trip> generateTrips () {
+
+        List<Trip> trips = new ArrayList<>();
+
+        for (int distance = 0; distance < 20; distance++) {
+            for (int passengers = 1; passengers < 6; passengers++) {
+                for (String weather: new String[] {"Sun", "Rain", "Snow"}) {
+                    trips.add(new Trip(distance, passengers, weather, expectedTransportation(distance, passengers, weather)));
+                }
+            }
+        }
+
+        return trips;
+    }
+
+    /**
+     *
+     * @return trips with no outcome, one for every rule of the generated trips
+     */
+    public static List<Trip> tripQueries () {
+        return Arrays.asList(new Trip(1.5, 3, "Sun", null), new Trip(2.7, 1, "Rain", null), new Trip(12.25, 4, "Snow", null), new Trip(7.5, 2, "Sun", null));
+    }
+
+    /**
+     *
+     * Assert that a tree learned from the generated trips scores the {@link #tripQueries()} by the rules, one at a time and as a batch
+     */
+    public static void assertLearnsTrips (final DecisionTree<Trip> decider) {
+
+        List<Trip> queries = tripQueries();
+        List<Optional<String>> outcomes = decider.outcomes(queries);
+
+        for (int i = 0; i < queries.size(); i++) {
+
+            Optional<String> expected = expectedTransportation(queries.get(i));
+
+            Assert.assertEquals(expected, decider.outcome(queries.get(i)));
+            Assert.assertEquals(expected, outcomes.get(i));
+        }
+    }
+
+    public static Optional<String> expectedTransportation (final Trip trip) {
+        return Optional.of(expectedTransportation(trip.getDistance(), trip.getPassengers(), trip.getWeather()));
+    }
+
+    public static String expectedTransportation (final double distance, final int passengers, final String weather) {
+
+        if (distance <= 2) {
+            return "Walk";
+        }
+
+        if ("Rain".equals(weather)) {
+            return "Bus";
+        }
+
+        return (passengers > 2) ? "Car" : "Bike";
+    }
 }
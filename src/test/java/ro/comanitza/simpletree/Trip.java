@@ -0,0 +1,68 @@
+package ro.comanitza.simpletree;
+
+/**
+ *
+ * Test element with numeric fields
+ *
+ * @author comanitza
+ */
+@TreeElement
+public class Trip implements Element {
+
+    private double distance;
+    private int passengers;
+    private String weather;
+    @ClassField
+    private String transportation;
+
+    public Trip() {}
+
+    public Trip(double distance, int passengers, String weather, String transportation) {
+        this.distance = distance;
+        this.passengers = passengers;
+        this.weather = weather;
+        this.transportation = transportation;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public void setDistance(double distance) {
+        this.distance = distance;
+    }
+
+    public int getPassengers() {
+        return passengers;
+    }
+
+    public void setPassengers(int passengers) {
+        this.passengers = passengers;
+    }
+
+    public String getWeather() {
+        return weather;
+    }
+
+    public void setWeather(String weather) {
+        this.weather = weather;
+    }
+
+    public String getTransportation() {
+        return transportation;
+    }
+
+    public void setTransportation(String transportation) {
+        this.transportation = transportation;
+    }
+
+    @Override
+    public String toString() {
+        return "Trip{" +
+                "distance=" + distance +
+                ", passengers=" + passengers +
+                ", weather='" + weather + '\'' +
+                ", transportation='" + transportation + '\'' +
+                '}';
+    }
+}